@@ -0,0 +1,299 @@
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * what an installment plan costs: monthly payment, total interest, the full
+ * schedule, and the outstanding balance of every installment purchase.
+ *
+ * plans are plain fixed-rate loans: int_rate is yearly %, compounded monthly,
+ * first payment one month after the purchase. for every plan we keep a table
+ * with the payment per dollar borrowed and the balance left per dollar after
+ * each month, so a quote for an amount is one multiply per plan and the
+ * portfolio projection is a lookup per purchase per month. the tables are
+ * rebuilt whenever RefDataCache hands out a new plan list.
+ *
+ * money is rounded to cents per payment; the last payment takes whatever is
+ * left. a quote works that last payment out in closed form, the schedule month
+ * by month with the interest rounded every month, so the two can differ by up
+ * to half a cent per month (a few cents on a long plan).
+ */
+public class Amortization {
+
+    // one plan priced for one amount
+    public static class Quote {
+        public final RefDataCache.Plan plan;
+        public final double amount;
+        public final double monthly;
+        public final double last;           // the last payment takes the rounding
+        public final double totalPaid;
+        public final double totalInterest;
+
+        Quote(RefDataCache.Plan plan, double amount, double monthly, double last) {
+            this.plan = plan;
+            this.amount = amount;
+            this.monthly = monthly;
+            this.last = last;
+            this.totalPaid = round(monthly * (Math.max(1, plan.terms) - 1) + last);
+            this.totalInterest = round(totalPaid - amount);
+        }
+    }
+
+    // one month of a schedule
+    public static class Payment {
+        public final int month;         // 1 = first payment
+        public final double payment;
+        public final double interest;
+        public final double principal;
+        public final double balance;    // left after this payment
+
+        Payment(int month, double payment, double interest, double principal, double balance) {
+            this.month = month;
+            this.payment = payment;
+            this.interest = interest;
+            this.principal = principal;
+            this.balance = balance;
+        }
+    }
+
+    // outstanding balance of all installment purchases, month by month from now
+    public static class Projection {
+        public final LocalDate from;            // first day of month 0 (this month)
+        public final int loans;
+        public final double[] outstanding;      // end of month, [0] = now
+        public final double[] due;              // payments falling in that month
+        public final Map<Integer, Double> byPlan;   // outstanding now per install_id
+        public final long tookMs;
+
+        Projection(LocalDate from, int loans, double[] outstanding, double[] due,
+                   Map<Integer, Double> byPlan, long tookMs) {
+            this.from = from;
+            this.loans = loans;
+            this.outstanding = outstanding;
+            this.due = due;
+            this.byPlan = byPlan;
+            this.tookMs = tookMs;
+        }
+    }
+
+    // precomputed per plan, everything per dollar borrowed
+    private static class Table {
+        final RefDataCache.Plan plan;
+        final double rate;          // monthly, as a fraction
+        final double payment;
+        final double[] balance;     // [k] = left after k payments, [terms] = 0
+        final double grownLast;     // what a dollar grows to before the last payment
+        final double paidLast;      // what a dollar paid monthly grows to by then
+
+        Table(RefDataCache.Plan plan) {
+            this.plan = plan;
+            int n = Math.max(1, plan.terms);
+            rate = plan.rate / 1200.0;
+            balance = new double[n + 1];
+            if (rate == 0) {
+                payment = 1.0 / n;
+                for (int k = 0; k <= n; k++) balance[k] = 1.0 - (double) k / n;
+                grownLast = 1;
+                paidLast = n - 1;
+            } else {
+                double grow = Math.pow(1 + rate, n);
+                payment = rate * grow / (grow - 1);
+                double g = 1;
+                for (int k = 0; k <= n; k++) {
+                    balance[k] = (grow - g) / (grow - 1);
+                    g *= 1 + rate;
+                }
+                grownLast = Math.pow(1 + rate, n - 1);
+                paidLast = (grownLast - 1) / rate;
+            }
+            balance[n] = 0;
+        }
+
+        Quote quote(double amount) {
+            double monthly = round(amount * payment);
+            double left = amount * grownLast - monthly * paidLast;
+            return new Quote(plan, amount, monthly, round(left * (1 + rate)));
+        }
+    }
+
+    // tables for the plan list they were built from (same list object while RefDataCache has it)
+    private static List<RefDataCache.Plan> tablesFrom;
+    private static Table[] tables = new Table[0];
+
+    private static final int LEAF_ROWS = 16 * 1024;
+
+    private Amortization() {}
+
+    private static Table[] tables(ConnectionPool pool) throws SQLException {
+        List<RefDataCache.Plan> plans = RefDataCache.plans(pool);
+        synchronized (Amortization.class) {
+            if (plans != tablesFrom) {
+                Table[] t = new Table[plans.size()];
+                for (int i = 0; i < t.length; i++) t[i] = new Table(plans.get(i));
+                tables = t;
+                tablesFrom = plans;
+            }
+            return tables;
+        }
+    }
+
+    // every plan priced for this amount, in plan id order
+    public static List<Quote> quotes(ConnectionPool pool, double amount) throws SQLException {
+        Table[] t = tables(pool);
+        List<Quote> out = new ArrayList<>(t.length);
+        for (Table tb : t) out.add(tb.quote(amount));
+        return out;
+    }
+
+    // null if there is no such plan
+    public static Quote quote(ConnectionPool pool, int planId, double amount) throws SQLException {
+        for (Table tb : tables(pool)) {
+            if (tb.plan.id == planId) return tb.quote(amount);
+        }
+        return null;
+    }
+
+    // full month by month schedule, empty if there is no such plan
+    public static List<Payment> schedule(ConnectionPool pool, int planId, double amount) throws SQLException {
+        Quote q = quote(pool, planId, amount);
+        List<Payment> out = new ArrayList<>();
+        if (q == null) return out;
+
+        double r = q.plan.rate / 1200.0;
+        double left = amount;
+        int n = Math.max(1, q.plan.terms);
+        for (int m = 1; m <= n; m++) {
+            double interest = round(left * r);
+            double pay = m == n ? round(left + interest) : q.monthly;
+            double principal = round(pay - interest);
+            left = m == n ? 0 : round(left - principal);
+            out.add(new Payment(m, pay, interest, principal, left));
+        }
+        return out;
+    }
+
+    // ---------------- portfolio ----------------
+
+    // installment-financed purchases with the month they were made in
+    private static final String LOANS_SQL =
+        "SELECT ip.install_id, p.total, " +
+        "       EXTRACT(YEAR FROM p.purch_date) * 12 + EXTRACT(MONTH FROM p.purch_date) - 1 " +
+        "FROM ITEM_PURCHASE ip JOIN PURCHASE p ON p.pur_id = ip.pur_id " +
+        "WHERE ip.install_id IS NOT NULL";
+
+    // months <= 0 means until the longest plan is paid off
+    public static Projection project(ConnectionPool pool, int months) throws SQLException {
+        long start = System.currentTimeMillis();
+        Table[] t = tables(pool);
+        Map<Integer, Integer> planIndex = new HashMap<>();
+        int longest = 1;
+        for (int i = 0; i < t.length; i++) {
+            planIndex.put(t[i].plan.id, i);
+            longest = Math.max(longest, t[i].balance.length);
+        }
+        int horizon = months > 0 ? months : longest;
+
+        // one row per purchase in three primitive arrays
+        int n = 0;
+        int[] plan = new int[1024];
+        int[] month = new int[1024];
+        double[] amount = new double[1024];
+        try (Connection conn = pool.readConnection();
+             Statement st = conn.createStatement()) {
+            st.setFetchSize(DbConfig.exportFetchSize());
+            try (ResultSet rs = st.executeQuery(LOANS_SQL)) {
+                while (rs.next()) {
+                    Integer idx = planIndex.get(rs.getInt(1));
+                    if (idx == null) continue;      // plan added after our plan list was loaded
+                    if (n == plan.length) {
+                        plan = Arrays.copyOf(plan, n * 2);
+                        month = Arrays.copyOf(month, n * 2);
+                        amount = Arrays.copyOf(amount, n * 2);
+                    }
+                    plan[n] = idx;
+                    amount[n] = rs.getDouble(2);
+                    month[n] = rs.getInt(3);
+                    n++;
+                }
+            }
+        }
+
+        LocalDate now = LocalDate.now().withDayOfMonth(1);
+        int thisMonth = now.getYear() * 12 + now.getMonthValue() - 1;
+        double[] sums = ForkJoinPool.commonPool().invoke(
+            new Sum(t, plan, month, amount, 0, n, thisMonth, horizon));
+
+        Map<Integer, Double> byPlan = new LinkedHashMap<>();
+        for (int i = 0; i < t.length; i++) byPlan.put(t[i].plan.id, round(sums[2 * horizon + i]));
+        double[] outstanding = new double[horizon];
+        double[] due = new double[horizon];
+        for (int h = 0; h < horizon; h++) {
+            outstanding[h] = round(sums[h]);
+            due[h] = round(sums[horizon + h]);
+        }
+        return new Projection(now, n, outstanding, due, byPlan, System.currentTimeMillis() - start);
+    }
+
+    // sums for rows lo..hi: [0,h) outstanding, [h,2h) due, then outstanding now per plan
+    private static class Sum extends RecursiveTask<double[]> {
+        private static final long serialVersionUID = 1L;
+        final transient Table[] t;
+        final int[] plan, month;
+        final double[] amount;
+        final int lo, hi, thisMonth, horizon;
+
+        Sum(Table[] t, int[] plan, int[] month, double[] amount, int lo, int hi, int thisMonth, int horizon) {
+            this.t = t;
+            this.plan = plan;
+            this.month = month;
+            this.amount = amount;
+            this.lo = lo;
+            this.hi = hi;
+            this.thisMonth = thisMonth;
+            this.horizon = horizon;
+        }
+
+        @Override
+        protected double[] compute() {
+            if (hi - lo > LEAF_ROWS) {
+                int mid = (lo + hi) >>> 1;
+                Sum left = new Sum(t, plan, month, amount, lo, mid, thisMonth, horizon);
+                left.fork();
+                double[] a = new Sum(t, plan, month, amount, mid, hi, thisMonth, horizon).compute();
+                double[] b = left.join();
+                for (int i = 0; i < a.length; i++) a[i] += b[i];
+                return a;
+            }
+
+            double[] s = new double[2 * horizon + t.length];
+            for (int i = lo; i < hi; i++) {
+                Table tb = t[plan[i]];
+                double[] bal = tb.balance;
+                int terms = bal.length - 1;
+                double p = amount[i];
+                int k = thisMonth - month[i];      // payments made by the end of this month
+                if (k < 0) k = 0;
+                if (k > terms) continue;           // paid off before this month
+                s[2 * horizon + plan[i]] += p * bal[k];
+                double pay = p * tb.payment;
+                int end = Math.min(horizon, terms - k + 1);
+                for (int h = 0; h < end; h++) {
+                    s[h] += p * bal[k + h];
+                    if (k + h >= 1) s[horizon + h] += pay;
+                }
+            }
+            return s;
+        }
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 100) / 100.0;
+    }
+}
@@ -0,0 +1,802 @@
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * purchase facts in memory, column by column, for reports and ad-hoc questions.
+ *
+ * two fact tables, each a set of primitive arrays (in 64k row segments so
+ * appending never copies):
+ *   purchases  pur_id, customer, minute, total, kind
+ *   lines      customer, minute (both copied from the purchase), catalog entry,
+ *              quantity, price, kind
+ * customer and catalog ids are dictionary encoded (id -> dense code), so a
+ * group by customer or catalog entry is an array index, not a hash lookup.
+ * minute = purch_date as minutes since 1970 (local time, like the db stores it).
+ *
+ * group by / filter / sum runs on the fork-join pool: small groupings (days,
+ * kinds, up to 64k slots) split the rows and merge per-task arrays, big ones
+ * (customers) split the slots and every task scans all rows for its range.
+ *
+ * the first query loads everything (streamed, three queries). after that,
+ * every lushop.analytics.refreshMs a delta query appends purchases dated after
+ * the newest one loaded minus lushop.analytics.overlapMs. the overlap is there
+ * because purch_date is set before commit; purchases inside it are remembered
+ * by pur_id so they are never appended twice. a full reload happens every
+ * lushop.analytics.rebuildMs, after invalidate() (DataGenerator), or when
+ * changed() hears of a purchase updated, deleted or inserted with a date
+ * before the delta window.
+ */
+public class AnalyticsEngine {
+
+    public enum Group { CUSTOMER, CATALOG, KIND, HOUR, DAY, MONTH }
+
+    public static class Filter {
+        public LocalDate from;          // days included, null = open
+        public LocalDate to;
+        public Boolean items;           // TRUE = items, FALSE = services, null = both
+        public Integer customerId;
+        public Integer catalogId;       // lines only
+
+        public Filter() {}
+
+        public Filter(LocalDate from, LocalDate to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    // one group of a result
+    public static class Row {
+        public final long key;          // customer_id, catalog_id, 1 = item / 2 = service, or bucket start minute
+        public final String label;
+        public final long count;        // purchases or lines, depending on the query
+        public final long units;        // lines only
+        public final double revenue;
+
+        Row(long key, String label, long count, long units, double revenue) {
+            this.key = key;
+            this.label = label;
+            this.count = count;
+            this.units = units;
+            this.revenue = revenue;
+        }
+    }
+
+    static final byte ITEM = 1;
+    static final byte SERVICE = 2;
+
+    private static final int SEG_BITS = 16;
+    private static final int SEG = 1 << SEG_BITS;
+    private static final int MASK = SEG - 1;
+    // groupings up to this many slots give every task its own arrays
+    private static final int ROW_SPLIT_SLOTS = 1 << 16;
+    private static final int LEAF_ROWS = 1 << 18;
+    // more inserted purchases than fit one IN list: reload instead of looking them up
+    private static final int CHANGED_MAX = 1000;
+
+    private static final String LINES_SQL =
+        "SELECT pur_id, catalog_id, quantity, price_at_purchase, 1 FROM ITEM_CONTAINS " +
+        "UNION ALL " +
+        "SELECT pur_id, catalog_id, quantity, price_at_purchase, 2 FROM SERVICE_CONTAINS";
+
+    // purchases (with their lines and names) dated on or after ?, for the delta
+    private static final String DELTA_SQL =
+        "SELECT p.pur_id, p.customer_id, p.purch_date, p.total, c.name, " +
+        "       l.kind, l.catalog_id, l.quantity, l.price_at_purchase, cat.description " +
+        "FROM PURCHASE p " +
+        "JOIN CUSTOMER c ON c.customer_id = p.customer_id " +
+        "LEFT JOIN (SELECT pur_id, catalog_id, quantity, price_at_purchase, 1 AS kind FROM ITEM_CONTAINS " +
+        "           UNION ALL " +
+        "           SELECT pur_id, catalog_id, quantity, price_at_purchase, 2 FROM SERVICE_CONTAINS) l " +
+        "  ON l.pur_id = p.pur_id " +
+        "LEFT JOIN CATALOG cat ON cat.catalog_id = l.catalog_id " +
+        "WHERE p.purch_date >= ? " +
+        "ORDER BY p.pur_id";
+
+    // ---------------- column storage ----------------
+
+    private static class IntCol {
+        int[][] segs = new int[16][];
+
+        int get(int row) {
+            return segs[row >>> SEG_BITS][row & MASK];
+        }
+
+        void set(int row, int v) {
+            int s = row >>> SEG_BITS;
+            if (s >= segs.length) segs = Arrays.copyOf(segs, segs.length * 2);
+            if (segs[s] == null) segs[s] = new int[SEG];
+            segs[s][row & MASK] = v;
+        }
+    }
+
+    private static class DoubleCol {
+        double[][] segs = new double[16][];
+
+        double get(int row) {
+            return segs[row >>> SEG_BITS][row & MASK];
+        }
+
+        void set(int row, double v) {
+            int s = row >>> SEG_BITS;
+            if (s >= segs.length) segs = Arrays.copyOf(segs, segs.length * 2);
+            if (segs[s] == null) segs[s] = new double[SEG];
+            segs[s][row & MASK] = v;
+        }
+    }
+
+    private static class ByteCol {
+        byte[][] segs = new byte[16][];
+
+        byte get(int row) {
+            return segs[row >>> SEG_BITS][row & MASK];
+        }
+
+        void set(int row, byte v) {
+            int s = row >>> SEG_BITS;
+            if (s >= segs.length) segs = Arrays.copyOf(segs, segs.length * 2);
+            if (segs[s] == null) segs[s] = new byte[SEG];
+            segs[s][row & MASK] = v;
+        }
+    }
+
+    // id <-> dense code, plus the display name
+    private static class Dict {
+        final Map<Integer, Integer> codes = new HashMap<>();
+        int[] ids = new int[1024];
+        String[] names = new String[1024];
+        int size;
+
+        int code(int id, String name) {
+            Integer c = codes.get(id);
+            if (c != null) {
+                if (names[c] == null) names[c] = name;
+                return c;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                names = Arrays.copyOf(names, size * 2);
+            }
+            ids[size] = id;
+            names[size] = name;
+            codes.put(id, size);
+            return size++;
+        }
+
+        String name(int code) {
+            return names[code] != null ? names[code] : "#" + ids[code];
+        }
+    }
+
+    // everything loaded, replaced as a whole by a full load
+    private static class Store {
+        final IntCol pId = new IntCol();
+        final IntCol pCust = new IntCol();
+        final IntCol pMinute = new IntCol();
+        final DoubleCol pTotal = new DoubleCol();
+        final ByteCol pKind = new ByteCol();
+        int purchases;
+
+        // customer and minute copied from the purchase so line scans read sequentially
+        final IntCol lCust = new IntCol();
+        final IntCol lMinute = new IntCol();
+        final IntCol lCat = new IntCol();
+        final IntCol lQty = new IntCol();
+        final DoubleCol lPrice = new DoubleCol();
+        final ByteCol lKind = new ByteCol();
+        int lines;
+
+        final Dict customers = new Dict();
+        final Dict catalog = new Dict();
+
+        // pur_id -> purchase row, for purchases inside the overlap window
+        final Map<Integer, Integer> recent = new HashMap<>();
+        int minMinute = Integer.MAX_VALUE;
+        int maxMinute = Integer.MIN_VALUE;
+        long loadedAt;
+        long refreshedAt;
+
+        int addPurchase(int purId, int cust, int minute, double total) {
+            int r = purchases;
+            pId.set(r, purId);
+            pCust.set(r, cust);
+            pMinute.set(r, minute);
+            pTotal.set(r, total);
+            pKind.set(r, (byte) 0);
+            purchases++;
+            if (minute < minMinute) minMinute = minute;
+            if (minute > maxMinute) maxMinute = minute;
+            return r;
+        }
+
+        void addLine(int purRow, int cat, int qty, double price, byte kind) {
+            int r = lines;
+            lCust.set(r, pCust.get(purRow));
+            lMinute.set(r, pMinute.get(purRow));
+            lCat.set(r, cat);
+            lQty.set(r, qty);
+            lPrice.set(r, price);
+            lKind.set(r, kind);
+            pKind.set(purRow, kind);
+            lines++;
+        }
+
+        // keep only purchases the next delta can see again
+        void trimRecent(int overlapMinutes) {
+            int cutoff = maxMinute - overlapMinutes;
+            for (Iterator<Integer> it = recent.values().iterator(); it.hasNext(); ) {
+                if (pMinute.get(it.next()) < cutoff) it.remove();
+            }
+        }
+    }
+
+    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private static final Object loading = new Object();
+    private static Store store;
+    private static boolean stale = true;
+
+    private static final AtomicLong fullLoads = new AtomicLong();
+    private static final AtomicLong deltas = new AtomicLong();
+    private static final AtomicLong backdated = new AtomicLong();
+    private static final AtomicLong queries = new AtomicLong();
+    private static volatile long lastQueryMicros;
+
+    private static final long refreshMs = DbConfig.analyticsRefreshMs();
+    private static final long rebuildMs = DbConfig.analyticsRebuildMs();
+    private static final int overlapMinutes = (int) Math.max(1, DbConfig.analyticsOverlapMs() / 60_000);
+
+    private AnalyticsEngine() {}
+
+    // ---------------- queries ----------------
+
+    // per purchase: count = purchases, revenue = PURCHASE.total
+    public static List<Row> purchases(ConnectionPool pool, Group g, Filter f) throws SQLException {
+        if (g == Group.CATALOG) throw new IllegalArgumentException("group purchases by catalog entry: use lines()");
+        return query(pool, false, g, f == null ? new Filter() : f, false);
+    }
+
+    // per line: count = lines, units = quantity, revenue = quantity * price_at_purchase
+    public static List<Row> lines(ConnectionPool pool, Group g, Filter f) throws SQLException {
+        return query(pool, true, g, f == null ? new Filter() : f, false);
+    }
+
+    private static class Agg {
+        final long[] count;
+        final long[] units;
+        final double[] revenue;
+
+        Agg(int slots) {
+            count = new long[slots];
+            units = new long[slots];
+            revenue = new double[slots];
+        }
+
+        void merge(Agg o) {
+            for (int i = 0; i < count.length; i++) {
+                count[i] += o.count[i];
+                units[i] += o.units[i];
+                revenue[i] += o.revenue[i];
+            }
+        }
+    }
+
+    // empty = also list customers / catalog entries with nothing in the result
+    private static List<Row> query(ConnectionPool pool, boolean lines, Group g, Filter f, boolean empty)
+            throws SQLException {
+        ensureFresh(pool);
+        long t0 = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            Store s = store;
+            List<Row> out = new ArrayList<>();
+            int rows = lines ? s.lines : s.purchases;
+            if (rows == 0) return out;
+
+            // filters, turned into codes / minute bounds once
+            int lo = f.from == null ? s.minMinute : Math.max(s.minMinute, minute(f.from.atStartOfDay()));
+            int hi = f.to == null ? s.maxMinute : Math.min(s.maxMinute, minute(f.to.plusDays(1).atStartOfDay()) - 1);
+            if (lo > hi) return out;
+            int cust = -1;
+            if (f.customerId != null) {
+                Integer c = s.customers.codes.get(f.customerId);
+                if (c == null) return out;
+                cust = c;
+            }
+            int cat = -1;
+            if (f.catalogId != null) {
+                if (!lines) throw new IllegalArgumentException("catalog filter only works on lines()");
+                Integer c = s.catalog.codes.get(f.catalogId);
+                if (c == null) return out;
+                cat = c;
+            }
+            byte kind = f.items == null ? 0 : f.items ? ITEM : SERVICE;
+
+            // group key -> slot
+            int loDay = Math.floorDiv(lo, 1440);
+            int[] monthOfDay = null;
+            int slots;
+            int base;
+            switch (g) {
+                case CUSTOMER: slots = s.customers.size; base = 0; break;
+                case CATALOG:  slots = s.catalog.size; base = 0; break;
+                case KIND:     slots = 3; base = 0; break;
+                case HOUR:     base = Math.floorDiv(lo, 60); slots = Math.floorDiv(hi, 60) - base + 1; break;
+                case DAY:      base = loDay; slots = Math.floorDiv(hi, 1440) - base + 1; break;
+                default: {
+                    // month per day of the range, computed once instead of per row
+                    int days = Math.floorDiv(hi, 1440) - loDay + 1;
+                    monthOfDay = new int[days];
+                    LocalDate d = LocalDate.ofEpochDay(loDay);
+                    base = d.getYear() * 12 + d.getMonthValue() - 1;
+                    for (int i = 0; i < days; i++, d = d.plusDays(1)) {
+                        monthOfDay[i] = d.getYear() * 12 + d.getMonthValue() - 1 - base;
+                    }
+                    slots = monthOfDay[days - 1] + 1;
+                }
+            }
+            if (slots <= 0) return out;
+
+            Scan scan = new Scan(s, lines, g, lo, hi, cust, cat, kind, base, loDay, monthOfDay);
+            Agg agg = aggregate(rows, slots, scan);
+
+            for (int i = 0; i < slots; i++) {
+                if (agg.count[i] == 0 && !(empty && g.ordinal() < Group.KIND.ordinal())) continue;
+                long key;
+                String label;
+                switch (g) {
+                    case CUSTOMER: key = s.customers.ids[i]; label = s.customers.name(i); break;
+                    case CATALOG:  key = s.catalog.ids[i]; label = s.catalog.name(i); break;
+                    case KIND:     key = i; label = i == ITEM ? "ITEM" : i == SERVICE ? "SERVICE" : "(no lines)"; break;
+                    case HOUR:     key = (long) (base + i) * 60; label = label(key, "yyyy-MM-dd HH:00"); break;
+                    case DAY:      key = (long) (base + i) * 1440; label = label(key, "yyyy-MM-dd"); break;
+                    default: {
+                        int ym = base + i;
+                        key = LocalDate.of(ym / 12, ym % 12 + 1, 1).toEpochDay() * 1440;
+                        label = label(key, "yyyy-MM");
+                    }
+                }
+                out.add(new Row(key, label, agg.count[i], agg.units[i], agg.revenue[i]));
+            }
+            // time in order, everything else biggest first
+            if (g == Group.CUSTOMER || g == Group.CATALOG || g == Group.KIND) {
+                out.sort((a, b) -> Double.compare(b.revenue, a.revenue));
+            }
+            return out;
+        } finally {
+            lock.readLock().unlock();
+            queries.incrementAndGet();
+            lastQueryMicros = (System.nanoTime() - t0) / 1000;
+        }
+    }
+
+    // one query's filters and grouping, run() aggregates a range of rows
+    private static class Scan {
+        final Store s;
+        final boolean lines;
+        final int group;            // Group ordinal, an int switch in the loop
+        final int lo, hi, cust, cat, base, loDay;
+        final byte kind;
+        final int[] months;
+
+        Scan(Store s, boolean lines, Group g, int lo, int hi, int cust, int cat, byte kind,
+             int base, int loDay, int[] months) {
+            this.s = s;
+            this.lines = lines;
+            this.group = g.ordinal();
+            this.lo = lo;
+            this.hi = hi;
+            this.cust = cust;
+            this.cat = cat;
+            this.kind = kind;
+            this.base = base;
+            this.loDay = loDay;
+            this.months = months;
+        }
+
+        // rows from..to, only groups sLo..sHi are added to a
+        void run(int from, int to, Agg a, int sLo, int sHi) {
+            IntCol minuteCol = lines ? s.lMinute : s.pMinute;
+            IntCol custCol = lines ? s.lCust : s.pCust;
+            ByteCol kindCol = lines ? s.lKind : s.pKind;
+            DoubleCol valueCol = lines ? s.lPrice : s.pTotal;
+
+            // a segment at a time, so the inner loop works on plain arrays
+            for (int r = from; r < to; ) {
+                int seg = r >>> SEG_BITS;
+                int i = r & MASK;
+                int end = Math.min(SEG, i + (to - r));
+                r += end - i;
+
+                int[] min = minuteCol.segs[seg];
+                int[] cu = custCol.segs[seg];
+                byte[] kd = kindCol.segs[seg];
+                double[] val = valueCol.segs[seg];
+                int[] ca = lines ? s.lCat.segs[seg] : null;
+                int[] qt = lines ? s.lQty.segs[seg] : null;
+
+                for (; i < end; i++) {
+                    int m = min[i];
+                    if (m < lo || m > hi) continue;
+                    if (kind != 0 && kd[i] != kind) continue;
+                    if (cust >= 0 && cu[i] != cust) continue;
+                    if (cat >= 0 && ca[i] != cat) continue;
+
+                    int slot;
+                    switch (group) {
+                        case 0:  slot = cu[i]; break;                                   // CUSTOMER
+                        case 1:  slot = ca[i]; break;                                   // CATALOG
+                        case 2:  slot = kd[i]; break;                                   // KIND
+                        case 3:  slot = Math.floorDiv(m, 60) - base; break;             // HOUR
+                        case 4:  slot = Math.floorDiv(m, 1440) - base; break;           // DAY
+                        default: slot = months[Math.floorDiv(m, 1440) - loDay];         // MONTH
+                    }
+                    if (slot < sLo || slot >= sHi) continue;
+
+                    a.count[slot]++;
+                    if (lines) {
+                        int q = qt[i];
+                        a.units[slot] += q;
+                        a.revenue[slot] += q * val[i];
+                    } else {
+                        a.revenue[slot] += val[i];
+                    }
+                }
+            }
+        }
+    }
+
+    private static Agg aggregate(int rows, int slots, Scan scan) {
+        ForkJoinPool fj = ForkJoinPool.commonPool();
+        if (slots <= ROW_SPLIT_SLOTS) {
+            return fj.invoke(new RowTask(0, rows, slots, scan));
+        }
+        // too many groups for an array per task: split the groups, every task reads all rows
+        Agg agg = new Agg(slots);
+        int parts = fj.getParallelism() <= 1 ? 1 : fj.getParallelism() * 2;
+        fj.invoke(new SlotTask(agg, rows, 0, slots, (slots + parts - 1) / parts, scan));
+        return agg;
+    }
+
+    private static class RowTask extends RecursiveTask<Agg> {
+        private static final long serialVersionUID = 1L;
+        final int lo, hi, slots;
+        final transient Scan scan;
+
+        RowTask(int lo, int hi, int slots, Scan scan) {
+            this.lo = lo;
+            this.hi = hi;
+            this.slots = slots;
+            this.scan = scan;
+        }
+
+        @Override
+        protected Agg compute() {
+            if (hi - lo <= LEAF_ROWS) {
+                Agg a = new Agg(slots);
+                scan.run(lo, hi, a, 0, slots);
+                return a;
+            }
+            int mid = (lo + hi) >>> 1;
+            RowTask left = new RowTask(lo, mid, slots, scan);
+            left.fork();
+            Agg right = new RowTask(mid, hi, slots, scan).compute();
+            Agg a = left.join();
+            a.merge(right);
+            return a;
+        }
+    }
+
+    private static class SlotTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final transient Agg agg;
+        final int rows, lo, hi, chunk;
+        final transient Scan scan;
+
+        SlotTask(Agg agg, int rows, int lo, int hi, int chunk, Scan scan) {
+            this.agg = agg;
+            this.rows = rows;
+            this.lo = lo;
+            this.hi = hi;
+            this.chunk = chunk;
+            this.scan = scan;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= chunk) {
+                // only this task writes slots lo..hi, so no locking
+                scan.run(0, rows, agg, lo, hi);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new SlotTask(agg, rows, lo, mid, chunk, scan),
+                      new SlotTask(agg, rows, mid, hi, chunk, scan));
+        }
+    }
+
+    // ---------------- the Manager reports ----------------
+    // spending isn't here: it is CUSTOMER_EXPENSE (the expense ledger), which
+    // isn't what PURCHASE.total adds up to, and one row per customer in sql anyway
+
+    // same as Manager.REVENUE_SQL: revenue per description, highest first
+    public static List<ReportScheduler.Total> revenue(ConnectionPool pool) throws SQLException {
+        Map<String, Double> byDesc = new LinkedHashMap<>();
+        for (Row r : lines(pool, Group.CATALOG, null)) byDesc.merge(r.label, r.revenue, Double::sum);
+        List<ReportScheduler.Total> out = new ArrayList<>();
+        for (Map.Entry<String, Double> e : byDesc.entrySet()) out.add(new ReportScheduler.Total(e.getKey(), e.getValue()));
+        out.sort((a, b) -> Double.compare(b.amount, a.amount));
+        return out;
+    }
+
+    // same as PurchaseActivity.range
+    public static List<PurchaseActivity.Bucket> activity(ConnectionPool pool, PurchaseActivity.Grain grain,
+                                                         LocalDate from, LocalDate to) throws SQLException {
+        if (grain == PurchaseActivity.Grain.MONTH) from = from.withDayOfMonth(1);
+        Group g = grain == PurchaseActivity.Grain.HOUR ? Group.HOUR
+                : grain == PurchaseActivity.Grain.DAY ? Group.DAY : Group.MONTH;
+        List<PurchaseActivity.Bucket> out = new ArrayList<>();
+        for (Row r : purchases(pool, g, new Filter(from, to))) {
+            out.add(new PurchaseActivity.Bucket(
+                Timestamp.valueOf(LocalDateTime.ofEpochSecond(r.key * 60, 0, ZoneOffset.UTC)), (int) r.count, r.revenue));
+        }
+        return out;
+    }
+
+    // ---------------- loading ----------------
+
+    // bulk changes (DataGenerator), reload everything on the next query
+    public static void invalidate() {
+        lock.writeLock().lock();
+        try {
+            stale = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // purchases changed by anyone (ChangeFeed). updates and deletes reload. inserts
+    // normally come in through the delta, but one dated before the delta window
+    // (backdated by a script or another instance) never would, so that reloads too
+    public static void changed(ConnectionPool pool, List<ChangeFeed.Event> events) throws SQLException {
+        List<Integer> inserted = new ArrayList<>();
+        for (ChangeFeed.Event e : events) {
+            if (e.table != ChangeFeed.Table.PURCHASE) continue;
+            if (e.op != ChangeFeed.Op.INSERT) {
+                invalidate();
+                return;
+            }
+            inserted.add(e.rowId);
+        }
+        if (inserted.isEmpty()) return;
+        if (inserted.size() > CHANGED_MAX) {
+            invalidate();
+            return;
+        }
+
+        // no delta or load runs meanwhile, so the window can't move under us
+        synchronized (loading) {
+            Store s;
+            lock.readLock().lock();
+            try {
+                if (stale || store == null || store.purchases == 0) return;     // the next load reads everything
+                s = store;
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM PURCHASE WHERE purch_date < ? AND pur_id IN (");
+            for (int i = 0; i < inserted.size(); i++) sql.append(i == 0 ? "?" : ", ?");
+            sql.append(")");
+            int since = s.maxMinute - overlapMinutes;
+            try (Connection conn = pool.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+                ps.setTimestamp(1, Timestamp.valueOf(LocalDateTime.ofEpochSecond((long) since * 60, 0, ZoneOffset.UTC)));
+                for (int i = 0; i < inserted.size(); i++) ps.setInt(i + 2, inserted.get(i));
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    if (rs.getInt(1) > 0) {
+                        invalidate();
+                        backdated.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    public static String stats() {
+        lock.readLock().lock();
+        try {
+            Store s = store;
+            return "analytics[loaded=" + (s != null) + ", purchases=" + (s == null ? 0 : s.purchases)
+                 + ", lines=" + (s == null ? 0 : s.lines) + ", customers=" + (s == null ? 0 : s.customers.size)
+                 + ", catalog=" + (s == null ? 0 : s.catalog.size) + ", fullLoads=" + fullLoads.get()
+                 + ", deltas=" + deltas.get() + ", backdated=" + backdated.get() + ", queries=" + queries.get()
+                 + ", lastQueryUs=" + lastQueryMicros + "]";
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void ensureFresh(ConnectionPool pool) throws SQLException {
+        long now = System.currentTimeMillis();
+        boolean full;
+        lock.readLock().lock();
+        try {
+            full = stale || store == null || now - store.loadedAt >= rebuildMs;
+            if (!full && now - store.refreshedAt < refreshMs) return;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // one loader at a time, the others wait and then find it done
+        synchronized (loading) {
+            lock.readLock().lock();
+            try {
+                now = System.currentTimeMillis();
+                full = stale || store == null || now - store.loadedAt >= rebuildMs;
+                if (!full && now - store.refreshedAt < refreshMs) return;
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (full) fullLoad(pool);
+            else delta(pool);
+        }
+    }
+
+    // built outside the lock, queries keep using the old store meanwhile
+    private static void fullLoad(ConnectionPool pool) throws SQLException {
+        Store s = new Store();
+        s.loadedAt = System.currentTimeMillis();
+        int fetch = DbConfig.exportFetchSize();
+
+        try (Connection conn = pool.readConnection();
+             Statement st = conn.createStatement()) {
+            st.setFetchSize(fetch);
+
+            try (ResultSet rs = st.executeQuery("SELECT customer_id, name FROM CUSTOMER")) {
+                while (rs.next()) s.customers.code(rs.getInt(1), rs.getString(2));
+            }
+            try (ResultSet rs = st.executeQuery("SELECT catalog_id, description FROM CATALOG")) {
+                while (rs.next()) s.catalog.code(rs.getInt(1), rs.getString(2));
+            }
+            try (ResultSet rs = st.executeQuery("SELECT pur_id, customer_id, purch_date, total FROM PURCHASE")) {
+                while (rs.next()) {
+                    s.addPurchase(rs.getInt(1), s.customers.code(rs.getInt(2), null),
+                                  minute(rs.getTimestamp(3).toLocalDateTime()), rs.getDouble(4));
+                }
+            }
+
+            // pur_id -> row by binary search over (pur_id << 32 | row), sorted in parallel
+            long[] byId = new long[s.purchases];
+            for (int r = 0; r < s.purchases; r++) byId[r] = ((long) s.pId.get(r) << 32) | r;
+            Arrays.parallelSort(byId);
+
+            try (ResultSet rs = st.executeQuery(LINES_SQL)) {
+                while (rs.next()) {
+                    int row = find(byId, rs.getInt(1));
+                    // committed after the purchase query ran, the next delta brings it
+                    if (row < 0) continue;
+                    s.addLine(row, s.catalog.code(rs.getInt(2), null), rs.getInt(3), rs.getDouble(4),
+                              (byte) rs.getInt(5));
+                }
+            }
+        }
+
+        int overlap = overlapMinutes;
+        for (int r = 0; r < s.purchases; r++) {
+            if (s.pMinute.get(r) >= s.maxMinute - overlap) s.recent.put(s.pId.get(r), r);
+        }
+        s.refreshedAt = System.currentTimeMillis();
+
+        lock.writeLock().lock();
+        try {
+            store = s;
+            stale = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        fullLoads.incrementAndGet();
+    }
+
+    private static int find(long[] byId, int purId) {
+        int lo = 0, hi = byId.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int id = (int) (byId[mid] >>> 32);
+            if (id < purId) lo = mid + 1;
+            else if (id > purId) hi = mid - 1;
+            else return (int) byId[mid];
+        }
+        return -1;
+    }
+
+    // one line of the delta query
+    private static class DeltaRow {
+        int purId, customerId, minute, kind, catalogId, quantity;
+        double total, price;
+        String name, description;
+    }
+
+    private static void delta(ConnectionPool pool) throws SQLException {
+        Store s;
+        lock.readLock().lock();
+        try {
+            s = store;
+        } finally {
+            lock.readLock().unlock();
+        }
+        int since = s.purchases == 0 ? Integer.MIN_VALUE / 2 : s.maxMinute - overlapMinutes;
+
+        List<DeltaRow> rows = new ArrayList<>();
+        // the overlap is far more than the replica may lag, so nothing is missed there
+        try (Connection conn = pool.readConnection();
+             PreparedStatement ps = conn.prepareStatement(DELTA_SQL)) {
+            ps.setTimestamp(1, Timestamp.valueOf(LocalDateTime.ofEpochSecond((long) since * 60, 0, ZoneOffset.UTC)));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    DeltaRow d = new DeltaRow();
+                    d.purId = rs.getInt(1);
+                    d.customerId = rs.getInt(2);
+                    d.minute = minute(rs.getTimestamp(3).toLocalDateTime());
+                    d.total = rs.getDouble(4);
+                    d.name = rs.getString(5);
+                    d.kind = rs.getInt(6);     // 0 = no lines
+                    d.catalogId = rs.getInt(7);
+                    d.quantity = rs.getInt(8);
+                    d.price = rs.getDouble(9);
+                    d.description = rs.getString(10);
+                    rows.add(d);
+                }
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (store != s) return;     // a full load replaced it meanwhile
+            int lastPur = -1;
+            int row = -1;
+            boolean skip = false;
+            for (DeltaRow d : rows) {
+                if (d.purId != lastPur) {
+                    lastPur = d.purId;
+                    skip = s.recent.containsKey(d.purId);     // already loaded
+                    if (!skip) {
+                        row = s.addPurchase(d.purId, s.customers.code(d.customerId, d.name), d.minute, d.total);
+                        s.recent.put(d.purId, row);
+                    }
+                }
+                if (!skip && d.kind != 0) {
+                    s.addLine(row, s.catalog.code(d.catalogId, d.description), d.quantity, d.price, (byte) d.kind);
+                }
+            }
+            s.trimRecent(overlapMinutes);
+            s.refreshedAt = System.currentTimeMillis();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        deltas.incrementAndGet();
+    }
+
+    static int minute(LocalDateTime t) {
+        return (int) Math.floorDiv(t.toEpochSecond(ZoneOffset.UTC), 60);
+    }
+
+    private static String label(long minute, String pattern) {
+        return LocalDateTime.ofEpochSecond(minute * 60, 0, ZoneOffset.UTC).format(DateTimeFormatter.ofPattern(pattern));
+    }
+}
@@ -0,0 +1,330 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+
+/*
+ * benchmark harness for the hot paths, run from the command line:
+ *
+ *   java -Dlushop.db.url=... -Dlushop.db.user=... -Dlushop.db.password=... \
+ *        -cp and327.jar:ojdbc11.jar Bench
+ *
+ * without lushop.db.url it runs against an in-memory H2 db (oracle mode, needs
+ * h2.jar on the classpath instead of ojdbc11.jar), handy for a quick local run.
+ *
+ * it (optionally) loads dataGeneration/RelationalSchema.sql, seeds the requested
+ * number of customers / catalog entries / purchases with DataGenerator
+ * (lushop.gen.* settings apply), then times:
+ *   purchase        PurchaseService.purchase (what Customer > Make purchase runs)
+ *   search          CatalogIndex.search (Catalog > Search)
+ *   listing         5 pages of CatalogPager with the page cache cleared first
+ *   report.*        the three Manager reports (same sql as the menu)
+ *   analytics.*     revenue and activity from AnalyticsEngine (in memory)
+ *   plans.quotes    Amortization.quotes, every plan priced for a cart total
+ *   plans.exposure  Amortization.project, outstanding balance of all installment purchases
+ *
+ * every benchmark gets warmup runs, then measured runs, and one result line
+ * (ops/s + latency percentiles in microseconds) goes to lushop.bench.out as
+ * CSV, or JSON if the file name ends in .json. compare two result files
+ * between builds to catch regressions.
+ *
+ * the same benchmarks also run under jmh (forked jvms, proper warmup and
+ * dead code handling), see jmh/lushop/LushopBenchmark.java and README 4.
+ *
+ * settings (-D or env var like everything else, see DbConfig):
+ *   lushop.bench.schema      schema script to load first, blank = use the db as is
+ *                            (default: blank, RelationalSchema.sql on H2)
+ *   lushop.bench.customers   customers to seed (default 200)
+ *   lushop.bench.catalog     catalog entries to seed (default 1000)
+ *   lushop.bench.purchases   purchases to seed (default 2000)
+ *   lushop.bench.warmup      warmup runs per benchmark (default 50)
+ *   lushop.bench.iterations  measured runs per benchmark (default 500)
+ *   lushop.bench.seed        random seed (default 42)
+ *   lushop.bench.out         result file (default bench-results.csv)
+ */
+public class Bench {
+
+    // one line of the result file
+    static class Result {
+        final String name;
+        final int ops;
+        final double opsPerSec;
+        final long p50, p90, p99, max;     // microseconds
+        final double mean;
+
+        Result(String name, long[] nanos, long wallNanos) {
+            Arrays.sort(nanos);
+            this.name = name;
+            this.ops = nanos.length;
+            this.opsPerSec = ops / (wallNanos / 1e9);
+            long sum = 0;
+            for (long n : nanos) sum += n;
+            this.mean = sum / 1000.0 / ops;
+            this.p50 = pct(nanos, 0.50);
+            this.p90 = pct(nanos, 0.90);
+            this.p99 = pct(nanos, 0.99);
+            this.max = nanos[ops - 1] / 1000;
+        }
+
+        private static long pct(long[] sorted, double p) {
+            int i = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, i)] / 1000;
+        }
+    }
+
+    // one timed operation
+    interface Op {
+        void run(int i) throws Exception;
+    }
+
+    static final String H2_URL = "jdbc:h2:mem:lushop-bench;MODE=Oracle;DB_CLOSE_DELAY=-1";
+    static final String SCHEMA = "dataGeneration/RelationalSchema.sql";
+
+    private final ConnectionPool pool;
+    private final Random rnd;
+    private final int warmup = DbConfig.getInt("lushop.bench.warmup", 50);
+    private final int iterations = Math.max(1, DbConfig.getInt("lushop.bench.iterations", 500));
+
+    private final long seed;
+    private final int customers = DbConfig.getInt("lushop.bench.customers", 200);
+    private final int catalog = DbConfig.getInt("lushop.bench.catalog", 1000);
+    private final int purchases = DbConfig.getInt("lushop.bench.purchases", 2000);
+    // what seeding created, the purchase benchmark picks from it
+    private DataGenerator.Dataset data;
+
+    Bench(ConnectionPool pool, long seed) {
+        this.pool = pool;
+        this.seed = seed;
+        this.rnd = new Random(seed);
+    }
+
+    // no lushop.db.url: a fresh in-memory H2 db with the schema loaded, nothing to set up
+    static boolean h2() {
+        return DbConfig.get("lushop.db.url", "").isEmpty();
+    }
+
+    static ConnectionPool connect() throws SQLException {
+        if (!h2()) return new ConnectionPool(DbConfig.user(), DbConfig.password());
+        return new ConnectionPool(H2_URL, "sa", "", DbConfig.poolMin(), DbConfig.poolMax(),
+                                  DbConfig.poolIdleTimeoutMs(), DbConfig.poolBorrowTimeoutMs(),
+                                  DbConfig.poolLeakThresholdMs(), DbConfig.poolValidationTimeoutSec());
+    }
+
+    public static void main(String[] args) {
+        String out = DbConfig.get("lushop.bench.out", "bench-results.csv");
+
+        try (ConnectionPool pool = connect()) {
+            Bench b = new Bench(pool, DbConfig.getLong("lushop.bench.seed", 42));
+            b.prepare();
+
+            List<Result> results = b.runAll();
+            write(Paths.get(out), results, b.customers, b.catalog, b.purchases);
+            System.out.println("Results written to " + out);
+
+        } catch (Exception e) {
+            System.out.println("Benchmark failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // ---------------- benchmarks ----------------
+
+    List<Result> runAll() throws Exception {
+        List<Result> results = new ArrayList<>();
+        PurchaseService service = new PurchaseService(pool);
+        try {
+            for (Map.Entry<String, Op> e : ops(service).entrySet()) results.add(time(e.getKey(), e.getValue()));
+        } finally {
+            service.close();
+        }
+        return results;
+    }
+
+    // every benchmark by name, in the order they run
+    private Map<String, Op> ops(PurchaseService service) {
+        Map<String, Op> ops = new LinkedHashMap<>();
+        ops.put("purchase", i -> {
+            PurchaseService.Result r = service.purchase(randomOrder());
+            if (!r.ok()) throw new IllegalStateException(r.error);
+        });
+
+        ops.put("search", i ->
+            CatalogIndex.search(pool, DataGenerator.WORDS[rnd.nextInt(DataGenerator.WORDS.length)].substring(0, 4), Catalog.SEARCH_LIMIT));
+
+        CatalogPager.Sort[] sorts = CatalogPager.Sort.values();
+        ops.put("listing", i -> {
+            RefDataCache.invalidateCatalog();   // measure the database, not the page cache
+            CatalogPager.Sort sort = sorts[i % sorts.length];
+            RefDataCache.CatalogEntry after = null;
+            for (int p = 0; p < 5; p++) {
+                CatalogPager.Page page = CatalogPager.page(pool, CatalogPager.Kind.ALL, sort, after, DbConfig.pageSize());
+                if (!page.hasMore) break;
+                after = page.last();
+            }
+        });
+
+        ops.put("report.spending", i -> drain(Manager.SPENDING_SQL));
+        ops.put("report.revenue", i -> drain(Manager.REVENUE_SQL));
+        ops.put("report.activity", i ->
+            PurchaseActivity.range(pool, PurchaseActivity.Grain.DAY, LocalDate.now().minusDays(29), LocalDate.now()));
+
+        // revenue and activity over the in-memory facts (first warmup run loads them)
+        ops.put("analytics.revenue", i -> AnalyticsEngine.revenue(pool));
+        ops.put("analytics.activity", i ->
+            AnalyticsEngine.activity(pool, PurchaseActivity.Grain.DAY, LocalDate.now().minusDays(29), LocalDate.now()));
+
+        ops.put("plans.quotes", i -> Amortization.quotes(pool, 100 + i % 5000));
+        ops.put("plans.exposure", i -> Amortization.project(pool, 0));
+        return ops;
+    }
+
+    /*
+     * the same benchmarks for jmh (jmh/LushopBenchmark.java, mvn -P jmh package).
+     * jmh wants its benchmark classes in a package and a package can't name
+     * classes in the default package, so the benchmark gets this via reflection
+     * and only sees AutoCloseable and Function: apply(name) is the operation.
+     * opening it loads the schema and seeds the database like main() does.
+     */
+    public static class Fixture implements AutoCloseable, Function<String, Callable<Object>> {
+        private final ConnectionPool pool;
+        private final PurchaseService service;
+        private final Map<String, Op> ops;
+        private int calls;
+
+        Fixture() throws Exception {
+            pool = connect();
+            try {
+                Bench b = new Bench(pool, DbConfig.getLong("lushop.bench.seed", 42));
+                b.prepare();
+                service = new PurchaseService(pool);
+                ops = b.ops(service);
+            } catch (Exception e) {
+                pool.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public Callable<Object> apply(String name) {
+            Op op = ops.get(name);
+            if (op == null) throw new IllegalArgumentException("no benchmark " + name + ", have " + ops.keySet());
+            return () -> {
+                op.run(calls++);
+                return null;
+            };
+        }
+
+        @Override
+        public void close() {
+            service.close();
+            pool.close();
+        }
+    }
+
+    public static Fixture fixture() throws Exception {
+        return new Fixture();
+    }
+
+    private Result time(String name, Op op) throws Exception {
+        for (int i = 0; i < warmup; i++) op.run(i);
+
+        long[] nanos = new long[iterations];
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            long t = System.nanoTime();
+            op.run(i);
+            nanos[i] = System.nanoTime() - t;
+        }
+        Result r = new Result(name, nanos, System.nanoTime() - start);
+        System.out.printf("%-16s %8.1f ops/s  p50=%dus p99=%dus%n", r.name, r.opsPerSec, r.p50, r.p99);
+        return r;
+    }
+
+    // run a report query and read every row like the menu does
+    private void drain(String sql) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            while (rs.next()) rs.getString(1);
+        }
+    }
+
+    private PurchaseService.Order randomOrder() {
+        boolean canIndiv = !data.individuals.isEmpty() && !data.items.isEmpty();
+        boolean canBus = !data.businesses.isEmpty() && !data.services.isEmpty();
+        if (!canIndiv && !canBus) throw new IllegalStateException("seeded data has nothing to buy");
+        boolean indiv = !canBus || (canIndiv && rnd.nextBoolean());
+        List<int[]> who = indiv ? data.individuals : data.businesses;
+        List<Integer> what = indiv ? data.items : data.services;
+        int[] c = who.get(rnd.nextInt(who.size()));
+
+        PurchaseService.Order o = new PurchaseService.Order(c[0],
+            indiv ? Cart.Payment.card(c[1]) : Cart.Payment.bank(c[1]));
+        int lines = 1 + rnd.nextInt(3);
+        for (int l = 0; l < lines; l++) o.add(what.get(rnd.nextInt(what.size())), 1 + rnd.nextInt(3));
+        return o;
+    }
+
+    // ---------------- seeding ----------------
+
+    // loads lushop.bench.schema if set (always on the in-memory H2 db), then seeds
+    void prepare() throws Exception {
+        String schema = DbConfig.get("lushop.bench.schema", h2() ? SCHEMA : "");
+        if (!schema.isEmpty()) {
+            System.out.println("Loading schema from " + schema);
+            try (Connection conn = pool.getConnection()) {
+                SqlScript.run(conn, Paths.get(schema));
+            }
+        }
+
+        long t0 = System.nanoTime();
+        seed(customers, catalog, purchases);
+        System.out.printf("Seeded %d customers, %d catalog entries, %d purchases in %.1f s%n",
+            customers, catalog, purchases, (System.nanoTime() - t0) / 1e9);
+    }
+
+    void seed(int customers, int catalog, int purchases) throws Exception {
+        data = new DataGenerator(pool, seed).generate(customers, catalog, purchases);
+    }
+
+    // ---------------- output ----------------
+
+    static void write(Path file, List<Result> results, int customers, int catalog, int purchases)
+            throws IOException {
+        boolean json = file.toString().endsWith(".json");
+        try (PrintWriter w = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            if (json) {
+                w.printf(Locale.ROOT, "{\"customers\": %d, \"catalog\": %d, \"purchases\": %d, \"results\": [%n",
+                         customers, catalog, purchases);
+                for (int i = 0; i < results.size(); i++) {
+                    Result r = results.get(i);
+                    w.printf(Locale.ROOT, "  {\"benchmark\": \"%s\", \"ops\": %d, \"opsPerSec\": %.2f, \"meanUs\": %.1f, "
+                           + "\"p50Us\": %d, \"p90Us\": %d, \"p99Us\": %d, \"maxUs\": %d}%s%n",
+                             r.name, r.ops, r.opsPerSec, r.mean, r.p50, r.p90, r.p99, r.max,
+                             i < results.size() - 1 ? "," : "");
+                }
+                w.println("]}");
+            } else {
+                w.println("benchmark,customers,catalog,purchases,ops,ops_per_sec,mean_us,p50_us,p90_us,p99_us,max_us");
+                for (Result r : results) {
+                    w.printf(Locale.ROOT, "%s,%d,%d,%d,%d,%.2f,%.1f,%d,%d,%d,%d%n",
+                             r.name, customers, catalog, purchases, r.ops, r.opsPerSec, r.mean,
+                             r.p50, r.p90, r.p99, r.max);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * shopping cart for one customer: many catalog lines in ONE purchase.
+ *
+ * ITEM_CONTAINS / SERVICE_CONTAINS are keyed (pur_id, catalog_id) so a purchase
+ * can have many lines, the old flow just never used it. checkout costs the
+ * same number of round trips no matter how many lines:
+ *   1 query to price/check every line (IN list)
+ *   1 insert PURCHASE (with the real total now, it used to always be 0)
+ *   1 insert EXPENSE_LEDGER (see ExpenseLedger, replaces the per-line triggers)
+ *   1 insert ITEM_PURCHASE or SERVICE_PURCHASE
+ *   1 batched insert of all the lines
+ */
+public class Cart {
+
+    public static final int MAX_LINES = 200;
+
+    // a cart line after pricing against CATALOG
+    public static class Line {
+        public final int catalogId;
+        public final int quantity;
+        public final String description;
+        public final double price;
+        public final boolean item;
+        public final boolean service;
+
+        Line(int catalogId, int quantity, String description, double price, boolean item, boolean service) {
+            this.catalogId = catalogId;
+            this.quantity = quantity;
+            this.description = description;
+            this.price = price;
+            this.item = item;
+            this.service = service;
+        }
+
+        public double amount() {
+            return quantity * price;
+        }
+    }
+
+    // how the customer pays, exactly one of the ids is set
+    public static class Payment {
+        public final Integer cardId;
+        public final Integer installId;
+        public final Integer bankId;
+
+        private Payment(Integer cardId, Integer installId, Integer bankId) {
+            this.cardId = cardId;
+            this.installId = installId;
+            this.bankId = bankId;
+        }
+
+        public static Payment card(int id) { return new Payment(id, null, null); }
+        public static Payment installment(int id) { return new Payment(null, id, null); }
+        public static Payment bank(int id) { return new Payment(null, null, id); }
+    }
+
+    // what checkout wrote
+    public static class Receipt {
+        public final int purchaseId;
+        public final double total;
+        public final List<Line> lines;
+
+        Receipt(int purchaseId, double total, List<Line> lines) {
+            this.purchaseId = purchaseId;
+            this.total = total;
+            this.lines = lines;
+        }
+    }
+
+    private final int customerId;
+    private final boolean individual;   // false = business
+    // catalog id -> quantity, same id added twice just adds up
+    private final Map<Integer, Integer> lines = new LinkedHashMap<>();
+
+    public Cart(int customerId, boolean individual) {
+        this.customerId = customerId;
+        this.individual = individual;
+    }
+
+    public int getCustomerId() {
+        return customerId;
+    }
+
+    public boolean isIndividual() {
+        return individual;
+    }
+
+    public void add(int catalogId, int quantity) {
+        if (quantity <= 0) throw new IllegalArgumentException("Quantity must be at least 1.");
+        if (!lines.containsKey(catalogId) && lines.size() >= MAX_LINES) {
+            throw new IllegalArgumentException("Cart is full (" + MAX_LINES + " lines).");
+        }
+        lines.merge(catalogId, quantity, Integer::sum);
+    }
+
+    public boolean remove(int catalogId) {
+        return lines.remove(catalogId) != null;
+    }
+
+    public boolean isEmpty() {
+        return lines.isEmpty();
+    }
+
+    public int size() {
+        return lines.size();
+    }
+
+    public Map<Integer, Integer> quantities() {
+        return Collections.unmodifiableMap(lines);
+    }
+
+    // price every line with one query and check the item/service rules
+    public List<Line> price(Connection conn) throws SQLException {
+        if (lines.isEmpty()) throw new IllegalStateException("Cart is empty.");
+
+        List<Integer> ids = new ArrayList<>(lines.keySet());
+        Map<Integer, Line> found = new HashMap<>();
+
+        try (PreparedStatement ps = conn.prepareStatement(pricingSql(ids.size()))) {
+            bindPadded(ps, ids);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int id = rs.getInt(1);
+                    found.put(id, new Line(id, lines.get(id), rs.getString(2), rs.getDouble(3),
+                                           rs.getInt(4) == 1, rs.getInt(5) == 1));
+                }
+            }
+        }
+
+        List<Line> out = new ArrayList<>();
+        for (int id : ids) {
+            Line l = found.get(id);
+            if (l == null) throw new IllegalStateException("Catalog ID " + id + " not found.");
+
+            // enforce ER rules
+            if (individual && !l.item) {
+                throw new IllegalStateException("Individuals can only buy ITEMS (catalog ID " + id + ").");
+            }
+            if (!individual && !l.service) {
+                throw new IllegalStateException("Businesses can only buy SERVICES (catalog ID " + id + ").");
+            }
+            out.add(l);
+        }
+        return out;
+    }
+
+    public static double total(List<Line> priced) {
+        double t = 0;
+        for (Line l : priced) t += l.amount();
+        return Math.round(t * 100) / 100.0;     // PURCHASE.total is NUMBER(10,2)
+    }
+
+    // writes the whole purchase in one transaction
+    public Receipt checkout(Connection conn, Payment pay) throws SQLException {
+        if (individual && pay.bankId != null) {
+            throw new IllegalStateException("Items are paid by credit card or installment plan.");
+        }
+        if (!individual && pay.bankId == null) {
+            throw new IllegalStateException("Services can only be paid from a bank account.");
+        }
+
+        boolean oldAuto = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            // re-price inside the transaction so the total matches what gets stored
+            List<Line> priced = price(conn);
+            double total = total(priced);
+            int purId = IdAllocator.next(conn, "purchase_seq");
+
+            Jdbc.update(conn,
+                "INSERT INTO PURCHASE (pur_id, purch_date, total, customer_id) VALUES (?, SYSDATE, ?, ?)",
+                purId, total, customerId);
+            ExpenseLedger.record(conn, purId, customerId, total);
+
+            String lineSql;
+            if (individual) {
+                Jdbc.update(conn, "INSERT INTO ITEM_PURCHASE (pur_id, cc_id, install_id) VALUES (?, ?, ?)",
+                            purId, pay.cardId, pay.installId);
+                lineSql = "INSERT INTO ITEM_CONTAINS (pur_id, catalog_id, quantity, price_at_purchase) VALUES (?, ?, ?, ?)";
+            } else {
+                Jdbc.update(conn, "INSERT INTO SERVICE_PURCHASE (pur_id, bank_id) VALUES (?, ?)",
+                            purId, pay.bankId);
+                lineSql = "INSERT INTO SERVICE_CONTAINS (pur_id, catalog_id, quantity, price_at_purchase) VALUES (?, ?, ?, ?)";
+            }
+
+            // every line in one batch
+            try (PreparedStatement ps = conn.prepareStatement(lineSql)) {
+                for (Line l : priced) {
+                    Jdbc.bind(ps, purId, l.catalogId, l.quantity, l.price);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+
+            conn.commit();
+            lines.clear();
+            return new Receipt(purId, total, priced);
+
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(oldAuto);
+        }
+    }
+
+    // IN list size is rounded up to a power of two (padding repeats the last id)
+    // so a handful of sql strings cover every cart size and stay in the statement cache
+    private static String pricingSql(int n) {
+        int slots = slots(n);
+
+        StringBuilder in = new StringBuilder();
+        for (int i = 0; i < slots; i++) in.append(i == 0 ? "?" : ", ?");
+
+        return "SELECT c.catalog_id, c.description, c.price, " +
+               "       CASE WHEN i.catalog_id IS NOT NULL THEN 1 ELSE 0 END, " +
+               "       CASE WHEN s.catalog_id IS NOT NULL THEN 1 ELSE 0 END " +
+               "FROM CATALOG c " +
+               "LEFT JOIN ITEM i ON c.catalog_id = i.catalog_id " +
+               "LEFT JOIN SERVICE s ON c.catalog_id = s.catalog_id " +
+               "WHERE c.catalog_id IN (" + in + ")";
+    }
+
+    private static void bindPadded(PreparedStatement ps, List<Integer> ids) throws SQLException {
+        int slots = slots(ids.size());
+        for (int i = 0; i < slots; i++) {
+            ps.setInt(i + 1, ids.get(Math.min(i, ids.size() - 1)));
+        }
+    }
+
+    private static int slots(int n) {
+        int slots = Integer.highestOneBit(n);
+        return slots < n ? slots << 1 : slots;
+    }
+}
@@ -1,13 +1,16 @@
 import java.sql.*;
+import java.util.List;
 import java.util.Scanner;
 
 public class Catalog {
 
-    private final Connection conn;   // storing the db connection so we can run queries
-    private final Scanner input;     // using this to read whatever the user types
+    private final ConnectionPool pool;   // borrow a connection from here for each query
+    private final Scanner input;         // using this to read whatever the user types
 
-    public Catalog(Connection conn, Scanner input) {
-        this.conn = conn;
+    static final int SEARCH_LIMIT = 50;    // only show the top matches
+
+    public Catalog(ConnectionPool pool, Scanner input) {
+        this.pool = pool;
         this.input = input;
     }
 
@@ -43,23 +46,15 @@ public class Catalog {
     }
 
     private void listItems() {
-        // joining catalog + item table so we only get actual items
-        String sql =
-            "SELECT c.catalog_id, c.vendor, c.description, c.price " +
-            "FROM CATALOG c JOIN ITEM i ON c.catalog_id = i.catalog_id";
-
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-
+        // only catalog entries that have an ITEM row, one page at a time
+        try {
             System.out.println("\n--- All Items ---");
 
-            // looping through all rows returned
-            while (rs.next()) {
-                System.out.println(rs.getInt(1) + " | " +
-                                   rs.getString(2) + " | " +
-                                   rs.getString(3) + " | $" +
-                                   rs.getDouble(4));
-            }
+            CatalogPager.browse(pool, input, CatalogPager.Kind.ITEMS, e ->
+                System.out.println(e.id + " | " +
+                                   e.vendor + " | " +
+                                   e.description + " | $" +
+                                   e.price));
 
         } catch (SQLException e) {
             // generic error msg
@@ -68,23 +63,16 @@ public class Catalog {
     }
 
     private void listServices() {
-        // same idea but now joining with service table
-        String sql =
-            "SELECT c.catalog_id, c.vendor, c.description, c.price, s.duration " +
-            "FROM CATALOG c JOIN SERVICE s ON c.catalog_id = s.catalog_id";
-
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-
+        // same idea but only entries with a SERVICE row (has the duration too)
+        try {
             System.out.println("\n--- All Services ---");
 
-            while (rs.next()) {
-                System.out.println(rs.getInt(1) + " | " +
-                                   rs.getString(2) + " | " +
-                                   rs.getString(3) + " | $" +
-                                   rs.getDouble(4) +
-                                   " | " + rs.getInt(5) + " days");
-            }
+            CatalogPager.browse(pool, input, CatalogPager.Kind.SERVICES, e ->
+                System.out.println(e.id + " | " +
+                                   e.vendor + " | " +
+                                   e.description + " | $" +
+                                   e.price +
+                                   " | " + e.duration + " days"));
 
         } catch (SQLException e) {
             System.out.println("Error: " + e.getMessage());
@@ -92,36 +80,26 @@ public class Catalog {
     }
 
     private void searchCatalog() {
-        System.out.print("Enter keyword: ");
-        String keyword = input.nextLine().toLowerCase();  // making it lowercase so matching works better
-
-        // using LIKE so that it matches part of the description
-        String sql =
-            "SELECT catalog_id, vendor, description, price " +
-            "FROM CATALOG " +
-            "WHERE LOWER(description) LIKE ?";
-
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            // adding %keyword% so it can match in the middle of the string
-            ps.setString(1, "%" + keyword + "%");
-
-            try (ResultSet rs = ps.executeQuery()) {
-                System.out.println("\nSearch Results:");
-                boolean found = false;
-
-                // printing all matches
-                while (rs.next()) {
-                    found = true;
-                    System.out.println(rs.getInt(1) + " | " +
-                                       rs.getString(2) + " | " +
-                                       rs.getString(3) + " | $" +
-                                       rs.getDouble(4));
-                }
-
-                // if nothing matched
-                if (!found) System.out.println("No matches.");
+        System.out.print("Enter keyword(s) (all must match, or use OR): ");
+        String keyword = input.nextLine();
+
+        // in-memory inverted index over description + vendor, best matches first
+        try {
+            List<CatalogIndex.Hit> hits = CatalogIndex.search(pool, keyword, SEARCH_LIMIT);
+
+            System.out.println("\nSearch Results:");
+
+            // printing all matches
+            for (CatalogIndex.Hit h : hits) {
+                System.out.println(h.entry.id + " | " +
+                                   h.entry.vendor + " | " +
+                                   h.entry.description + " | $" +
+                                   h.entry.price);
             }
 
+            // if nothing matched
+            if (hits.isEmpty()) System.out.println("No matches.");
+
         } catch (SQLException e) {
             System.out.println("SQL error: " + e.getMessage());
         }
@@ -0,0 +1,379 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * keyword search over the catalog without going to the database.
+ *
+ * LOWER(description) LIKE '%kw%' can't use idx_catalog_desc (leading wildcard)
+ * so it scans all of CATALOG every time. instead we keep an inverted index:
+ * every word of the description and vendor -> the catalog entries containing it.
+ *
+ * query rules:
+ *  - words are matched as prefixes ("head" finds "headphones")
+ *  - all words must match (AND), unless the query contains OR ("tv OR laptop")
+ *  - results are ranked: rare words count more than common ones (idf),
+ *    exact word matches beat prefix matches, vendor matches get a boost
+ *
+ * the index is built from the database the first time it is used (streamed,
+ * not through RefDataCache since it has a size cap) and then kept up to date
+ * by Manager calling add/updatePrice when it writes.
+ *
+ * one thread builds at a time. the others keep searching the old index, or
+ * wait when there is none yet. add/updatePrice/remove calls made while the
+ * catalog is being loaded go to the old index and are also kept and replayed
+ * on the new one, since the load may have read the row before the change.
+ */
+public class CatalogIndex {
+
+    private static final int VENDOR_BOOST = 2;
+    private static final double PREFIX_WEIGHT = 0.5;
+    // more changed entries than fit one IN list: rebuild instead
+    private static final int CHANGED_MAX = 1000;
+
+    public static class Hit {
+        public final RefDataCache.CatalogEntry entry;
+        public final double score;
+
+        Hit(RefDataCache.CatalogEntry entry, double score) {
+            this.entry = entry;
+            this.score = score;
+        }
+    }
+
+    // postings for one term: doc numbers (ascending) + weighted term frequency.
+    // replaced / removed docs stay in the arrays, live counts only the others (for idf)
+    private static class Postings {
+        int[] docs = new int[4];
+        int[] tf = new int[4];
+        int size = 0;
+        int live = 0;
+
+        void add(int doc, int weight) {
+            if (size > 0 && docs[size - 1] == doc) {
+                tf[size - 1] += weight;     // same word twice in one entry
+                return;
+            }
+            live++;
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                tf = Arrays.copyOf(tf, size * 2);
+            }
+            docs[size] = doc;
+            tf[size] = weight;
+            size++;
+        }
+    }
+
+    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // doc number -> entry (null once replaced by a newer version)
+    private static final List<RefDataCache.CatalogEntry> docs = new ArrayList<>();
+    private static final Map<Integer, Integer> docByCatalogId = new HashMap<>();
+    private static final TreeMap<String, Postings> terms = new TreeMap<>();
+    private static int live = 0;
+    private static boolean built = false;
+    private static long builtAt = 0;
+
+    private static boolean building = false;
+    private static final Condition buildDone = lock.writeLock().newCondition();
+    // changes made while the current build is loading, applied again on top of it
+    private static List<Runnable> pending;
+    private static long invalidations = 0;
+    private static long builds = 0;
+
+    private static final long rebuildMs = DbConfig.searchRebuildMs();
+
+    private CatalogIndex() {}
+
+    // ---------------- searching ----------------
+
+    public static List<Hit> search(ConnectionPool pool, String query, int limit) throws SQLException {
+        ensureBuilt(pool);
+
+        List<String> words = new ArrayList<>();
+        boolean or = false;
+        for (String w : query.trim().split("\\s+")) {
+            if (w.equals("OR")) or = true;                  // only the uppercase word is an operator
+            else words.addAll(tokenize(w));
+        }
+        if (words.isEmpty()) return new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            // score per doc for each query word, then combine with AND or OR
+            Map<Integer, Double> total = null;
+            for (String w : words) {
+                Map<Integer, Double> s = scoreWord(w);
+                if (total == null) {
+                    total = s;
+                } else if (or) {
+                    for (Map.Entry<Integer, Double> e : s.entrySet()) total.merge(e.getKey(), e.getValue(), Double::sum);
+                } else {
+                    Map<Integer, Double> both = new HashMap<>();
+                    for (Map.Entry<Integer, Double> e : total.entrySet()) {
+                        Double other = s.get(e.getKey());
+                        if (other != null) both.put(e.getKey(), e.getValue() + other);
+                    }
+                    total = both;
+                }
+                if (!or && total.isEmpty()) break;
+            }
+
+            // keep the best "limit" hits, ties go to the lower catalog id
+            PriorityQueue<Hit> top = new PriorityQueue<>(
+                (a, b) -> a.score != b.score ? Double.compare(a.score, b.score)
+                                             : Integer.compare(b.entry.id, a.entry.id));
+            for (Map.Entry<Integer, Double> e : total.entrySet()) {
+                RefDataCache.CatalogEntry ce = docs.get(e.getKey());
+                if (ce == null) continue;
+                top.add(new Hit(ce, e.getValue()));
+                if (top.size() > limit) top.poll();
+            }
+
+            List<Hit> out = new ArrayList<>(top);
+            out.sort((a, b) -> a.score != b.score ? Double.compare(b.score, a.score)
+                                                  : Integer.compare(a.entry.id, b.entry.id));
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // every doc matching the word (exact or as a prefix) with its score for that word
+    private static Map<Integer, Double> scoreWord(String w) {
+        Map<Integer, Double> scores = new HashMap<>();
+        NavigableMap<String, Postings> matches = terms.subMap(w, true, w + Character.MAX_VALUE, false);
+
+        for (Map.Entry<String, Postings> t : matches.entrySet()) {
+            Postings p = t.getValue();
+            if (p.live == 0) continue;      // only replaced entries have it
+            double idf = Math.log(1.0 + (double) Math.max(live, 1) / p.live);
+            double weight = t.getKey().equals(w) ? 1.0 : PREFIX_WEIGHT;
+
+            for (int i = 0; i < p.size; i++) {
+                if (docs.get(p.docs[i]) == null) continue;  // replaced entry
+                scores.merge(p.docs[i], idf * weight * p.tf[i], Math::max);
+            }
+        }
+        return scores;
+    }
+
+    // ---------------- keeping it up to date ----------------
+
+    // new entry, or an existing one whose text changed
+    public static void add(RefDataCache.CatalogEntry e) {
+        apply(() -> {
+            Integer old = docByCatalogId.get(e.id);
+            if (old != null) unindex(old);
+            index(e);
+        });
+    }
+
+    // price only, the words didn't change so the postings stay as they are
+    public static void updatePrice(int catalogId, double price) {
+        apply(() -> {
+            Integer doc = docByCatalogId.get(catalogId);
+            if (doc == null) return;
+            RefDataCache.CatalogEntry e = docs.get(doc);
+            docs.set(doc, new RefDataCache.CatalogEntry(e.id, e.vendor, e.description, price,
+                                                        e.item, e.service, e.duration));
+        });
+    }
+
+    // entry deleted
+    public static void remove(int catalogId) {
+        apply(() -> {
+            Integer doc = docByCatalogId.remove(catalogId);
+            if (doc != null) unindex(doc);
+        });
+    }
+
+    private static void apply(Runnable change) {
+        lock.writeLock().lock();
+        try {
+            if (building) pending.add(change);
+            if (built) change.run();    // not built: the first build reads it from the database
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // rows changed by someone else (ChangeFeed): re-read just those entries
+    public static void changed(ConnectionPool pool, List<ChangeFeed.Event> events) throws SQLException {
+        Set<Integer> ids = new LinkedHashSet<>();
+        for (ChangeFeed.Event e : events) {
+            if (e.isCatalog()) ids.add(e.rowId);
+        }
+        if (ids.isEmpty()) return;
+        lock.readLock().lock();
+        try {
+            if (!built && !building) return;     // the next build reads everything anyway
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (ids.size() > CHANGED_MAX) {
+            invalidate();
+            return;
+        }
+
+        StringBuilder sql = new StringBuilder(RefDataCache.CATALOG_SQL).append("WHERE c.catalog_id IN (");
+        for (int i = 0; i < ids.size(); i++) sql.append(i == 0 ? "?" : ", ?");
+        sql.append(")");
+        Map<Integer, RefDataCache.CatalogEntry> fresh = new HashMap<>();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+            Jdbc.bind(ps, ids.toArray());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    RefDataCache.CatalogEntry e = RefDataCache.read(rs);
+                    fresh.put(e.id, e);
+                }
+            }
+        }
+        for (Integer id : ids) {
+            RefDataCache.CatalogEntry e = fresh.get(id);
+            if (e != null) add(e);
+            else remove(id);
+        }
+    }
+
+    // something changed a lot of rows (bulk import), rebuild on next search
+    public static void invalidate() {
+        lock.writeLock().lock();
+        try {
+            built = false;
+            invalidations++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public static String stats() {
+        lock.readLock().lock();
+        try {
+            return "search[built=" + built + ", building=" + building + ", builds=" + builds
+                 + ", entries=" + live + ", terms=" + terms.size() + ", slots=" + docs.size() + "]";
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void ensureBuilt(ConnectionPool pool) throws SQLException {
+        lock.readLock().lock();
+        try {
+            if (built && System.currentTimeMillis() - builtAt < rebuildMs) return;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        long startedAt;
+        lock.writeLock().lock();
+        try {
+            while (true) {
+                if (built && System.currentTimeMillis() - builtAt < rebuildMs) return;
+                if (!building) break;
+                if (built) return;      // someone else is rebuilding, the old index will do meanwhile
+                buildDone.awaitUninterruptibly();
+            }
+            building = true;
+            pending = new ArrayList<>();
+            startedAt = invalidations;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        // load outside the lock so searches keep working on the old index meanwhile
+        List<RefDataCache.CatalogEntry> all = new ArrayList<>();
+        try {
+            CatalogSnapshot.Mapped snap = CatalogSnapshot.current();
+            if (snap != null) {
+                all = snap.all();
+            } else {
+                try (Connection conn = pool.readConnection(RefDataCache.catalogChangedAt());
+                     PreparedStatement ps = conn.prepareStatement(RefDataCache.CATALOG_SQL + "ORDER BY c.catalog_id")) {
+                    ps.setFetchSize(1000);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) all.add(RefDataCache.read(rs));
+                    }
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                building = false;
+                pending = null;
+                buildDone.signalAll();      // a waiter takes over the build
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+
+        lock.writeLock().lock();
+        try {
+            docs.clear();
+            docByCatalogId.clear();
+            terms.clear();
+            live = 0;
+            for (RefDataCache.CatalogEntry e : all) index(e);
+            for (Runnable change : pending) change.run();
+            built = true;
+            builds++;
+            // invalidated during the load, which may be from before that change: build again next time
+            builtAt = invalidations == startedAt ? System.currentTimeMillis() : 0;
+        } finally {
+            building = false;
+            pending = null;
+            buildDone.signalAll();
+            lock.writeLock().unlock();
+        }
+    }
+
+    // caller holds the write lock
+    private static void index(RefDataCache.CatalogEntry e) {
+        int doc = docs.size();
+        docs.add(e);
+        docByCatalogId.put(e.id, doc);
+        live++;
+
+        for (String t : tokenize(e.description)) {
+            terms.computeIfAbsent(t, k -> new Postings()).add(doc, 1);
+        }
+        for (String t : tokenize(e.vendor)) {
+            terms.computeIfAbsent(t, k -> new Postings()).add(doc, VENDOR_BOOST);
+        }
+    }
+
+    // caller holds the write lock. the postings keep the doc, search skips it
+    private static void unindex(int doc) {
+        RefDataCache.CatalogEntry e = docs.get(doc);
+        docs.set(doc, null);
+        live--;
+
+        Set<String> words = new HashSet<>(tokenize(e.description));
+        words.addAll(tokenize(e.vendor));
+        for (String t : words) terms.get(t).live--;
+    }
+
+    // lowercase words made of letters/digits
+    static List<String> tokenize(String text) {
+        List<String> out = new ArrayList<>();
+        if (text == null) return out;
+        for (String t : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!t.isEmpty()) out.add(t);
+        }
+        return out;
+    }
+}
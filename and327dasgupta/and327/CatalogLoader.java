@@ -0,0 +1,281 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * bulk import of a vendor feed into CATALOG + ITEM/SERVICE.
+ *
+ * file format (csv, or tsv if the header has tabs), header line required:
+ *   type,vendor,description,price,manager_id,duration
+ *   ITEM,JBL,Wireless Earbuds,49.99,1,
+ *   SERVICE,Apple,Battery Replacement,89.00,2,3
+ * duration is only used (and required) for SERVICE rows.
+ *
+ * rows are streamed (never the whole file in memory), checked, and written with
+ * jdbc batches. every commitEvery rows the batch is committed together with the
+ * line number reached (CATALOG_LOAD table), so if the load dies halfway
+ * running it again on the same file skips everything already committed.
+ */
+public class CatalogLoader {
+
+    private static final String[] COLUMNS =
+        { "type", "vendor", "description", "price", "manager_id", "duration" };
+
+    private static final int MAX_REJECTS_SHOWN = 20;
+
+    private final ConnectionPool pool;
+    private final int commitEvery;
+
+    public CatalogLoader(ConnectionPool pool, int commitEvery) {
+        if (commitEvery < 1) throw new IllegalArgumentException("commit interval must be >= 1");
+        this.pool = pool;
+        this.commitEvery = commitEvery;
+    }
+
+    public Result load(Path file) throws IOException, SQLException {
+        String key = file.toAbsolutePath().normalize().toString();
+        Result res = new Result();
+        long start = System.nanoTime();
+
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             Connection conn = pool.getConnection()) {
+
+            String header = in.readLine();
+            if (header == null) throw new IOException("File is empty: " + file);
+            char sep = header.indexOf('\t') >= 0 ? '\t' : ',';
+            int[] col = mapHeader(parseLine(header, sep));
+
+            Set<Integer> managers = loadManagerIds(conn);
+            long resumeAfter = readCheckpoint(conn, key);
+            if (resumeAfter > 0) {
+                System.out.println("Resuming after line " + resumeAfter + " (already loaded).");
+            }
+
+            conn.setAutoCommit(false);
+            try (PreparedStatement psCat = conn.prepareStatement("INSERT INTO CATALOG (catalog_id, vendor, description, price, manager_id) VALUES (?, ?, ?, ?, ?)");
+                 PreparedStatement psItem = conn.prepareStatement("INSERT INTO ITEM VALUES (?)");
+                 PreparedStatement psSvc = conn.prepareStatement("INSERT INTO SERVICE VALUES (?, ?)")) {
+
+                long lineNo = 1;    // header was line 1
+                int pending = 0;
+                String line;
+
+                while ((line = in.readLine()) != null) {
+                    lineNo++;
+                    if (lineNo <= resumeAfter) {
+                        res.skipped++;
+                        continue;
+                    }
+                    if (line.trim().isEmpty()) continue;
+
+                    Row r;
+                    try {
+                        r = toRow(parseLine(line, sep), col, managers);
+                    } catch (IllegalArgumentException bad) {
+                        res.rejected++;
+                        if (res.rejected <= MAX_REJECTS_SHOWN) {
+                            System.out.println("  line " + lineNo + " rejected: " + bad.getMessage());
+                        }
+                        continue;
+                    }
+
+                    int catId = IdAllocator.next(conn, "catalog_seq");
+                    Jdbc.bind(psCat, catId, r.vendor, r.description, r.price, r.managerId);
+                    psCat.addBatch();
+                    if (r.isService) {
+                        Jdbc.bind(psSvc, catId, r.duration);
+                        psSvc.addBatch();
+                    } else {
+                        Jdbc.bind(psItem, catId);
+                        psItem.addBatch();
+                    }
+                    pending++;
+
+                    if (pending >= commitEvery) {
+                        flush(conn, psCat, psItem, psSvc, key, lineNo);
+                        res.loaded += pending;
+                        pending = 0;
+                        progress(res, start);
+                    }
+                }
+
+                // last partial batch, and mark the file as fully loaded
+                flush(conn, psCat, psItem, psSvc, key, lineNo);
+                res.loaded += pending;
+
+            } catch (SQLException e) {
+                conn.rollback();
+                res.seconds = (System.nanoTime() - start) / 1e9;
+                System.out.println("Load stopped after " + res.loaded + " rows, run it again to resume.");
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+
+        res.seconds = (System.nanoTime() - start) / 1e9;
+        return res;
+    }
+
+    // parent rows first because of the foreign keys, then one commit for all of it
+    private void flush(Connection conn, PreparedStatement psCat, PreparedStatement psItem,
+                       PreparedStatement psSvc, String key, long lineNo) throws SQLException {
+        psCat.executeBatch();
+        psItem.executeBatch();
+        psSvc.executeBatch();
+        writeCheckpoint(conn, key, lineNo);
+        conn.commit();
+    }
+
+    private void progress(Result res, long start) {
+        // print every ~10 commits so big files show they are moving
+        if ((res.loaded / commitEvery) % 10 == 0) {
+            double secs = (System.nanoTime() - start) / 1e9;
+            System.out.printf("  %d rows loaded (%.0f rows/sec)%n", res.loaded, res.loaded / secs);
+        }
+    }
+
+    // ---------- checkpoint (same transaction as the rows) ----------
+
+    private long readCheckpoint(Connection conn, String key) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                 "SELECT last_line FROM CATALOG_LOAD WHERE file_name = ?")) {
+            ps.setString(1, key);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    private void writeCheckpoint(Connection conn, String key, long lineNo) throws SQLException {
+        int n = Jdbc.update(conn,
+            "UPDATE CATALOG_LOAD SET last_line = ?, loaded_at = SYSDATE WHERE file_name = ?",
+            lineNo, key);
+        if (n == 0) {
+            Jdbc.update(conn,
+                "INSERT INTO CATALOG_LOAD (file_name, last_line, loaded_at) VALUES (?, ?, SYSDATE)",
+                key, lineNo);
+        }
+    }
+
+    // ---------- parsing / validation ----------
+
+    private Set<Integer> loadManagerIds(Connection conn) throws SQLException {
+        Set<Integer> ids = new HashSet<>();
+        try (PreparedStatement ps = conn.prepareStatement("SELECT manager_id FROM MANAGER");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) ids.add(rs.getInt(1));
+        }
+        return ids;
+    }
+
+    // position of each expected column in the file (-1 = missing, only ok for duration)
+    private static int[] mapHeader(List<String> header) throws IOException {
+        int[] col = new int[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            col[i] = -1;
+            for (int j = 0; j < header.size(); j++) {
+                if (header.get(j).trim().equalsIgnoreCase(COLUMNS[i])) col[i] = j;
+            }
+            if (col[i] < 0 && i < COLUMNS.length - 1) {
+                throw new IOException("Missing column in header: " + COLUMNS[i]);
+            }
+        }
+        return col;
+    }
+
+    private static Row toRow(List<String> f, int[] col, Set<Integer> managers) {
+        Row r = new Row();
+
+        String type = field(f, col[0]).toUpperCase();
+        if (type.equals("SERVICE")) r.isService = true;
+        else if (!type.equals("ITEM")) throw new IllegalArgumentException("type must be ITEM or SERVICE");
+
+        r.vendor = field(f, col[1]);
+        r.description = field(f, col[2]);
+        if (r.vendor.length() > 80) throw new IllegalArgumentException("vendor longer than 80");
+        if (r.description.isEmpty()) throw new IllegalArgumentException("description is empty");
+        if (r.description.length() > 200) throw new IllegalArgumentException("description longer than 200");
+
+        try {
+            r.price = Double.parseDouble(field(f, col[3]));
+            r.managerId = Integer.parseInt(field(f, col[4]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("price/manager_id not a number");
+        }
+        // CATALOG.price is NUMBER(10,2)
+        if (r.price < 0 || r.price >= 1e8) throw new IllegalArgumentException("price out of range");
+        if (!managers.contains(r.managerId)) throw new IllegalArgumentException("unknown manager " + r.managerId);
+
+        if (r.isService) {
+            try {
+                r.duration = Integer.parseInt(field(f, col[5]));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("service needs a duration in days");
+            }
+            if (r.duration <= 0 || r.duration > 99999) throw new IllegalArgumentException("duration out of range");
+        }
+        return r;
+    }
+
+    private static String field(List<String> f, int idx) {
+        return (idx < 0 || idx >= f.size()) ? "" : f.get(idx).trim();
+    }
+
+    // split one line, handles "quoted, fields" and "" escapes
+    static List<String> parseLine(String line, char sep) {
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            if (quoted) {
+                if (ch == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    cur.append('"');
+                    i++;
+                } else if (ch == '"') {
+                    quoted = false;
+                } else {
+                    cur.append(ch);
+                }
+            } else if (ch == '"') {
+                quoted = true;
+            } else if (ch == sep) {
+                out.add(cur.toString());
+                cur.setLength(0);
+            } else {
+                cur.append(ch);
+            }
+        }
+        out.add(cur.toString());
+        return out;
+    }
+
+    private static class Row {
+        boolean isService;
+        String vendor;
+        String description;
+        double price;
+        int managerId;
+        int duration;
+    }
+
+    public static class Result {
+        public long loaded;
+        public long rejected;
+        public long skipped;    // lines skipped because an earlier run already loaded them
+        public double seconds;
+
+        public double rowsPerSec() {
+            return seconds > 0 ? loaded / seconds : 0;
+        }
+    }
+}
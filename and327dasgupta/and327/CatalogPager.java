@@ -0,0 +1,159 @@
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Scanner;
+import java.util.function.Consumer;
+
+/*
+ * page-at-a-time catalog listing.
+ *
+ * uses keyset paging: the next page starts right after the last row we showed
+ * (WHERE (sort_col, catalog_id) > (last values)) instead of OFFSET, so every
+ * page costs the same no matter how deep you go and only pageSize+1 rows
+ * come back from the database. sorting by price / vendor is backed by the
+ * (price, catalog_id) and (vendor, catalog_id) indexes in RelationalSchema.sql.
+ *
+ * pages go through RefDataCache so flipping back and forth is served from memory.
+ */
+public class CatalogPager {
+
+    public enum Kind { ALL, ITEMS, SERVICES }
+
+    public enum Sort { ID, PRICE, VENDOR }
+
+    public static class Page {
+        public final List<RefDataCache.CatalogEntry> rows;
+        public final boolean hasMore;
+
+        Page(List<RefDataCache.CatalogEntry> rows, boolean hasMore) {
+            this.rows = rows;
+            this.hasMore = hasMore;
+        }
+
+        // keyset cursor for the page after this one
+        public RefDataCache.CatalogEntry last() {
+            return rows.isEmpty() ? null : rows.get(rows.size() - 1);
+        }
+    }
+
+    private CatalogPager() {}
+
+    // one page starting after "after" (null = first page)
+    public static Page page(ConnectionPool pool, Kind kind, Sort sort,
+                            RefDataCache.CatalogEntry after, int size) throws SQLException {
+        // after a restart the mapped snapshot answers without touching the database
+        CatalogSnapshot.Mapped snap = CatalogSnapshot.current();
+        if (snap != null) return snap.page(kind, sort, after, size);
+
+        String key = kind + "|" + sort + "|" + size + "|" + cursorKey(sort, after);
+        return RefDataCache.page(key, () -> load(pool, kind, sort, after, size));
+    }
+
+    private static Page load(ConnectionPool pool, Kind kind, Sort sort,
+                             RefDataCache.CatalogEntry after, int size) throws SQLException {
+        StringBuilder sql = new StringBuilder(RefDataCache.CATALOG_SQL).append("WHERE 1=1 ");
+        List<Object> params = new ArrayList<>();
+
+        if (kind == Kind.ITEMS) sql.append("AND i.catalog_id IS NOT NULL ");
+        if (kind == Kind.SERVICES) sql.append("AND s.catalog_id IS NOT NULL ");
+
+        if (after != null) {
+            if (sort == Sort.ID) {
+                sql.append("AND c.catalog_id > ? ");
+                params.add(after.id);
+            } else if (sort == Sort.PRICE) {
+                // BigDecimal so 99.99 compares exactly against NUMBER(10,2)
+                sql.append("AND (c.price > ? OR (c.price = ? AND c.catalog_id > ?)) ");
+                params.add(BigDecimal.valueOf(after.price));
+                params.add(BigDecimal.valueOf(after.price));
+                params.add(after.id);
+            } else if (after.vendor != null) {
+                // oracle sorts NULL vendors last, so they still come after any named vendor
+                sql.append("AND (c.vendor > ? OR (c.vendor = ? AND c.catalog_id > ?) OR c.vendor IS NULL) ");
+                params.add(after.vendor);
+                params.add(after.vendor);
+                params.add(after.id);
+            } else {
+                sql.append("AND c.vendor IS NULL AND c.catalog_id > ? ");
+                params.add(after.id);
+            }
+        }
+
+        if (sort == Sort.ID) sql.append("ORDER BY c.catalog_id ");
+        else if (sort == Sort.PRICE) sql.append("ORDER BY c.price, c.catalog_id ");
+        else sql.append("ORDER BY c.vendor, c.catalog_id ");
+
+        // one extra row tells us if there is a next page
+        sql.append("FETCH FIRST ? ROWS ONLY");
+        params.add(size + 1);
+
+        List<RefDataCache.CatalogEntry> rows = new ArrayList<>();
+        // the replica only if it already has the last catalog change we know of
+        try (Connection conn = pool.readConnection(RefDataCache.catalogChangedAt());
+             PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+            Jdbc.bind(ps, params.toArray());
+            ps.setFetchSize(Math.min(size + 1, DbConfig.fetchSize()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) rows.add(RefDataCache.read(rs));
+            }
+        }
+
+        boolean more = rows.size() > size;
+        if (more) rows.remove(rows.size() - 1);
+        return new Page(rows, more);
+    }
+
+    private static String cursorKey(Sort sort, RefDataCache.CatalogEntry after) {
+        if (after == null) return "first";
+        if (sort == Sort.PRICE) return after.price + "/" + after.id;
+        if (sort == Sort.VENDOR) return after.vendor + "/" + after.id;
+        return String.valueOf(after.id);
+    }
+
+    // interactive paging used by the catalog and purchase screens
+    public static void browse(ConnectionPool pool, Scanner input, Kind kind,
+                              Consumer<RefDataCache.CatalogEntry> printRow) throws SQLException {
+        int size = DbConfig.pageSize();
+        Sort sort = Sort.ID;
+        Deque<RefDataCache.CatalogEntry> previous = new ArrayDeque<>();  // cursors of earlier pages
+        RefDataCache.CatalogEntry cursor = null;
+        int pageNo = 1;
+
+        while (true) {
+            Page p = page(pool, kind, sort, cursor, size);
+
+            for (RefDataCache.CatalogEntry e : p.rows) printRow.accept(e);
+            if (p.rows.isEmpty()) System.out.println("(nothing to show)");
+
+            System.out.print("[page " + pageNo + ", sorted by " + sort.name().toLowerCase() + "] "
+                + (p.hasMore ? "Enter = next, " : "") + (pageNo > 1 ? "b = back, " : "")
+                + "i/p/v = sort by id/price/vendor, q = done: ");
+            String cmd = input.nextLine().trim().toLowerCase();
+
+            if (cmd.isEmpty() || cmd.equals("n")) {
+                if (!p.hasMore) return;     // last page, nothing more to flip to
+                previous.push(cursor == null ? NO_CURSOR : cursor);
+                cursor = p.last();
+                pageNo++;
+            } else if (cmd.equals("b") && !previous.isEmpty()) {
+                RefDataCache.CatalogEntry back = previous.pop();
+                cursor = back == NO_CURSOR ? null : back;
+                pageNo--;
+            } else if (cmd.equals("i") || cmd.equals("p") || cmd.equals("v")) {
+                sort = cmd.equals("i") ? Sort.ID : cmd.equals("p") ? Sort.PRICE : Sort.VENDOR;
+                previous.clear();
+                cursor = null;
+                pageNo = 1;
+            } else if (cmd.equals("q")) {
+                return;
+            }
+        }
+    }
+
+    // ArrayDeque can't hold null, this stands in for "first page"
+    private static final RefDataCache.CatalogEntry NO_CURSOR =
+        new RefDataCache.CatalogEntry(-1, null, null, 0, false, false, 0);
+}
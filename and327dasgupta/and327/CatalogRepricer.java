@@ -0,0 +1,213 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * price changes on CATALOG with optimistic concurrency on CATALOG.version.
+ *
+ * every price update bumps version. a single edit only goes through if the
+ * row still has the version the manager was looking at, so two managers
+ * editing one entry can't overwrite each other without noticing.
+ *
+ * bulk repricing picks entries by vendor, type and id range and changes them
+ * by a percentage or a fixed amount, set based: one UPDATE per chunk of
+ * lushop.reprice.chunkIds catalog ids, all in one transaction, so even a
+ * storewide change is a handful of statements. preview() counts the rows and
+ * sums their versions; apply() checks after updating that it changed exactly
+ * those rows (count the same, version sum up by count) and rolls back if
+ * anything was edited, added or removed in between.
+ */
+public class CatalogRepricer {
+
+    // which entries, null / ALL = no restriction
+    public static class Filter {
+        public final String vendor;
+        public final CatalogPager.Kind kind;
+        public final Integer fromId;
+        public final Integer toId;
+
+        public Filter(String vendor, CatalogPager.Kind kind, Integer fromId, Integer toId) {
+            this.vendor = vendor;
+            this.kind = kind == null ? CatalogPager.Kind.ALL : kind;
+            this.fromId = fromId;
+            this.toId = toId;
+        }
+    }
+
+    // by a percentage (10 = +10%) or by a fixed amount added to the price
+    public static class Change {
+        public final boolean percent;
+        public final double value;
+
+        private Change(boolean percent, double value) {
+            this.percent = percent;
+            this.value = value;
+        }
+
+        public static Change percent(double pct) {
+            return new Change(true, pct);
+        }
+
+        public static Change amount(double amount) {
+            return new Change(false, amount);
+        }
+
+        // new price for c.price, never below 0 (CATALOG has a CHECK on it)
+        String sql() {
+            return percent ? "GREATEST(0, ROUND(c.price * ?, 2))" : "GREATEST(0, c.price + ?)";
+        }
+
+        double param() {
+            return percent ? 1 + value / 100.0 : value;
+        }
+    }
+
+    // what a change would do, and the versions it was computed on
+    public static class Preview {
+        public final Filter filter;
+        public final Change change;
+        public final int rows;
+        public final long versionSum;
+        public final int minId;
+        public final int maxId;
+        public final double oldTotal;   // sum of prices before / after
+        public final double newTotal;
+
+        Preview(Filter filter, Change change, int rows, long versionSum, int minId, int maxId,
+                double oldTotal, double newTotal) {
+            this.filter = filter;
+            this.change = change;
+            this.rows = rows;
+            this.versionSum = versionSum;
+            this.minId = minId;
+            this.maxId = maxId;
+            this.oldTotal = oldTotal;
+            this.newTotal = newTotal;
+        }
+    }
+
+    // the catalog changed between preview and apply
+    public static class ConflictException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        ConflictException(String message) {
+            super(message);
+        }
+    }
+
+    private CatalogRepricer() {}
+
+    // ---------------- single entry ----------------
+
+    // false if the row isn't at expectedVersion any more (someone else changed it)
+    public static boolean setPrice(Connection conn, int catalogId, double price, long expectedVersion) throws SQLException {
+        int n = Jdbc.update(conn,
+            "UPDATE CATALOG SET price = ?, version = version + 1 WHERE catalog_id = ? AND version = ?",
+            price, catalogId, expectedVersion);
+        if (n == 1) {
+            RefDataCache.invalidateCatalog();
+            CatalogIndex.updatePrice(catalogId, price);
+        }
+        return n == 1;
+    }
+
+    // ---------------- bulk ----------------
+
+    public static Preview preview(ConnectionPool pool, Filter f, Change change) throws SQLException {
+        List<Object> params = new ArrayList<>();
+        params.add(change.param());
+        String where = where(f, params);
+        String sql =
+            "SELECT COUNT(*), NVL(SUM(c.version), 0), NVL(MIN(c.catalog_id), 0), NVL(MAX(c.catalog_id), -1), " +
+            "       NVL(SUM(c.price), 0), NVL(SUM(" + change.sql() + "), 0) " +
+            "FROM CATALOG c WHERE " + where;
+
+        try (Connection conn = pool.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            Jdbc.bind(ps, params.toArray());
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return new Preview(f, change, rs.getInt(1), rs.getLong(2), rs.getInt(3), rs.getInt(4),
+                                   rs.getDouble(5), rs.getDouble(6));
+            }
+        }
+    }
+
+    // runs the previewed change, returns the number of entries repriced
+    public static int apply(ConnectionPool pool, Preview p) throws SQLException, ConflictException {
+        if (p.rows == 0) return 0;
+
+        List<Object> filterParams = new ArrayList<>();
+        String where = where(p.filter, filterParams);
+        String update = "UPDATE CATALOG c SET c.price = " + p.change.sql() + ", c.version = c.version + 1 " +
+                        "WHERE c.catalog_id BETWEEN ? AND ? AND " + where;
+        int chunk = Math.max(1, DbConfig.repriceChunkIds());
+
+        try (Connection conn = pool.getConnection()) {
+            boolean oldAuto = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                int changed = 0;
+                try (PreparedStatement ps = conn.prepareStatement(update)) {
+                    for (long lo = p.minId; lo <= p.maxId; lo += chunk) {
+                        List<Object> params = new ArrayList<>();
+                        params.add(p.change.param());
+                        params.add(lo);
+                        params.add(Math.min((long) p.maxId, lo + chunk - 1));
+                        params.addAll(filterParams);
+                        Jdbc.bind(ps, params.toArray());
+                        changed += ps.executeUpdate();
+                    }
+                }
+
+                // our rows are locked now; they must be exactly the ones previewed, one version later
+                long count;
+                long versions;
+                try (PreparedStatement ps = conn.prepareStatement(
+                         "SELECT COUNT(*), NVL(SUM(c.version), 0) FROM CATALOG c WHERE " + where)) {
+                    Jdbc.bind(ps, filterParams.toArray());
+                    try (ResultSet rs = ps.executeQuery()) {
+                        rs.next();
+                        count = rs.getLong(1);
+                        versions = rs.getLong(2);
+                    }
+                }
+                if (changed != p.rows || count != p.rows || versions != p.versionSum + p.rows) {
+                    conn.rollback();
+                    throw new ConflictException("catalog changed since the preview (" + p.rows
+                        + " entries then, " + count + " now), nothing was repriced");
+                }
+
+                conn.commit();
+                return changed;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(oldAuto);
+                RefDataCache.invalidateCatalog();
+                CatalogIndex.invalidate();
+            }
+        }
+    }
+
+    // filter as sql over CATALOG c, adds its parameters
+    private static String where(Filter f, List<Object> params) {
+        StringBuilder sb = new StringBuilder("1=1");
+        if (f.vendor != null) {
+            sb.append(" AND c.vendor = ?");
+            params.add(f.vendor);
+        }
+        if (f.kind == CatalogPager.Kind.ITEMS) sb.append(" AND EXISTS (SELECT 1 FROM ITEM i WHERE i.catalog_id = c.catalog_id)");
+        if (f.kind == CatalogPager.Kind.SERVICES) sb.append(" AND EXISTS (SELECT 1 FROM SERVICE s WHERE s.catalog_id = c.catalog_id)");
+        if (f.fromId != null) {
+            sb.append(" AND c.catalog_id >= ?");
+            params.add(f.fromId);
+        }
+        if (f.toId != null) {
+            sb.append(" AND c.catalog_id <= ?");
+            params.add(f.toId);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,451 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * the catalog and installment plans in a memory-mapped file, for a warm start.
+ *
+ * opening the file only maps it and reads the header, so the first catalog
+ * page after a restart costs the same for 100 or 10 million entries and needs
+ * no database round trip. pages are served straight from the mapping: every
+ * (kind, sort) listing has its own order array of record offsets, a keyset
+ * cursor is a binary search in it and a page is the next size+1 records.
+ *
+ * the file carries a version stamp, a fingerprint of CATALOG / ITEM / SERVICE /
+ * INSTALLMENT (counts + sums of hashes). a background thread recomputes it
+ * right after start and every lushop.snapshot.revalidateMs; if it differs the
+ * snapshot stops being served and is rebuilt from the database and remapped.
+ * a write in this program (RefDataCache invalidate) also stops it from being
+ * used until it is rebuilt.
+ *
+ * every build goes to a new file, lushop.snapshot.file + ".<millis>-<pid>",
+ * and startup maps the newest one. a mapped file is never replaced or written
+ * to (windows refuses both), and two programs sharing the setting never write
+ * the same file. older builds are deleted after a rebuild, where the os lets us.
+ * the magic is written last, so a file still being written is never mapped.
+ *
+ * browse, search (CatalogIndex builds from it) and plan listing use it.
+ * checkout never does, Cart prices every line from the database.
+ *
+ * layout (big endian):
+ *   0   "LSNP", i32 format version
+ *   8   i64 stamp, i64 written at (millis)
+ *   24  i32 entries, i32 plans, i32 plans offset
+ *   36  9 x i32 order offsets (kind ALL/ITEMS/SERVICES x sort ID/PRICE/VENDOR),
+ *       each pointing at i32 count + count record offsets
+ *   records: i32 id, f64 price, u8 item, u8 service, i32 duration,
+ *            vendor and description as i32 length (-1 = null) + utf-8
+ *   plans: i32 id, i32 terms, f64 rate
+ */
+public class CatalogSnapshot implements AutoCloseable {
+
+    private static final int FORMAT = 1;
+    private static final int MAGIC = 0x4C534E50;    // "LSNP"
+    private static final int HEADER = 36 + 9 * 4;
+
+    // the fingerprint, one row; ORA_HASH so a changed text or price changes the sum
+    private static final String STAMP_SQL =
+        "SELECT (SELECT COUNT(*) FROM CATALOG), " +
+        "       (SELECT NVL(SUM(ORA_HASH(catalog_id || '|' || vendor || '|' || description || '|' || price)), 0) FROM CATALOG), " +
+        "       (SELECT COUNT(*) FROM ITEM), " +
+        "       (SELECT NVL(SUM(ORA_HASH(catalog_id || '|' || duration)), 0) FROM SERVICE), " +
+        "       (SELECT NVL(SUM(ORA_HASH(install_id || '|' || terms || '|' || int_rate)), 0) FROM INSTALLMENT) " +
+        "FROM dual";
+
+    private static final AtomicLong pagesServed = new AtomicLong();
+    private static final AtomicLong rebuilds = new AtomicLong();
+    private static final AtomicLong checks = new AtomicLong();
+
+    // the mapped file in use, null = none (or a local write made it stale)
+    private static volatile Mapped current;
+    // writes made here; the snapshot is only used if it was checked after the last one
+    private static final AtomicLong writes = new AtomicLong();
+    private static volatile long checkedAt = 0;
+
+    private final ConnectionPool pool;
+    private final Path file;
+    private final ScheduledExecutorService revalidator;
+
+    // maps the snapshot if there is one, then revalidates in the background
+    public CatalogSnapshot(ConnectionPool pool) {
+        this.pool = pool;
+        String f = DbConfig.snapshotFile();
+        this.file = DbConfig.isOff(f) ? null : Paths.get(f);
+        current = null;
+        if (file == null) {
+            revalidator = null;
+            return;
+        }
+
+        try {
+            current = newest(file);
+        } catch (IOException | RuntimeException e) {
+            // unreadable or old format, the first revalidation writes a new one
+            System.out.println("Catalog snapshot not usable (" + e.getMessage() + "), rebuilding.");
+        }
+
+        revalidator = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lushop-catalog-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        revalidator.scheduleWithFixedDelay(this::revalidateQuietly, 0,
+            DbConfig.snapshotRevalidateMs(), TimeUnit.MILLISECONDS);
+    }
+
+    // the snapshot to serve from, null = go to the database
+    static Mapped current() {
+        return writes.get() == checkedAt ? current : null;
+    }
+
+    // catalog or plans were written here, don't serve until rebuilt
+    public static void invalidate() {
+        writes.incrementAndGet();
+    }
+
+    public static String stats() {
+        Mapped m = current;
+        return "snapshot[" + (m == null ? "none" : m.entries + " entries, stamp=" + Long.toHexString(m.stamp))
+             + ", usable=" + (current() != null) + ", pages=" + pagesServed.get()
+             + ", checks=" + checks.get() + ", rebuilds=" + rebuilds.get() + "]";
+    }
+
+    @Override
+    public void close() {
+        if (revalidator != null) revalidator.shutdownNow();
+    }
+
+    // ---------------- revalidation ----------------
+
+    private void revalidateQuietly() {
+        try {
+            revalidate();
+        } catch (Exception e) {
+            // keep serving what we have, try again next time
+            System.out.println("Error revalidating catalog snapshot: " + e.getMessage());
+        }
+    }
+
+    void revalidate() throws SQLException, IOException {
+        checks.incrementAndGet();
+        long seen = writes.get();
+        long stamp;
+        try (Connection conn = pool.getConnection();
+             Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(STAMP_SQL)) {
+            rs.next();
+            stamp = 17;
+            for (int i = 1; i <= 5; i++) stamp = stamp * 31 + rs.getLong(i);
+        }
+
+        Mapped m = current;
+        if (m != null && m.stamp == stamp) {       // still matches the database
+            checkedAt = seen;
+            return;
+        }
+        current = null;     // stale, the database serves until the rebuild is mapped
+
+        // if the database changes during the load the file holds newer rows than its
+        // stamp says, so the next check just rebuilds it once more
+        List<RefDataCache.CatalogEntry> entries = new ArrayList<>();
+        List<RefDataCache.Plan> plans = new ArrayList<>();
+        try (Connection conn = pool.getConnection();
+             Statement st = conn.createStatement()) {
+            st.setFetchSize(DbConfig.exportFetchSize());
+            try (ResultSet rs = st.executeQuery(RefDataCache.CATALOG_SQL + "ORDER BY c.catalog_id")) {
+                while (rs.next()) entries.add(RefDataCache.read(rs));
+            }
+            try (ResultSet rs = st.executeQuery("SELECT install_id, terms, int_rate FROM INSTALLMENT ORDER BY install_id")) {
+                while (rs.next()) plans.add(new RefDataCache.Plan(rs.getInt(1), rs.getInt(2), rs.getDouble(3)));
+            }
+        }
+
+        long generation = System.currentTimeMillis();
+        while (Files.exists(build(generation))) generation++;     // two rebuilds in one millisecond
+        Path next = build(generation);
+        write(next, stamp, entries, plans);
+
+        current = Mapped.open(next);
+        checkedAt = seen;       // a write during the load leaves it unusable until the next run
+        rebuilds.incrementAndGet();
+        deleteOlder(file, generation);
+    }
+
+    // ---------------- snapshot files ----------------
+
+    // this program's file for a build made at generation (millis)
+    private Path build(long generation) {
+        return file.resolveSibling(file.getFileName() + "." + generation + "-" + ProcessHandle.current().pid());
+    }
+
+    // millis of a build of base ("<base>.<millis>-<pid>"), -1 = some other file
+    static long generation(Path base, Path p) {
+        String prefix = base.getFileName() + ".";
+        String name = p.getFileName().toString();
+        if (!name.startsWith(prefix)) return -1;
+        String g = name.substring(prefix.length());
+        int dash = g.indexOf('-');
+        try {
+            return dash < 0 ? -1 : Long.parseLong(g.substring(0, dash));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static List<Path> builds(Path base) throws IOException {
+        Path dir = base.toAbsolutePath().getParent();
+        List<Path> out = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return out;
+        try (java.util.stream.Stream<Path> s = Files.list(dir)) {
+            s.filter(p -> generation(base, p) >= 0).forEach(out::add);
+        }
+        return out;
+    }
+
+    // newest build that opens, null = none
+    static Mapped newest(Path base) throws IOException {
+        List<Path> all = builds(base);
+        all.sort((a, b) -> Long.compare(generation(base, b), generation(base, a)));
+        for (Path p : all) {
+            try {
+                return Mapped.open(p);
+            } catch (IOException | RuntimeException e) {
+                // half written by another program, or an old format
+            }
+        }
+        return null;
+    }
+
+    // a mapped file can't be deleted on windows, those go on a later rebuild
+    private static void deleteOlder(Path base, long generation) {
+        try {
+            for (Path p : builds(base)) {
+                if (generation(base, p) < generation) {
+                    try {
+                        Files.deleteIfExists(p);
+                    } catch (IOException e) {
+                        // still mapped somewhere
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error cleaning up catalog snapshots: " + e.getMessage());
+        }
+    }
+
+    // ---------------- writing ----------------
+
+    // the orders the pager walks, must match its ORDER BYs
+    private static final Comparator<RefDataCache.CatalogEntry> BY_ID =
+        (a, b) -> Integer.compare(a.id, b.id);
+    private static final Comparator<RefDataCache.CatalogEntry> BY_PRICE =
+        (a, b) -> a.price != b.price ? Double.compare(a.price, b.price) : Integer.compare(a.id, b.id);
+    // null vendors last, like oracle
+    private static final Comparator<RefDataCache.CatalogEntry> BY_VENDOR = (a, b) -> {
+        int c = compareVendor(a.vendor, b.vendor);
+        return c != 0 ? c : Integer.compare(a.id, b.id);
+    };
+
+    static void write(Path file, long stamp, List<RefDataCache.CatalogEntry> entries,
+                      List<RefDataCache.Plan> plans) throws IOException {
+        // records first (into memory, to learn their offsets), then the orders
+        int n = entries.size();
+        int[] recordAt = new int[n];
+        ByteBuffer rec = ByteBuffer.allocate(Math.max(1024, n * 64));
+        for (int i = 0; i < n; i++) {
+            RefDataCache.CatalogEntry e = entries.get(i);
+            byte[] v = e.vendor == null ? null : e.vendor.getBytes(StandardCharsets.UTF_8);
+            byte[] d = e.description == null ? null : e.description.getBytes(StandardCharsets.UTF_8);
+            int need = 4 + 8 + 1 + 1 + 4 + 4 + (v == null ? 0 : v.length) + 4 + (d == null ? 0 : d.length);
+            if (rec.remaining() < need) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(rec.capacity() * 2, rec.position() + need));
+                rec.flip();
+                bigger.put(rec);
+                rec = bigger;
+            }
+            recordAt[i] = rec.position();
+            rec.putInt(e.id).putDouble(e.price).put((byte) (e.item ? 1 : 0)).put((byte) (e.service ? 1 : 0))
+               .putInt(e.duration);
+            putBytes(rec, v);
+            putBytes(rec, d);
+        }
+        rec.flip();
+
+        List<Comparator<RefDataCache.CatalogEntry>> sorts = List.of(BY_ID, BY_PRICE, BY_VENDOR);
+        List<int[]> orders = new ArrayList<>();
+        Integer[] idx = new Integer[n];
+        for (CatalogPager.Kind kind : CatalogPager.Kind.values()) {
+            for (Comparator<RefDataCache.CatalogEntry> sort : sorts) {
+                int k = 0;
+                for (int i = 0; i < n; i++) {
+                    RefDataCache.CatalogEntry e = entries.get(i);
+                    if (kind == CatalogPager.Kind.ALL || (kind == CatalogPager.Kind.ITEMS ? e.item : e.service)) idx[k++] = i;
+                }
+                Integer[] part = java.util.Arrays.copyOf(idx, k);
+                java.util.Arrays.sort(part, (a, b) -> sort.compare(entries.get(a), entries.get(b)));
+                int[] o = new int[k];
+                for (int i = 0; i < k; i++) o[i] = part[i];
+                orders.add(o);
+            }
+        }
+
+        // offsets: header, orders, records, plans
+        long pos = HEADER;
+        int[] orderAt = new int[orders.size()];
+        for (int i = 0; i < orders.size(); i++) {
+            orderAt[i] = (int) pos;
+            pos += 4 + 4L * orders.get(i).length;
+        }
+        long recordsAt = pos;
+        long plansAt = recordsAt + rec.limit();
+        long size = plansAt + 16L * plans.size();
+        if (size > Integer.MAX_VALUE) throw new IOException("catalog too big for a snapshot");
+
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                                               StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            MappedByteBuffer out = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.putInt(0).putInt(FORMAT);       // magic goes in last
+            out.putLong(stamp).putLong(System.currentTimeMillis());
+            out.putInt(n).putInt(plans.size()).putInt((int) plansAt);
+            for (int at : orderAt) out.putInt(at);
+            for (int[] o : orders) {
+                out.putInt(o.length);
+                for (int i : o) out.putInt((int) recordsAt + recordAt[i]);
+            }
+            out.put(rec);
+            for (RefDataCache.Plan p : plans) out.putInt(p.id).putInt(p.terms).putDouble(p.rate);
+            out.force();
+            out.putInt(0, MAGIC);
+            out.force();
+        }
+    }
+
+    private static void putBytes(ByteBuffer b, byte[] v) {
+        if (v == null) {
+            b.putInt(-1);
+        } else {
+            b.putInt(v.length);
+            b.put(v);
+        }
+    }
+
+    private static int compareVendor(String a, String b) {
+        if (a == null) return b == null ? 0 : 1;
+        if (b == null) return -1;
+        return a.compareTo(b);
+    }
+
+    // ---------------- reading ----------------
+
+    // one mapped snapshot file, read only and safe to share between threads
+    static class Mapped {
+        final MappedByteBuffer buf;
+        final long stamp;
+        final long writtenAt;
+        final int entries;
+        final int plans;
+        final int plansAt;
+        final int[] orderAt = new int[9];
+
+        private Mapped(MappedByteBuffer buf) throws IOException {
+            this.buf = buf;
+            byte[] magic = new byte[4];
+            buf.duplicate().get(magic);
+            if (!new String(magic, StandardCharsets.US_ASCII).equals("LSNP") || buf.getInt(4) != FORMAT) {
+                throw new IOException("not a version " + FORMAT + " catalog snapshot");
+            }
+            stamp = buf.getLong(8);
+            writtenAt = buf.getLong(16);
+            entries = buf.getInt(24);
+            plans = buf.getInt(28);
+            plansAt = buf.getInt(32);
+            for (int i = 0; i < 9; i++) orderAt[i] = buf.getInt(36 + 4 * i);
+        }
+
+        static Mapped open(Path file) throws IOException {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                // the mapping stays valid after the channel is closed
+                return new Mapped(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+            }
+        }
+
+        RefDataCache.CatalogEntry entry(int at) {
+            ByteBuffer b = buf.duplicate();
+            b.position(at);
+            int id = b.getInt();
+            double price = b.getDouble();
+            boolean item = b.get() == 1;
+            boolean service = b.get() == 1;
+            int duration = b.getInt();
+            String vendor = string(b);
+            String description = string(b);
+            return new RefDataCache.CatalogEntry(id, vendor, description, price, item, service, duration);
+        }
+
+        private static String string(ByteBuffer b) {
+            int len = b.getInt();
+            if (len < 0) return null;
+            byte[] v = new byte[len];
+            b.get(v);
+            return new String(v, StandardCharsets.UTF_8);
+        }
+
+        // same rows CatalogPager would get from the database
+        CatalogPager.Page page(CatalogPager.Kind kind, CatalogPager.Sort sort,
+                               RefDataCache.CatalogEntry after, int size) {
+            int order = orderAt[kind.ordinal() * 3 + sort.ordinal()];
+            int count = buf.getInt(order);
+            Comparator<RefDataCache.CatalogEntry> cmp =
+                sort == CatalogPager.Sort.ID ? BY_ID : sort == CatalogPager.Sort.PRICE ? BY_PRICE : BY_VENDOR;
+
+            // first position after the cursor
+            int lo = 0;
+            if (after != null) {
+                int hi = count;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (cmp.compare(entry(buf.getInt(order + 4 + 4 * mid)), after) <= 0) lo = mid + 1;
+                    else hi = mid;
+                }
+            }
+
+            List<RefDataCache.CatalogEntry> rows = new ArrayList<>();
+            for (int i = lo; i < count && rows.size() < size; i++) rows.add(entry(buf.getInt(order + 4 + 4 * i)));
+            pagesServed.incrementAndGet();
+            return new CatalogPager.Page(rows, lo + rows.size() < count);
+        }
+
+        // every entry by id, for building the search index
+        List<RefDataCache.CatalogEntry> all() {
+            int order = orderAt[0];
+            int count = buf.getInt(order);
+            List<RefDataCache.CatalogEntry> out = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) out.add(entry(buf.getInt(order + 4 + 4 * i)));
+            return out;
+        }
+
+        List<RefDataCache.Plan> plans() {
+            List<RefDataCache.Plan> out = new ArrayList<>(plans);
+            for (int i = 0; i < plans; i++) {
+                int at = plansAt + 16 * i;
+                out.add(new RefDataCache.Plan(buf.getInt(at), buf.getInt(at + 4), buf.getDouble(at + 8)));
+            }
+            return Collections.unmodifiableList(out);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * tails CHANGE_LOG and hands the changes to in-process subscribers.
+ *
+ * triggers on CATALOG, ITEM, SERVICE, INSTALLMENT and PURCHASE write one
+ * CHANGE_LOG row per changed row, whoever changed it: this program, another
+ * instance, or a script like DataPopulation.sql. a daemon thread reads the
+ * rows after the last change_id it has seen every lushop.changes.pollMs and
+ * passes them as one batch of typed events to every subscriber, so a cache
+ * can drop just the rows that changed instead of reloading whole tables.
+ *
+ * change_seq hands out ids in insert order but transactions commit in any
+ * order, so a lower id can show up after a higher one. ids we skipped over
+ * are kept as gaps and looked for again until they are lushop.changes.gapMs
+ * old (a rolled back insert never shows up). rows older than
+ * lushop.changes.retainMs are deleted now and then.
+ */
+public class ChangeFeed implements AutoCloseable {
+
+    public enum Table { CATALOG, ITEM, SERVICE, INSTALLMENT, PURCHASE }
+
+    public enum Op { INSERT, UPDATE, DELETE }
+
+    public static class Event {
+        public final long id;
+        public final Table table;
+        public final int rowId;         // the table's key, catalog_id for ITEM / SERVICE
+        public final int customerId;    // PURCHASE only, 0 otherwise
+        public final Op op;
+
+        Event(long id, Table table, int rowId, int customerId, Op op) {
+            this.id = id;
+            this.table = table;
+            this.rowId = rowId;
+            this.customerId = customerId;
+            this.op = op;
+        }
+
+        // rowId is a catalog_id
+        public boolean isCatalog() {
+            return table == Table.CATALOG || table == Table.ITEM || table == Table.SERVICE;
+        }
+    }
+
+    public interface Subscriber {
+        void changed(List<Event> events) throws SQLException;
+    }
+
+    private static final String POLL_SQL =
+        "SELECT change_id, table_name, row_id, customer_id, op FROM CHANGE_LOG " +
+        "WHERE change_id > ? ORDER BY change_id FETCH FIRST ? ROWS ONLY";
+
+    private static final long PURGE_EVERY_MS = 60 * 60 * 1000L;
+    private static final int MAX_GAPS = 10000;
+
+    private static final AtomicLong polls = new AtomicLong();
+    private static final AtomicLong published = new AtomicLong();
+    private static final AtomicLong gapsFilled = new AtomicLong();
+    private static final AtomicLong gapsDropped = new AtomicLong();
+
+    private final ConnectionPool pool;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService poller;
+    private final int batch = DbConfig.changesBatch();
+    private final long gapMs = DbConfig.changesGapMs();
+    private final long retainMs = DbConfig.changesRetainMs();
+
+    // only touched by the poller thread (and stats)
+    private volatile long last = -1;                        // -1 = not started yet
+    private final TreeMap<Long, Long> gaps = new TreeMap<>();   // skipped change_id -> when we noticed
+    private long purgedAt = System.currentTimeMillis();
+
+    private static volatile ChangeFeed running;
+
+    public ChangeFeed(ConnectionPool pool) {
+        this.pool = pool;
+        long every = DbConfig.changesPollMs();
+        if (every <= 0) {
+            poller = null;
+            return;
+        }
+        poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lushop-change-feed");
+            t.setDaemon(true);
+            return t;
+        });
+        poller.scheduleWithFixedDelay(this::pollQuietly, 0, every, TimeUnit.MILLISECONDS);
+        running = this;
+    }
+
+    public void subscribe(Subscriber s) {
+        subscribers.add(s);
+    }
+
+    private void pollQuietly() {
+        try {
+            poll();
+        } catch (Exception e) {
+            // CHANGE_LOG missing (old schema) or db down, try again next time
+            System.out.println("Error reading change log: " + e.getMessage());
+        }
+    }
+
+    void poll() throws SQLException {
+        polls.incrementAndGet();
+        try (Connection conn = pool.getConnection()) {
+            if (last < 0) {
+                // everything up to now is already in the caches (they load lazily)
+                try (Statement st = conn.createStatement();
+                     ResultSet rs = st.executeQuery("SELECT NVL(MAX(change_id), 0) FROM CHANGE_LOG")) {
+                    rs.next();
+                    last = rs.getLong(1);
+                }
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            for (Iterator<Map.Entry<Long, Long>> it = gaps.entrySet().iterator(); it.hasNext(); ) {
+                if (now - it.next().getValue() > gapMs) {
+                    it.remove();
+                    gapsDropped.incrementAndGet();
+                }
+            }
+
+            // start at the oldest gap still open, skip what we already published
+            long from = gaps.isEmpty() ? last : Math.min(last, gaps.firstKey() - 1);
+            List<Event> events = new ArrayList<>();
+            while (true) {
+                int n = 0;
+                try (PreparedStatement ps = conn.prepareStatement(POLL_SQL)) {
+                    ps.setLong(1, from);
+                    ps.setInt(2, batch);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            n++;
+                            long id = rs.getLong(1);
+                            from = id;
+                            if (id <= last) {
+                                if (gaps.remove(id) == null) continue;      // seen it
+                                gapsFilled.incrementAndGet();
+                            } else {
+                                // a huge jump is a rolled back bulk write, not worth waiting for
+                                long skipped = id - last - 1;
+                                if (skipped > MAX_GAPS) gapsDropped.addAndGet(skipped - MAX_GAPS);
+                                for (long g = Math.max(last + 1, id - MAX_GAPS); g < id; g++) gaps.put(g, now);
+                                last = id;
+                            }
+                            Event e = read(rs, id);
+                            if (e != null) events.add(e);
+                        }
+                    }
+                }
+                if (n < batch) break;
+            }
+
+            if (!events.isEmpty()) publish(events);
+
+            if (now - purgedAt > PURGE_EVERY_MS) {
+                purgedAt = now;
+                Jdbc.update(conn, "DELETE FROM CHANGE_LOG WHERE changed_at < SYSDATE - ? / 86400000", retainMs);
+            }
+        }
+    }
+
+    private static Event read(ResultSet rs, long id) throws SQLException {
+        Table table;
+        try {
+            table = Table.valueOf(rs.getString(2).trim());
+        } catch (IllegalArgumentException e) {
+            return null;    // a table a newer version logs
+        }
+        String op = rs.getString(5);
+        return new Event(id, table, rs.getInt(3), rs.getInt(4),
+                         op.startsWith("I") ? Op.INSERT : op.startsWith("U") ? Op.UPDATE : Op.DELETE);
+    }
+
+    private void publish(List<Event> events) {
+        published.addAndGet(events.size());
+        for (Subscriber s : subscribers) {
+            try {
+                s.changed(events);
+            } catch (Exception e) {
+                // one broken subscriber must not stop the others
+                System.out.println("Error applying changes: " + e.getMessage());
+            }
+        }
+    }
+
+    public static String stats() {
+        ChangeFeed f = running;
+        return "changes[" + (f == null ? "off" : "last=" + f.last + ", subscribers=" + f.subscribers.size())
+             + ", polls=" + polls.get() + ", events=" + published.get()
+             + ", gapsFilled=" + gapsFilled.get() + ", gapsDropped=" + gapsDropped.get() + "]";
+    }
+
+    @Override
+    public void close() {
+        if (poller != null) poller.shutdownNow();
+        running = null;
+    }
+}
@@ -0,0 +1,367 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * simple connection pool so the interfaces don't all share one session.
+ * each screen/operation borrows a connection with getConnection() and gives
+ * it back by closing it (try-with-resources), the physical connection stays open.
+ *
+ * features:
+ *  - min / max size
+ *  - idle eviction (connections idle too long get closed, never below min)
+ *  - validation on borrow (Connection.isValid)
+ *  - leak detection (warns when a connection is held too long, with the borrow stack)
+ *  - prepared statement caching per physical connection (see StatementCache)
+ *  - optional read replica for readConnection() (see ReadReplica)
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private final String url;
+    private final String user;
+    private final String pass;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMs;
+    private final long borrowTimeoutMs;
+    private final long leakThresholdMs;
+    private final int validationTimeoutSec;
+    private final int statementCacheSize;
+
+    // idle physical connections, most recently used at the front
+    private final Deque<Idle> idle = new ArrayDeque<>();
+    // connections currently handed out (proxy handler -> lease info)
+    private final Map<Lease, Boolean> borrowed = new ConcurrentHashMap<>();
+    // statement cache for each physical connection
+    private final Map<Connection, StatementCache> caches = new ConcurrentHashMap<>();
+
+    private int total = 0;          // idle + borrowed + being opened
+    private boolean closed = false;
+
+    // counters for the stats line
+    private long borrows = 0;
+    private long creates = 0;
+    private long waits = 0;
+    private long evictions = 0;
+    private long invalid = 0;
+    private long leaks = 0;
+
+    private final ScheduledExecutorService housekeeper;
+
+    // set when lushop.replica.url is, only on the primary pool
+    private ReadReplica replica;
+
+    public ConnectionPool(String user, String pass) throws SQLException {
+        this(DbConfig.url(), user, pass,
+             DbConfig.poolMin(), DbConfig.poolMax(),
+             DbConfig.poolIdleTimeoutMs(), DbConfig.poolBorrowTimeoutMs(),
+             DbConfig.poolLeakThresholdMs(), DbConfig.poolValidationTimeoutSec());
+
+        String replicaUrl = DbConfig.replicaUrl().trim();
+        if (!replicaUrl.isEmpty()) {
+            replica = new ReadReplica(this, replicaUrl,
+                                      DbConfig.get("lushop.replica.user", user),
+                                      DbConfig.get("lushop.replica.password", pass));
+        }
+    }
+
+    public ConnectionPool(String url, String user, String pass,
+                          int minSize, int maxSize,
+                          long idleTimeoutMs, long borrowTimeoutMs,
+                          long leakThresholdMs, int validationTimeoutSec) throws SQLException {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("bad pool size: min=" + minSize + " max=" + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.pass = pass;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.borrowTimeoutMs = borrowTimeoutMs;
+        this.leakThresholdMs = leakThresholdMs;
+        this.validationTimeoutSec = validationTimeoutSec;
+        this.statementCacheSize = DbConfig.statementCacheSize();
+
+        // open the minimum right away so bad credentials fail at startup like before
+        for (int i = 0; i < minSize; i++) {
+            Connection c = DriverManager.getConnection(url, user, pass);
+            synchronized (this) {
+                total++;
+                creates++;
+                idle.push(new Idle(c));
+            }
+        }
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lushop-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, Math.min(30_000, idleTimeoutMs / 2));
+        housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    // for read-only work that may be a little behind (reports, exports, browsing):
+    // the replica if there is one and it is fresh enough, else the primary
+    public Connection readConnection() throws SQLException {
+        return readConnection(0);
+    }
+
+    // same, but the replica must already have everything committed before since (millis)
+    public Connection readConnection(long since) throws SQLException {
+        Connection c = replica == null ? null : replica.connection(since);
+        return c != null ? c : getConnection();
+    }
+
+    // borrow a connection, caller must close() it to give it back
+    public Connection getConnection() throws SQLException {
+        long deadline = System.currentTimeMillis() + borrowTimeoutMs;
+
+        while (true) {
+            Connection physical = null;
+            boolean create = false;
+
+            synchronized (this) {
+                if (closed) throw new SQLException("Connection pool is closed");
+
+                if (!idle.isEmpty()) {
+                    physical = idle.pop().conn;
+                } else if (total < maxSize) {
+                    total++;            // reserve the slot before connecting outside the lock
+                    create = true;
+                } else {
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0) {
+                        throw new SQLException("Timed out waiting for a database connection ("
+                                               + maxSize + " in use)");
+                    }
+                    waits++;
+                    try {
+                        wait(left);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted waiting for a database connection");
+                    }
+                    continue;
+                }
+            }
+
+            if (create) {
+                try {
+                    physical = DriverManager.getConnection(url, user, pass);
+                    synchronized (this) { creates++; }
+                } catch (SQLException e) {
+                    synchronized (this) {
+                        total--;
+                        notifyAll();
+                    }
+                    throw e;
+                }
+            } else if (!isUsable(physical)) {
+                // stale connection (server restart, network drop...) so drop it and try again
+                discard(physical);
+                synchronized (this) { invalid++; }
+                continue;
+            }
+
+            return lease(physical);
+        }
+    }
+
+    private boolean isUsable(Connection c) {
+        try {
+            return !c.isClosed() && c.isValid(validationTimeoutSec);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Connection lease(Connection physical) {
+        Lease l = new Lease(physical,
+            caches.computeIfAbsent(physical, c -> new StatementCache(c, statementCacheSize)));
+        borrowed.put(l, Boolean.TRUE);
+        synchronized (this) { borrows++; }
+        return (Connection) Proxy.newProxyInstance(
+            ConnectionPool.class.getClassLoader(), new Class<?>[] { Connection.class }, l);
+    }
+
+    // called when the borrower closes its proxy
+    private void release(Lease l) {
+        borrowed.remove(l);
+        Connection c = l.physical;
+        l.statements.reset();   // close anything the borrower left open
+
+        boolean ok;
+        try {
+            ok = !c.isClosed();
+            if (ok && !c.getAutoCommit()) {
+                // borrower left a transaction open, don't let it leak into the next user
+                c.rollback();
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            ok = false;
+        }
+
+        synchronized (this) {
+            if (ok && !closed) {
+                idle.push(new Idle(c));
+                notifyAll();
+                return;
+            }
+        }
+        discard(c);
+    }
+
+    private void discard(Connection c) {
+        StatementCache sc = caches.remove(c);
+        if (sc != null) sc.closeAll();
+        try {
+            c.close();
+        } catch (SQLException ignored) {}
+        synchronized (this) {
+            total--;
+            notifyAll();
+        }
+    }
+
+    // runs in the background: idle eviction + leak warnings
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+
+        // close connections that sat unused too long, oldest first, keep at least minSize
+        Deque<Connection> toClose = new ArrayDeque<>();
+        synchronized (this) {
+            Iterator<Idle> it = idle.descendingIterator();
+            while (it.hasNext() && total - toClose.size() > minSize) {
+                Idle i = it.next();
+                if (now - i.since < idleTimeoutMs) break;
+                it.remove();
+                toClose.add(i.conn);
+                evictions++;
+            }
+        }
+        for (Connection c : toClose) discard(c);
+
+        if (leakThresholdMs <= 0) return;
+        for (Lease l : borrowed.keySet()) {
+            if (!l.reported && now - l.borrowedAt > leakThresholdMs) {
+                l.reported = true;
+                synchronized (this) { leaks++; }
+                System.err.println("[pool] connection held for " + (now - l.borrowedAt)
+                                   + " ms, possible leak. Borrowed at:");
+                l.borrowTrace.printStackTrace();
+            }
+        }
+    }
+
+    public synchronized String stats() {
+        return "pool[total=" + total + ", idle=" + idle.size() + ", inUse=" + borrowed.size()
+             + ", max=" + maxSize + ", borrows=" + borrows + ", creates=" + creates
+             + ", waits=" + waits + ", evicted=" + evictions + ", invalid=" + invalid
+             + ", leaks=" + leaks + "]"
+             + (replica == null ? "" : "\n" + replica.stats());
+    }
+
+    @Override
+    public void close() {
+        if (replica != null) replica.close();
+        housekeeper.shutdownNow();
+        Deque<Connection> toClose = new ArrayDeque<>();
+        synchronized (this) {
+            closed = true;
+            for (Idle i : idle) toClose.add(i.conn);
+            idle.clear();
+            notifyAll();
+        }
+        // borrowed ones get closed when they come back (release sees closed=true)
+        for (Connection c : toClose) discard(c);
+    }
+
+    // helper for code that can't use try-with-resources
+    public static void closeQuietly(AutoCloseable c) {
+        if (c == null) return;
+        try {
+            c.close();
+        } catch (Exception ignored) {}
+    }
+
+    private static class Idle {
+        final Connection conn;
+        final long since = System.currentTimeMillis();
+
+        Idle(Connection conn) {
+            this.conn = conn;
+        }
+    }
+
+    // the handler behind each borrowed Connection proxy
+    private class Lease implements InvocationHandler {
+        final Connection physical;
+        final StatementCache statements;
+        final long borrowedAt = System.currentTimeMillis();
+        final Throwable borrowTrace = new Throwable("connection borrowed here");
+        // set once by the first close(), so two threads closing the same proxy can't both release it
+        final AtomicBoolean returned = new AtomicBoolean();
+        volatile boolean reported = false;
+
+        Lease(Connection physical, StatementCache statements) {
+            this.physical = physical;
+            this.statements = statements;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+            String name = m.getName();
+
+            if (name.equals("close")) {
+                if (returned.compareAndSet(false, true)) release(this);
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return returned.get() || physical.isClosed();
+            }
+            if (name.equals("equals")) return proxy == args[0];
+            if (name.equals("hashCode")) return System.identityHashCode(proxy);
+            if (name.equals("toString")) return "Pooled" + physical;
+
+            if (returned.get()) throw new SQLException("Connection already returned to pool");
+
+            // plain prepareStatement(sql) goes through the statement cache
+            if (name.equals("prepareStatement") && args.length == 1) {
+                return statements.prepare((Connection) proxy, (String) args[0]);
+            }
+
+            Object result;
+            try {
+                result = m.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+
+            // createStatement / prepareCall / prepareStatement(sql, keys...) are timed too
+            if (result instanceof Statement && QueryMetrics.enabled()) {
+                String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                return QueryMetrics.wrap((Statement) result, sql, (Connection) proxy);
+            }
+            return result;
+        }
+    }
+}
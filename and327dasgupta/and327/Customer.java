@@ -1,15 +1,18 @@
 import java.sql.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
 import java.util.Scanner;
 
 public class Customer {
 
-    // keep a reference to the DB connection and scanner
+    // keep a reference to the connection pool and scanner
     // so we do not pass them around in every method
-    private final Connection conn;
+    private final ConnectionPool pool;
     private final Scanner input;
 
-    public Customer(Connection conn, Scanner input) {
-        this.conn = conn;
+    public Customer(ConnectionPool pool, Scanner input) {
+        this.pool = pool;
         this.input = input;
     }
 
@@ -48,30 +51,23 @@ public class Customer {
     private void showCustomerPreview() {
     // this method is just for debugging and grading
     // it shows all individuals and businesses and their total spending
+    // (one query, kept in CustomerProfileCache between menu redraws)
+
+    List<CustomerProfileCache.Summary> all;
+    try {
+        all = CustomerProfileCache.preview(pool);
+    } catch (SQLException e) {
+        System.out.println("Error listing customers: " + e.getMessage());
+        return;
+    }
 
     System.out.println("      CUSTOMER DATABASE PREVIEW");
 
     // first show individuals
     System.out.println("--- INDIVIDUALS ---");
     System.out.printf("%-5s | %-20s | %s%n", "ID", "Name", "Total Exp");
-
-    String sqlIndiv =
-        "SELECT c.customer_id, c.name, c.tot_expense " +
-        "FROM CUSTOMER c JOIN INDIVIDUAL i ON c.customer_id = i.customer_id " +
-        "ORDER BY c.customer_id";
-
-    try (Statement stmt = conn.createStatement();
-         ResultSet rs = stmt.executeQuery(sqlIndiv)) {
-
-        while (rs.next()) {
-            System.out.printf("%-5d | %-20s | $%.2f%n",
-                rs.getInt("customer_id"),
-                rs.getString("name"),
-                rs.getDouble("tot_expense"));
-        }
-
-    } catch (SQLException e) {
-        System.out.println("Error listing individuals: " + e.getMessage());
+    for (CustomerProfileCache.Summary c : all) {
+        if (c.individual) System.out.printf("%-5d | %-20s | $%.2f%n", c.id, c.name, c.totalExpense);
     }
 
     System.out.println();
@@ -79,25 +75,8 @@ public class Customer {
     // now show businesses
     System.out.println("--- BUSINESSES ---");
     System.out.printf("%-5s | %-20s | %s%n", "ID", "Name", "Total Exp");
-
-    // *** FIXED: removed the typo ORDERORDER ***
-    String sqlBus =
-        "SELECT c.customer_id, c.name, c.tot_expense " +
-        "FROM CUSTOMER c JOIN BUSINESS b ON c.customer_id = b.customer_id " +
-        "ORDER BY c.customer_id";
-
-    try (Statement stmt = conn.createStatement();
-         ResultSet rs = stmt.executeQuery(sqlBus)) {
-
-        while (rs.next()) {
-            System.out.printf("%-5d | %-20s | $%.2f%n",
-                rs.getInt("customer_id"),
-                rs.getString("name"),
-                rs.getDouble("tot_expense"));
-        }
-
-    } catch (SQLException e) {
-        System.out.println("Error listing businesses: " + e.getMessage());
+    for (CustomerProfileCache.Summary c : all) {
+        if (!c.individual) System.out.printf("%-5d | %-20s | $%.2f%n", c.id, c.name, c.totalExpense);
     }
 }
 
@@ -111,20 +90,14 @@ public class Customer {
                 "CatID", "Vendor", "Description", "Price");
         System.out.println("---------------------------------------------------------------------");
 
-        String sql =
-            "SELECT catalog_id, vendor, description, price " +
-            "FROM CATALOG ORDER BY catalog_id";
-
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-
-            while (rs.next()) {
+        // paged (keyset) so a big catalog doesn't scroll by, pages are cached in memory
+        try {
+            CatalogPager.browse(pool, input, CatalogPager.Kind.ALL, e ->
                 System.out.printf("%-8d | %-10s | %-35s | $%.2f%n",
-                    rs.getInt(1),
-                    rs.getString(2),
-                    rs.getString(3),
-                    rs.getDouble(4));
-            }
+                    e.id,
+                    e.vendor,
+                    e.description,
+                    e.price));
 
         } catch (SQLException e) {
             System.out.println("Error showing catalog preview: " + e.getMessage());
@@ -146,62 +119,40 @@ public class Customer {
             return;
         }
 
-        // first show name + total expense from CUSTOMER
+        // first show name + total expense (from the profile cache)
         try {
-            String sql = "SELECT name, tot_expense FROM CUSTOMER WHERE customer_id = ?";
-            PreparedStatement ps = conn.prepareStatement(sql);
-            ps.setInt(1, id);
-            ResultSet rs = ps.executeQuery();
-
-            if (rs.next()) {
-                System.out.println("\n--- Details for " + rs.getString("name") + " ---");
-                System.out.println("Total Expense: $" + rs.getDouble("tot_expense"));
-            } else {
+            CustomerProfileCache.Profile p = CustomerProfileCache.profile(pool, id);
+            if (p == null) {
                 System.out.println("Customer not found.");
                 return;
             }
-            rs.close();
-            ps.close();
+            System.out.println("\n--- Details for " + p.name + " ---");
+            System.out.println("Total Expense: $" + p.totalExpense);
 
         } catch (SQLException e) {
             System.out.println("Error: " + e.getMessage());
             return;
         }
 
-        // now show combined purchase history
-        System.out.println("Purchase History:");
-        String histSql =
-            "SELECT p.purch_date, c.description, ic.quantity, ic.price_at_purchase " +
-            "FROM PURCHASE p " +
-            "JOIN ITEM_PURCHASE ip ON p.pur_id = ip.pur_id " +
-            "JOIN ITEM_CONTAINS ic ON ip.pur_id = ic.pur_id " +
-            "JOIN CATALOG c ON ic.catalog_id = c.catalog_id " +
-            "WHERE p.customer_id = ? " +
-            "UNION ALL " +
-            "SELECT p.purch_date, c.description, sc.quantity, sc.price_at_purchase " +
-            "FROM PURCHASE p " +
-            "JOIN SERVICE_PURCHASE sp ON p.pur_id = sp.pur_id " +
-            "JOIN SERVICE_CONTAINS sc ON sp.pur_id = sc.pur_id " +
-            "JOIN CATALOG c ON sc.catalog_id = c.catalog_id " +
-            "WHERE p.customer_id = ?";
-
-        try (PreparedStatement ps = conn.prepareStatement(histSql)) {
-            ps.setInt(1, id);
-            ps.setInt(2, id);
-            ResultSet rs = ps.executeQuery();
-
-            boolean found = false;
-            while (rs.next()) {
-                found = true;
-                System.out.println(" - " + rs.getDate(1) + " | " + rs.getString(2) +
-                        " | Qty: " + rs.getInt(3) +
-                        " | $" + rs.getDouble(4));
-            }
-
-            if (!found) {
-                System.out.println("   (No purchases found)");
-            }
+        // optional date range, blank = whole history
+        LocalDate from;
+        LocalDate to;
+        try {
+            System.out.print("History from date YYYY-MM-DD (blank = all): ");
+            String f = input.nextLine().trim();
+            System.out.print("History to date YYYY-MM-DD (blank = today): ");
+            String t = input.nextLine().trim();
+            from = f.isEmpty() ? null : LocalDate.parse(f);
+            to = t.isEmpty() ? null : LocalDate.parse(t);
+        } catch (DateTimeParseException e) {
+            System.out.println("Bad date, use YYYY-MM-DD.");
+            return;
+        }
 
+        // now show purchase history, newest first, one page at a time
+        System.out.println("Purchase History:");
+        try {
+            PurchaseHistory.browse(pool, input, id, from, to);
         } catch (SQLException e) {
             System.out.println("Error history: " + e.getMessage());
         }
@@ -242,27 +193,18 @@ public class Customer {
 
     private void viewCreditCards(int custId) {
         // show all credit cards tied to this customer
-        String sql =
-            "SELECT card_id, card_num, exp_month, exp_year " +
-            "FROM CREDIT_CARD WHERE customer_id = ?";
-
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, custId);
-            ResultSet rs = ps.executeQuery();
+        try {
+            CustomerProfileCache.Profile p = CustomerProfileCache.profile(pool, custId);
 
             System.out.println("\n--- Credit Cards on File ---");
-            boolean found = false;
-
-            while (rs.next()) {
-                found = true;
-                System.out.println("ID: " + rs.getInt("card_id") +
-                                   " | Card#: " + rs.getString("card_num") +
-                                   " | Exp: " + rs.getInt("exp_month") + "/" +
-                                   rs.getInt("exp_year"));
-            }
-
-            if (!found) {
+            if (p == null || p.cards.isEmpty()) {
                 System.out.println("No credit cards found.");
+                return;
+            }
+            for (CustomerProfileCache.Card c : p.cards) {
+                System.out.println("ID: " + c.id +
+                                   " | Card#: " + c.number +
+                                   " | Exp: " + c.expMonth + "/" + c.expYear);
             }
 
         } catch (SQLException e) {
@@ -282,22 +224,20 @@ public class Customer {
             System.out.print("Enter exp year (YYYY): ");
             int yy = Integer.parseInt(input.nextLine());
 
-            // simple id generation with MAX+1
-            int ccId = generateNewId("CREDIT_CARD", "card_id");
+            // only grab a connection once we have all the input
+            try (Connection conn = pool.getConnection()) {
+                // id comes from card_seq (reserved in blocks, no MAX+1 query)
+                int ccId = IdAllocator.next(conn, "card_seq");
 
-            String sql =
-                "INSERT INTO CREDIT_CARD (card_id, card_num, exp_month, exp_year, sec_code, customer_id) " +
-                "VALUES (?, ?, ?, ?, NULL, ?)";
+                String sql =
+                    "INSERT INTO CREDIT_CARD (card_id, card_num, exp_month, exp_year, sec_code, customer_id) " +
+                    "VALUES (?, ?, ?, ?, NULL, ?)";
 
-            PreparedStatement ps = conn.prepareStatement(sql);
-            ps.setInt(1, ccId);
-            ps.setString(2, num);
-            ps.setInt(3, mm);
-            ps.setInt(4, yy);
-            ps.setInt(5, custId);
-            ps.executeUpdate();
+                Jdbc.update(conn, sql, ccId, num, mm, yy, custId);
+                CustomerProfileCache.invalidate(custId);
 
-            System.out.println("Credit card added!");
+                System.out.println("Credit card added!");
+            }
 
         } catch (Exception e) {
             System.out.println("Error adding card: " + e.getMessage());
@@ -306,26 +246,18 @@ public class Customer {
 
     private void viewBankAccounts(int custId) {
         // very similar to credit cards, just bank accounts
-        String sql =
-            "SELECT bank_id, route_num, acc_num " +
-            "FROM BANK_ACC WHERE customer_id = ?";
-
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, custId);
-            ResultSet rs = ps.executeQuery();
+        try {
+            CustomerProfileCache.Profile p = CustomerProfileCache.profile(pool, custId);
 
             System.out.println("\n--- Bank Accounts on File ---");
-            boolean found = false;
-
-            while (rs.next()) {
-                found = true;
-                System.out.println("ID: " + rs.getInt("bank_id") +
-                                   " | Routing: " + rs.getString("route_num") +
-                                   " | Account: " + rs.getString("acc_num"));
-            }
-
-            if (!found) {
+            if (p == null || p.banks.isEmpty()) {
                 System.out.println("No bank accounts found.");
+                return;
+            }
+            for (CustomerProfileCache.BankAccount b : p.banks) {
+                System.out.println("ID: " + b.id +
+                                   " | Routing: " + b.routing +
+                                   " | Account: " + b.account);
             }
 
         } catch (SQLException e) {
@@ -342,40 +274,38 @@ public class Customer {
             System.out.print("Enter account number: ");
             String acct = input.nextLine();
 
-            int bankId = generateNewId("BANK_ACC", "bank_id");
+            // only grab a connection once we have all the input
+            try (Connection conn = pool.getConnection()) {
+                int bankId = IdAllocator.next(conn, "bank_seq");
 
-            String sql =
-                "INSERT INTO BANK_ACC (bank_id, route_num, acc_num, customer_id) " +
-                "VALUES (?, ?, ?, ?)";
+                String sql =
+                    "INSERT INTO BANK_ACC (bank_id, route_num, acc_num, customer_id) " +
+                    "VALUES (?, ?, ?, ?)";
 
-            PreparedStatement ps = conn.prepareStatement(sql);
-            ps.setInt(1, bankId);
-            ps.setString(2, routing);
-            ps.setString(3, acct);
-            ps.setInt(4, custId);
-            ps.executeUpdate();
+                Jdbc.update(conn, sql, bankId, routing, acct, custId);
+                CustomerProfileCache.invalidate(custId);
 
-            System.out.println("Bank account added!");
+                System.out.println("Bank account added!");
+            }
 
         } catch (Exception e) {
             System.out.println("Error adding bank account: " + e.getMessage());
         }
     }
 
-    // helper to print available installment plans
-    private void showInstallmentPlans() {
-        String sql = "SELECT install_id, terms, int_rate FROM INSTALLMENT";
-
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+    // helper to print available installment plans, priced for this cart total
+    private void showInstallmentPlans(double amount) {
+        try {
+            List<Amortization.Quote> quotes = Amortization.quotes(pool, amount);
 
-            System.out.println("\n--- Available Installment Plans ---");
-            System.out.printf("%-5s | %-10s | %s%n", "ID", "Months", "Rate");
-            System.out.println("--------------------------------");
+            System.out.printf("%n--- Available Installment Plans for $%.2f ---%n", amount);
+            System.out.printf("%-5s | %-6s | %-6s | %-10s | %-10s | %s%n",
+                "ID", "Months", "Rate", "Monthly", "Interest", "Total");
+            System.out.println("--------------------------------------------------------------");
 
-            while (rs.next()) {
-                System.out.printf("%-5d | %-10d | %.2f%%%n",
-                    rs.getInt(1), rs.getInt(2), rs.getDouble(3));
+            for (Amortization.Quote q : quotes) {
+                System.out.printf("%-5d | %-6d | %5.2f%% | $%-9.2f | $%-9.2f | $%.2f%n",
+                    q.plan.id, q.plan.terms, q.plan.rate, q.monthly, q.totalInterest, q.totalPaid);
             }
 
         } catch (SQLException e) {
@@ -383,223 +313,130 @@ public class Customer {
         }
     }
 
+    // card list shown during checkout, only the last 4 digits
+    private void printCardsMasked(CustomerProfileCache.Profile p) {
+        System.out.println("\n--- Your Credit Cards ---");
+        for (CustomerProfileCache.Card c : p.cards) {
+            String fullNum = c.number;
+            String last4;
+
+            if (fullNum != null && fullNum.length() >= 4) {
+                last4 = fullNum.substring(fullNum.length() - 4);
+            } else {
+                last4 = fullNum;
+            }
+
+            System.out.printf("%d | **** %s | Exp: %d/%d%n", c.id, last4, c.expMonth, c.expYear);
+        }
+    }
+
+    // bank account list shown during checkout (service purchases)
+    private void printBankAccountsShort(CustomerProfileCache.Profile p) {
+        System.out.println("\n--- Your Bank Accounts ---");
+        for (CustomerProfileCache.BankAccount b : p.banks) {
+            System.out.printf("%d | Routing: %s | Account: %s%n", b.id, b.routing, b.account);
+        }
+    }
+
     private void makePurchase() {
-        // this is the longest method, basically does the whole purchase flow
+        // builds a cart of one or more catalog lines, then checks out in one transaction.
+        // the rules live in PurchaseService, this screen only asks the questions
+        PurchaseService service = new PurchaseService(pool);
         try {
-            conn.setAutoCommit(false); // so the whole purchase is one transaction
 
             System.out.print("Enter customer ID: ");
             int custId = Integer.parseInt(input.nextLine());
 
-            boolean isIndiv = false;
-            boolean isBus = false;
-
-            // check if this id is in INDIVIDUAL
-            PreparedStatement psCheck =
-                conn.prepareStatement("SELECT * FROM INDIVIDUAL WHERE customer_id=?");
-            psCheck.setInt(1, custId);
-            if (psCheck.executeQuery().next()) isIndiv = true;
-
-            // check if this id is in BUSINESS
-            psCheck =
-                conn.prepareStatement("SELECT * FROM BUSINESS WHERE customer_id=?");
-            psCheck.setInt(1, custId);
-            if (psCheck.executeQuery().next()) isBus = true;
-
-            if (!isIndiv && !isBus) {
+            // INDIVIDUAL or BUSINESS plus cards / accounts, no query at all when cached
+            CustomerProfileCache.Profile profile = service.profile(custId);
+            if (profile == null || profile.individual == null) {
                 System.out.println("Customer ID not found.");
-                conn.rollback();
                 return;
             }
+            boolean isIndiv = profile.individual;
+            Cart cart = new Cart(custId, isIndiv);
 
             // ==========================================
-            // SHOW CATALOG PREVIEW BEFORE ASKING FOR ID
+            // SHOW CATALOG PREVIEW BEFORE ASKING FOR IDS
             // ==========================================
             showCatalogPreview();
 
-            System.out.print("Enter catalog ID to purchase: ");
-            int catId = Integer.parseInt(input.nextLine());
+            while (true) {
+                System.out.print("Enter catalog ID to add (blank = checkout, 0 = cancel): ");
+                String line = input.nextLine().trim();
+                if (line.isEmpty()) break;
 
-            boolean isItem = false;
-            boolean isSvc = false;
-            double price = 0;
-
-            // check if this catalog entry is an ITEM
-            psCheck = conn.prepareStatement("SELECT * FROM ITEM WHERE catalog_id=?");
-            psCheck.setInt(1, catId);
-            if (psCheck.executeQuery().next()) isItem = true;
-
-            // check if this catalog entry is a SERVICE
-            psCheck = conn.prepareStatement("SELECT * FROM SERVICE WHERE catalog_id=?");
-            psCheck.setInt(1, catId);
-            if (psCheck.executeQuery().next()) isSvc = true;
+                int catId = Integer.parseInt(line);
+                if (catId == 0) {
+                    System.out.println("Purchase cancelled.");
+                    return;
+                }
 
-            // get price from CATALOG
-            PreparedStatement psPrice =
-                conn.prepareStatement("SELECT price FROM CATALOG WHERE catalog_id=?");
-            psPrice.setInt(1, catId);
-            ResultSet rsPrice = psPrice.executeQuery();
+                System.out.print("Enter quantity: ");
+                int qty = Integer.parseInt(input.nextLine());
 
-            if (rsPrice.next()) {
-                price = rsPrice.getDouble(1);
-            } else {
-                System.out.println("Catalog ID not found.");
-                conn.rollback();
-                return;
+                try {
+                    cart.add(catId, qty);
+                    System.out.println("Cart has " + cart.size() + " line(s).");
+                } catch (IllegalArgumentException bad) {
+                    System.out.println("Error: " + bad.getMessage());
+                }
             }
 
-            // enforce ER rules
-            if (isIndiv && !isItem) {
-                System.out.println("Error: Individuals can only buy ITEMS.");
-                conn.rollback();
-                return;
-            }
-            if (isBus && !isSvc) {
-                System.out.println("Error: Businesses can only buy SERVICES.");
-                conn.rollback();
+            if (cart.isEmpty()) {
+                System.out.println("Cart is empty, nothing to buy.");
                 return;
             }
 
-            System.out.print("Enter quantity: ");
-            int qty = Integer.parseInt(input.nextLine());
+            // price + check every line with one query before asking how to pay
+            List<Cart.Line> priced = service.quote(cart);
 
-            // create a new purchase row
-            int purId = generateNewId("PURCHASE", "pur_id");
-
-            String insPur =
-                "INSERT INTO PURCHASE (pur_id, purch_date, total, customer_id) " +
-                "VALUES (?, SYSDATE, 0, ?)";
-            PreparedStatement psPur = conn.prepareStatement(insPur);
-            psPur.setInt(1, purId);
-            psPur.setInt(2, custId);
-            psPur.executeUpdate();
+            System.out.println("\n--- Your Cart ---");
+            for (Cart.Line l : priced) {
+                System.out.printf("%-8d | %-35s | Qty: %-4d | $%.2f%n",
+                    l.catalogId, l.description, l.quantity, l.amount());
+            }
+            System.out.printf("Total: $%.2f%n", Cart.total(priced));
 
-            if (isItem) {
+            Cart.Payment pay;
+            if (isIndiv) {
                 // item purchase path for individuals
 
                 // show all credit cards for this customer
-                System.out.println("\n--- Your Credit Cards ---");
-                String sqlCards =
-                    "SELECT card_id, card_num, exp_month, exp_year " +
-                    "FROM CREDIT_CARD WHERE customer_id = ?";
-                PreparedStatement psCards = conn.prepareStatement(sqlCards);
-                psCards.setInt(1, custId);
-                ResultSet rsCards = psCards.executeQuery();
-
-                while (rsCards.next()) {
-                    String fullNum = rsCards.getString(2);
-                    String last4;
-
-                    if (fullNum != null && fullNum.length() >= 4) {
-                        last4 = fullNum.substring(fullNum.length() - 4);
-                    } else {
-                        last4 = fullNum;
-                    }
-
-                    System.out.printf("%d | **** %s | Exp: %d/%d%n",
-                        rsCards.getInt(1),
-                        last4,
-                        rsCards.getInt(3),
-                        rsCards.getInt(4));
-                }
+                printCardsMasked(profile);
 
                 System.out.print("\nEnter Credit Card ID (or 0 for Installment): ");
                 int ccId = Integer.parseInt(input.nextLine());
 
                 if (ccId > 0) {
-                    String insItemPur =
-                        "INSERT INTO ITEM_PURCHASE (pur_id, cc_id, install_id) VALUES (?, ?, NULL)";
-                    PreparedStatement psIp = conn.prepareStatement(insItemPur);
-                    psIp.setInt(1, purId);
-                    psIp.setInt(2, ccId);
-                    psIp.executeUpdate();
+                    pay = Cart.Payment.card(ccId);
                 } else {
-                    showInstallmentPlans();
+                    showInstallmentPlans(Cart.total(priced));
 
                     System.out.print("Enter Installment Plan ID: ");
-                    int instId = Integer.parseInt(input.nextLine());
-
-                    String insItemPur =
-                        "INSERT INTO ITEM_PURCHASE (pur_id, cc_id, install_id) VALUES (?, NULL, ?)";
-                    PreparedStatement psIp = conn.prepareStatement(insItemPur);
-                    psIp.setInt(1, purId);
-                    psIp.setInt(2, instId);
-                    psIp.executeUpdate();
+                    pay = Cart.Payment.installment(Integer.parseInt(input.nextLine()));
                 }
 
-                // add the item line
-                String insLine =
-                    "INSERT INTO ITEM_CONTAINS (pur_id, catalog_id, quantity, price_at_purchase) " +
-                    "VALUES (?, ?, ?, ?)";
-                PreparedStatement psLine = conn.prepareStatement(insLine);
-                psLine.setInt(1, purId);
-                psLine.setInt(2, catId);
-                psLine.setInt(3, qty);
-                psLine.setDouble(4, price);
-                psLine.executeUpdate();
-
             } else {
                 // service purchase path (business customers)
 
                 // show bank accounts before asking for ID
-                System.out.println("\n--- Your Bank Accounts ---");
-                String sqlBanks =
-                    "SELECT bank_id, route_num, acc_num " +
-                    "FROM BANK_ACC WHERE customer_id = ?";
-                PreparedStatement psBanks = conn.prepareStatement(sqlBanks);
-                psBanks.setInt(1, custId);
-                ResultSet rsBanks = psBanks.executeQuery();
-
-                while (rsBanks.next()) {
-                    System.out.printf("%d | Routing: %s | Account: %s%n",
-                        rsBanks.getInt(1),
-                        rsBanks.getString(2),
-                        rsBanks.getString(3));
-                }
+                printBankAccountsShort(profile);
 
                 System.out.print("\nEnter Bank Account ID: ");
-                int bankId = Integer.parseInt(input.nextLine());
-
-                String insSvcPur =
-                    "INSERT INTO SERVICE_PURCHASE (pur_id, bank_id) VALUES (?, ?)";
-                PreparedStatement psSp = conn.prepareStatement(insSvcPur);
-                psSp.setInt(1, purId);
-                psSp.setInt(2, bankId);
-                psSp.executeUpdate();
-
-                // add service line row
-                String insLine =
-                    "INSERT INTO SERVICE_CONTAINS (pur_id, catalog_id, quantity, price_at_purchase) " +
-                    "VALUES (?, ?, ?, ?)";
-                PreparedStatement psLine = conn.prepareStatement(insLine);
-                psLine.setInt(1, purId);
-                psLine.setInt(2, catId);
-                psLine.setInt(3, qty);
-                psLine.setDouble(4, price);
-                psLine.executeUpdate();
+                pay = Cart.Payment.bank(Integer.parseInt(input.nextLine()));
             }
 
-            conn.commit();
-            conn.setAutoCommit(true);
-            System.out.println("Purchase successful!");
+            Cart.Receipt receipt = service.checkout(cart, pay);
+            System.out.println("Purchase successful! Purchase ID: " + receipt.purchaseId);
 
+        } catch (IllegalStateException rule) {
+            System.out.println("Error: " + rule.getMessage());
         } catch (Exception e) {
-            try {
-                conn.rollback();
-                conn.setAutoCommit(true);
-            } catch (SQLException ignored) {}
+            // checkout already rolled back if it got that far
             System.out.println("Transaction failed: " + e.getMessage());
-        }
-    }
-
-    private int generateNewId(String table, String pkCol) throws SQLException {
-        // helper: MAX(pk) + 1 so we do not need Oracle sequences in Java
-        String sql = "SELECT NVL(MAX(" + pkCol + "), 0) + 1 FROM " + table;
-
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            rs.next();
-            return rs.getInt(1);
+        } finally {
+            service.close();
         }
     }
 }
@@ -0,0 +1,270 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * what the customer screens keep asking about one customer: subtype, cards,
+ * bank accounts and total expense, loaded together in ONE query (UNION ALL of
+ * the customer row, its cards and its accounts) and kept for the cache TTL.
+ *
+ * the purchase flow used to probe INDIVIDUAL, BUSINESS and then CREDIT_CARD
+ * or BANK_ACC every time, on a hit it now runs no lookup queries at all.
+ * the customer preview list (every customer with type and expense) is kept
+ * here too, so redrawing the menu doesn't run two joins each time.
+ *
+ * invalidate(id) is called after a card / bank account is added and after
+ * every purchase (tot_expense changed), which also drops the preview list.
+ */
+public class CustomerProfileCache {
+
+    public static class Card {
+        public final int id;
+        public final String number;
+        public final int expMonth;
+        public final int expYear;
+
+        Card(int id, String number, int expMonth, int expYear) {
+            this.id = id;
+            this.number = number;
+            this.expMonth = expMonth;
+            this.expYear = expYear;
+        }
+    }
+
+    public static class BankAccount {
+        public final int id;
+        public final String routing;
+        public final String account;
+
+        BankAccount(int id, String routing, String account) {
+            this.id = id;
+            this.routing = routing;
+            this.account = account;
+        }
+    }
+
+    public static class Profile {
+        public final int id;
+        public final String name;
+        public final Boolean individual;    // TRUE / FALSE = business / null = neither subtype
+        public final double totalExpense;
+        public final List<Card> cards;
+        public final List<BankAccount> banks;
+        final long loadedAt = System.currentTimeMillis();
+
+        Profile(int id, String name, Boolean individual, double totalExpense,
+                List<Card> cards, List<BankAccount> banks) {
+            this.id = id;
+            this.name = name;
+            this.individual = individual;
+            this.totalExpense = totalExpense;
+            this.cards = Collections.unmodifiableList(cards);
+            this.banks = Collections.unmodifiableList(banks);
+        }
+    }
+
+    // one line of the customer preview
+    public static class Summary {
+        public final int id;
+        public final String name;
+        public final boolean individual;
+        public final double totalExpense;
+
+        Summary(int id, String name, boolean individual, double totalExpense) {
+            this.id = id;
+            this.name = name;
+            this.individual = individual;
+            this.totalExpense = totalExpense;
+        }
+    }
+
+    // kind 'C' = the customer row, 'K' = a credit card, 'B' = a bank account
+    private static final String PROFILE_SQL =
+        "SELECT 'C', c.customer_id, c.name, CAST(NULL AS VARCHAR2(30)), " +
+        "       (SELECT COUNT(*) FROM INDIVIDUAL i WHERE i.customer_id = c.customer_id), " +
+        "       (SELECT COUNT(*) FROM BUSINESS b WHERE b.customer_id = c.customer_id), c.tot_expense " +
+        "FROM CUSTOMER_EXPENSE c WHERE c.customer_id = ? " +
+        "UNION ALL " +
+        "SELECT 'K', card_id, card_num, NULL, exp_month, exp_year, NULL " +
+        "FROM CREDIT_CARD WHERE customer_id = ? " +
+        "UNION ALL " +
+        "SELECT 'B', bank_id, route_num, acc_num, NULL, NULL, NULL " +
+        "FROM BANK_ACC WHERE customer_id = ?";
+
+    private static final String PREVIEW_SQL =
+        "SELECT c.customer_id, c.name, c.tot_expense, " +
+        "       CASE WHEN i.customer_id IS NOT NULL THEN 1 ELSE 0 END " +
+        "FROM CUSTOMER_EXPENSE c " +
+        "LEFT JOIN INDIVIDUAL i ON c.customer_id = i.customer_id " +
+        "LEFT JOIN BUSINESS b ON c.customer_id = b.customer_id " +
+        "WHERE i.customer_id IS NOT NULL OR b.customer_id IS NOT NULL " +
+        "ORDER BY c.customer_id";
+
+    private static final long ttlMs = DbConfig.cacheTtlMs();
+    private static final int maxProfiles = DbConfig.cacheMaxProfiles();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    // access ordered so the least recently used customer is dropped first
+    private static final Map<Integer, Profile> profiles =
+        new LinkedHashMap<Integer, Profile>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Profile> e) {
+                return size() > maxProfiles;
+            }
+        };
+
+    private static List<Summary> preview;
+    private static long previewLoadedAt;
+
+    // bumped by every invalidate, a load that raced with a write is not kept
+    private static long version = 0;
+
+    private CustomerProfileCache() {}
+
+    // null if there is no such customer
+    public static Profile profile(ConnectionPool pool, int customerId) throws SQLException {
+        Profile p = cached(customerId);
+        if (p != null) return p;
+        try (Connection conn = pool.getConnection()) {
+            return load(conn, customerId);
+        }
+    }
+
+    // same, for callers that already hold a connection (PurchaseService)
+    public static Profile profile(Connection conn, int customerId) throws SQLException {
+        Profile p = cached(customerId);
+        return p != null ? p : load(conn, customerId);
+    }
+
+    private static synchronized Profile cached(int customerId) {
+        Profile p = profiles.get(customerId);
+        if (p != null && fresh(p.loadedAt)) {
+            hits.incrementAndGet();
+            return p;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    private static Profile load(Connection conn, int customerId) throws SQLException {
+        long v;
+        synchronized (CustomerProfileCache.class) {
+            v = version;
+        }
+
+        String name = null;
+        Boolean individual = null;
+        double expense = 0;
+        boolean found = false;
+        List<Card> cards = new ArrayList<>();
+        List<BankAccount> banks = new ArrayList<>();
+
+        try (PreparedStatement ps = conn.prepareStatement(PROFILE_SQL)) {
+            Jdbc.bind(ps, customerId, customerId, customerId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    String kind = rs.getString(1);
+                    if (kind.equals("C")) {
+                        found = true;
+                        name = rs.getString(3);
+                        if (rs.getInt(5) > 0) individual = Boolean.TRUE;
+                        else if (rs.getInt(6) > 0) individual = Boolean.FALSE;
+                        expense = rs.getDouble(7);
+                    } else if (kind.equals("K")) {
+                        cards.add(new Card(rs.getInt(2), rs.getString(3), rs.getInt(5), rs.getInt(6)));
+                    } else {
+                        banks.add(new BankAccount(rs.getInt(2), rs.getString(3), rs.getString(4)));
+                    }
+                }
+            }
+        }
+        if (!found) return null;
+
+        // by id so the screens always list them in the same order
+        cards.sort((a, b) -> Integer.compare(a.id, b.id));
+        banks.sort((a, b) -> Integer.compare(a.id, b.id));
+        Profile p = new Profile(customerId, name, individual, expense, cards, banks);
+
+        synchronized (CustomerProfileCache.class) {
+            if (v == version) {
+                profiles.put(customerId, p);
+            }
+        }
+        return p;
+    }
+
+    // every INDIVIDUAL / BUSINESS customer ordered by id, for the menu preview
+    public static List<Summary> preview(ConnectionPool pool) throws SQLException {
+        long v;
+        synchronized (CustomerProfileCache.class) {
+            if (preview != null && fresh(previewLoadedAt)) {
+                hits.incrementAndGet();
+                return preview;
+            }
+            misses.incrementAndGet();
+            v = version;
+        }
+
+        List<Summary> list = new ArrayList<>();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement ps = conn.prepareStatement(PREVIEW_SQL)) {
+            ps.setFetchSize(DbConfig.fetchSize());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    list.add(new Summary(rs.getInt(1), rs.getString(2), rs.getInt(4) == 1, rs.getDouble(3)));
+                }
+            }
+        }
+        list = Collections.unmodifiableList(list);
+
+        synchronized (CustomerProfileCache.class) {
+            // a huge customer table is shown but not kept
+            if (v == version && list.size() <= maxProfiles) {
+                preview = list;
+                previewLoadedAt = System.currentTimeMillis();
+            }
+        }
+        return list;
+    }
+
+    // card / bank account added, or a purchase changed the total expense
+    public static synchronized void invalidate(int customerId) {
+        version++;
+        profiles.remove(customerId);
+        preview = null;
+    }
+
+    // purchases written by someone else (ChangeFeed)
+    public static synchronized void changed(List<ChangeFeed.Event> events) {
+        for (ChangeFeed.Event e : events) {
+            if (e.table == ChangeFeed.Table.PURCHASE && e.customerId != 0) invalidate(e.customerId);
+        }
+    }
+
+    // lots of customers changed at once (DataGenerator)
+    public static synchronized void invalidateAll() {
+        version++;
+        profiles.clear();
+        preview = null;
+    }
+
+    public static String stats() {
+        long h = hits.get();
+        long m = misses.get();
+        double rate = (h + m) == 0 ? 0 : 100.0 * h / (h + m);
+        synchronized (CustomerProfileCache.class) {
+            return String.format("profiles[hits=%d, misses=%d, hitRate=%.1f%%, cached=%d, preview=%s]",
+                h, m, rate, profiles.size(), preview == null ? "not loaded" : preview.size() + " rows");
+        }
+    }
+
+    private static boolean fresh(long loadedAt) {
+        return System.currentTimeMillis() - loadedAt < ttlMs;
+    }
+}
@@ -0,0 +1,347 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * exports purchase facts and the Manager reports to files for offline analysis.
+ *
+ *   java -Dlushop.db.url=... -Dlushop.db.user=... -Dlushop.db.password=... \
+ *        -cp and327.jar:ojdbc11.jar DataExporter lines lines.csv.gz
+ *
+ * what: lines (every purchase line), purchases, spending, revenue, activity.
+ * the format comes from the file name:
+ *   *.csv.gz   gzip csv with a header row
+ *   *.lcol     the columnar format below
+ *
+ * the result set is streamed (lushop.export.fetchSize rows per round trip) and
+ * written as it arrives, csv row by row and columnar one row group at a time,
+ * so memory use depends on the row group size and never on the row count.
+ * exports have no ORDER BY, sorting tens of millions of lines is the database
+ * doing work nobody asked for.
+ *
+ * .lcol layout (big endian, written through a FileChannel):
+ *   "LCOL", u8 version (1), u16 column count
+ *   per column: u8 type, u16 name length, name (utf-8)
+ *       type 'L' = long, 'D' = double, 'T' = timestamp (epoch millis), 'S' = utf-8 string
+ *   row groups of up to lushop.export.rowGroup rows:
+ *       i32 rows, then per column: i32 chunk length, null bitmap (ceil(rows/8) bytes),
+ *       values: L/D/T rows * 8 bytes, S (rows+1) i32 offsets then the bytes
+ *   end: i32 0, i64 total rows
+ * every chunk starts with its length, so a reader can skip the columns it
+ * doesn't need without decoding them.
+ */
+public class DataExporter {
+
+    // what can be exported, ids cast so they come out as whole numbers
+    static final Map<String, String> EXPORTS = new LinkedHashMap<>();
+    static {
+        EXPORTS.put("lines",
+            "SELECT CAST(p.pur_id AS NUMBER(12)) AS pur_id, CAST(p.customer_id AS NUMBER(12)) AS customer_id, " +
+            "       p.purch_date, l.kind, CAST(l.catalog_id AS NUMBER(12)) AS catalog_id, " +
+            "       CAST(l.quantity AS NUMBER(12)) AS quantity, l.price_at_purchase " +
+            "FROM (SELECT 'ITEM' AS kind, pur_id, catalog_id, quantity, price_at_purchase FROM ITEM_CONTAINS " +
+            "      UNION ALL " +
+            "      SELECT 'SERVICE', pur_id, catalog_id, quantity, price_at_purchase FROM SERVICE_CONTAINS) l " +
+            "JOIN PURCHASE p ON p.pur_id = l.pur_id");
+        EXPORTS.put("purchases",
+            "SELECT CAST(pur_id AS NUMBER(12)) AS pur_id, CAST(customer_id AS NUMBER(12)) AS customer_id, " +
+            "       purch_date, total FROM PURCHASE");
+        EXPORTS.put("spending", Manager.SPENDING_SQL);
+        EXPORTS.put("revenue", Manager.REVENUE_SQL);
+        EXPORTS.put("activity",
+            "SELECT grain, bucket_start, CAST(purchases AS NUMBER(12)) AS purchases, revenue " +
+            "FROM PURCHASE_ACTIVITY_ALL");
+    }
+
+    private DataExporter() {}
+
+    public static void main(String[] args) {
+        if (args.length != 2 || !EXPORTS.containsKey(args[0])) {
+            System.out.println("usage: DataExporter <" + String.join("|", EXPORTS.keySet()) + "> <file.csv.gz|file.lcol>");
+            System.exit(2);
+        }
+        try (ConnectionPool pool = new ConnectionPool(DbConfig.user(), DbConfig.password())) {
+            long t0 = System.nanoTime();
+            long rows = export(pool, args[0], Paths.get(args[1]));
+            System.out.printf("Exported %d rows to %s in %.1f s%n", rows, args[1], (System.nanoTime() - t0) / 1e9);
+        } catch (Exception e) {
+            System.out.println("Export failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // one of the EXPORTS by name, returns the number of rows written
+    public static long export(ConnectionPool pool, String what, Path file) throws SQLException, IOException {
+        String sql = EXPORTS.get(what);
+        if (sql == null) throw new IllegalArgumentException("unknown export: " + what);
+        return exportQuery(pool, sql, file);
+    }
+
+    public static long exportQuery(ConnectionPool pool, String sql, Path file) throws SQLException, IOException {
+        String name = file.getFileName().toString().toLowerCase();
+        boolean columnar = name.endsWith(".lcol");
+        if (!columnar && !name.endsWith(".csv.gz")) {
+            throw new IllegalArgumentException("file name must end in .csv.gz or .lcol");
+        }
+
+        try (Connection conn = pool.readConnection()) {
+            // some drivers only stream (honour the fetch size) inside a transaction
+            boolean oldAuto = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try (Statement st = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                st.setFetchSize(DbConfig.exportFetchSize());
+                try (ResultSet rs = st.executeQuery(sql);
+                     FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+                         StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    return columnar ? writeColumnar(rs, ch) : writeCsv(rs, ch);
+                }
+            } catch (SQLException | IOException | RuntimeException e) {
+                Files.deleteIfExists(file);     // no half written exports lying around
+                throw e;
+            } finally {
+                conn.rollback();     // read only, nothing to keep
+                conn.setAutoCommit(oldAuto);
+            }
+        }
+    }
+
+    // ---------------- column types ----------------
+
+    // sql type -> 'L', 'D', 'T' or 'S'
+    static char typeOf(ResultSetMetaData md, int col) throws SQLException {
+        switch (md.getColumnType(col)) {
+            case Types.TINYINT: case Types.SMALLINT: case Types.INTEGER: case Types.BIGINT:
+                return 'L';
+            case Types.NUMERIC: case Types.DECIMAL:
+                // NUMBER(p) fits a long up to 18 digits, plain NUMBER reports precision 0
+                int p = md.getPrecision(col);
+                return md.getScale(col) == 0 && p > 0 && p <= 18 ? 'L' : 'D';
+            case Types.REAL: case Types.FLOAT: case Types.DOUBLE:
+                return 'D';
+            case Types.DATE: case Types.TIMESTAMP: case Types.TIMESTAMP_WITH_TIMEZONE:
+                return 'T';
+            default:
+                return 'S';
+        }
+    }
+
+    // ---------------- gzip csv ----------------
+
+    private static long writeCsv(ResultSet rs, FileChannel ch) throws SQLException, IOException {
+        ResultSetMetaData md = rs.getMetaData();
+        int n = md.getColumnCount();
+        char[] types = new char[n];
+        long rows = 0;
+
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(
+                 new GZIPOutputStream(Channels.newOutputStream(ch), 1 << 16), StandardCharsets.UTF_8), 1 << 16)) {
+            for (int c = 1; c <= n; c++) {
+                types[c - 1] = typeOf(md, c);
+                if (c > 1) w.write(',');
+                w.write(csv(md.getColumnLabel(c).toLowerCase()));
+            }
+            w.write('\n');
+
+            while (rs.next()) {
+                for (int c = 1; c <= n; c++) {
+                    if (c > 1) w.write(',');
+                    String v;
+                    if (types[c - 1] == 'T') {
+                        Timestamp t = rs.getTimestamp(c);
+                        v = t == null ? null : t.toLocalDateTime().toString();
+                    } else if (types[c - 1] == 'D') {
+                        // BigDecimal keeps 19.99 as 19.99 instead of a binary double
+                        BigDecimal d = rs.getBigDecimal(c);
+                        v = d == null ? null : d.toPlainString();
+                    } else {
+                        v = rs.getString(c);
+                    }
+                    if (v != null) w.write(csv(v));
+                }
+                w.write('\n');
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private static String csv(String v) {
+        if (v.indexOf(',') < 0 && v.indexOf('"') < 0 && v.indexOf('\n') < 0 && v.indexOf('\r') < 0) return v;
+        return '"' + v.replace("\"", "\"\"") + '"';
+    }
+
+    // ---------------- columnar ----------------
+
+    // one column of the current row group
+    private static class Column {
+        final char type;
+        final String name;
+        final long[] longs;         // L and T
+        final double[] doubles;     // D
+        final int[] offsets;        // S, end offset of each value
+        byte[] bytes = new byte[0];
+        int size;                   // bytes used
+        final byte[] nulls;
+
+        Column(char type, String name, int groupRows) {
+            this.type = type;
+            this.name = name;
+            longs = type == 'L' || type == 'T' ? new long[groupRows] : null;
+            doubles = type == 'D' ? new double[groupRows] : null;
+            offsets = type == 'S' ? new int[groupRows] : null;
+            if (type == 'S') bytes = new byte[1 << 16];
+            nulls = new byte[(groupRows + 7) / 8];
+        }
+
+        void read(ResultSet rs, int col, int row) throws SQLException {
+            boolean isNull;
+            if (type == 'L') {
+                longs[row] = rs.getLong(col);
+                isNull = rs.wasNull();
+            } else if (type == 'D') {
+                doubles[row] = rs.getDouble(col);
+                isNull = rs.wasNull();
+            } else if (type == 'T') {
+                Timestamp t = rs.getTimestamp(col);
+                isNull = t == null;
+                longs[row] = isNull ? 0 : t.getTime();
+            } else {
+                String s = rs.getString(col);
+                isNull = s == null;
+                if (!isNull) {
+                    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                    if (size + b.length > bytes.length) {
+                        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + b.length));
+                    }
+                    System.arraycopy(b, 0, bytes, size, b.length);
+                    size += b.length;
+                }
+                offsets[row] = size;
+            }
+            if (isNull) nulls[row >> 3] |= (byte) (1 << (row & 7));
+        }
+
+        int chunkLength(int rows) {
+            int bitmap = (rows + 7) / 8;
+            return type == 'S' ? bitmap + (rows + 1) * 4 + size : bitmap + rows * 8;
+        }
+
+        void write(Out out, int rows) throws IOException {
+            out.putInt(chunkLength(rows));
+            out.put(nulls, 0, (rows + 7) / 8);
+            if (type == 'S') {
+                out.putInt(0);
+                for (int r = 0; r < rows; r++) out.putInt(offsets[r]);
+                out.put(bytes, 0, size);
+            } else if (type == 'D') {
+                for (int r = 0; r < rows; r++) out.putDouble(doubles[r]);
+            } else {
+                for (int r = 0; r < rows; r++) out.putLong(longs[r]);
+            }
+        }
+
+        // ready for the next row group, the string buffer keeps its capacity
+        void clear() {
+            size = 0;
+            Arrays.fill(nulls, (byte) 0);
+        }
+    }
+
+    // buffered writes to the channel
+    private static class Out {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+
+        Out(FileChannel ch) {
+            this.ch = ch;
+        }
+
+        private void room(int n) throws IOException {
+            if (buf.remaining() < n) flush();
+        }
+
+        void putByte(int v) throws IOException { room(1); buf.put((byte) v); }
+        void putShort(int v) throws IOException { room(2); buf.putShort((short) v); }
+        void putInt(int v) throws IOException { room(4); buf.putInt(v); }
+        void putLong(long v) throws IOException { room(8); buf.putLong(v); }
+        void putDouble(double v) throws IOException { room(8); buf.putDouble(v); }
+
+        void put(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                room(1);
+                int n = Math.min(len, buf.remaining());
+                buf.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) ch.write(buf);
+            buf.clear();
+        }
+    }
+
+    private static long writeColumnar(ResultSet rs, FileChannel ch) throws SQLException, IOException {
+        ResultSetMetaData md = rs.getMetaData();
+        int n = md.getColumnCount();
+        int groupRows = Math.max(1, DbConfig.exportRowGroup());
+        Column[] cols = new Column[n];
+        Out out = new Out(ch);
+
+        out.put("LCOL".getBytes(StandardCharsets.US_ASCII), 0, 4);
+        out.putByte(1);
+        out.putShort(n);
+        for (int c = 0; c < n; c++) {
+            cols[c] = new Column(typeOf(md, c + 1), md.getColumnLabel(c + 1).toLowerCase(), groupRows);
+            byte[] name = cols[c].name.getBytes(StandardCharsets.UTF_8);
+            out.putByte(cols[c].type);
+            out.putShort(name.length);
+            out.put(name, 0, name.length);
+        }
+
+        long total = 0;
+        int row = 0;
+        while (rs.next()) {
+            for (int c = 0; c < n; c++) cols[c].read(rs, c + 1, row);
+            if (++row == groupRows) {
+                writeGroup(out, cols, row);
+                total += row;
+                row = 0;
+            }
+        }
+        if (row > 0) {
+            writeGroup(out, cols, row);
+            total += row;
+        }
+
+        out.putInt(0);
+        out.putLong(total);
+        out.flush();
+        return total;
+    }
+
+    private static void writeGroup(Out out, Column[] cols, int rows) throws IOException {
+        out.putInt(rows);
+        for (Column c : cols) {
+            c.write(out, rows);
+            c.clear();
+        }
+    }
+}
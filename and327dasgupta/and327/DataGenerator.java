@@ -0,0 +1,481 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * synthetic data at a realistic size, DataPopulation.sql only has a handful of rows.
+ *
+ *   java -Dlushop.db.url=... -Dlushop.db.user=... -Dlushop.db.password=... \
+ *        -Dlushop.gen.customers=1000000 -Dlushop.gen.purchases=3000000 \
+ *        -cp and327.jar:ojdbc11.jar DataGenerator
+ *
+ * what it makes (all rules of the app hold):
+ *  - catalog entries, ~70% ITEM and ~30% SERVICE, prices spread 5..1000
+ *  - customers, ~75% INDIVIDUAL with 1-2 credit cards, the rest BUSINESS
+ *    with 1-2 bank accounts
+ *  - purchases with 1-4 lines: individuals buy items with a card (or now and
+ *    then an installment plan), businesses buy services from a bank account.
+ *    who buys and what gets bought are both Zipf distributed, so a few
+ *    customers and products account for most of the history, like real shops.
+ *    dates are spread over the last lushop.gen.historyDays days.
+ *
+ * work is split over lushop.gen.threads workers, each with its own pooled
+ * connection, batched inserts and a commit per batch. lushop.gen.rate caps the
+ * rows per second over all workers (0 = as fast as the database goes).
+ *
+ * purchases are written directly (not through Cart.checkout) and never go to
+ * EXPENSE_LEDGER. instead tot_expense is summed in memory and written once at
+ * the end, and the revenue / activity rollups are rebuilt, so every report
+ * is exact right after the load.
+ */
+public class DataGenerator {
+
+    static final String[] WORDS = {
+        "laptop", "phone", "tablet", "monitor", "keyboard", "mouse", "headphones", "speaker",
+        "camera", "printer", "router", "charger", "cable", "desk", "chair", "lamp",
+        "cleaning", "repair", "install", "support", "consulting", "training", "hosting", "backup"
+    };
+    static final String[] VENDORS = {
+        "Acme", "Globex", "Initech", "Umbrella", "Hooli", "Stark", "Wayne", "Wonka"
+    };
+
+    // everything the generator created, Bench picks its random orders from here
+    public static class Dataset {
+        public final List<Integer> items = new ArrayList<>();
+        public final List<Integer> services = new ArrayList<>();
+        public final List<int[]> individuals = new ArrayList<>();  // {customer_id, card_id}
+        public final List<int[]> businesses = new ArrayList<>();   // {customer_id, bank_id}
+        final List<Double> itemPrices = new ArrayList<>();
+        final List<Double> servicePrices = new ArrayList<>();
+        final List<Integer> plans = new ArrayList<>();
+    }
+
+    private final ConnectionPool pool;
+    private final int threads = Math.max(1, DbConfig.getInt("lushop.gen.threads", DbConfig.poolMax()));
+    private final int batch = Math.max(1, DbConfig.getInt("lushop.gen.batch", 1000));
+    private final double zipf = DbConfig.getDouble("lushop.gen.zipf", 1.0);
+    private final int historyDays = Math.max(1, DbConfig.getInt("lushop.gen.historyDays", 365));
+    private final long seed;
+    private final Throttle throttle = new Throttle(DbConfig.getLong("lushop.gen.rate", 0));
+    private final AtomicLong rows = new AtomicLong();
+
+    public DataGenerator(ConnectionPool pool, long seed) {
+        this.pool = pool;
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) {
+        int customers = DbConfig.getInt("lushop.gen.customers", 10000);
+        int catalog = DbConfig.getInt("lushop.gen.catalog", 2000);
+        int purchases = DbConfig.getInt("lushop.gen.purchases", 50000);
+
+        try (ConnectionPool pool = new ConnectionPool(DbConfig.user(), DbConfig.password())) {
+            new DataGenerator(pool, DbConfig.getLong("lushop.gen.seed", 42))
+                .generate(customers, catalog, purchases);
+        } catch (Exception e) {
+            System.out.println("Data generation failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    public Dataset generate(int customers, int catalog, int purchases) throws Exception {
+        Dataset d = new Dataset();
+        long start = System.nanoTime();
+
+        setup(d);
+        phase("catalog", catalog, (lo, hi, rnd, conn) -> catalogChunk(d, lo, hi, rnd, conn));
+        phase("customers", customers, (lo, hi, rnd, conn) -> customerChunk(d, lo, hi, rnd, conn));
+
+        if (purchases > 0) {
+            if ((d.items.isEmpty() || d.individuals.isEmpty()) && (d.services.isEmpty() || d.businesses.isEmpty())) {
+                throw new SQLException("need customers and catalog entries of a matching type to make purchases");
+            }
+            Zipf indivPick = new Zipf(d.individuals.size(), zipf, seed);
+            Zipf busPick = new Zipf(d.businesses.size(), zipf, seed + 1);
+            Zipf itemPick = new Zipf(d.items.size(), zipf, seed + 2);
+            Zipf svcPick = new Zipf(d.services.size(), zipf, seed + 3);
+            // cents spent per customer, index = position in individuals / businesses
+            AtomicLongArray indivSpent = new AtomicLongArray(d.individuals.size());
+            AtomicLongArray busSpent = new AtomicLongArray(d.businesses.size());
+
+            phase("purchases", purchases, (lo, hi, rnd, conn) ->
+                purchaseChunk(d, lo, hi, rnd, conn, indivPick, busPick, itemPick, svcPick, indivSpent, busSpent));
+
+            finish(d, indivSpent, busSpent);
+        }
+
+        RefDataCache.invalidateCatalog();
+        CatalogIndex.invalidate();
+        CustomerProfileCache.invalidateAll();
+        AnalyticsEngine.invalidate();
+        System.out.printf("Generated %d rows in %.1f s%n", rows.get(), (System.nanoTime() - start) / 1e9);
+        return d;
+    }
+
+    // ---------------- phases ----------------
+
+    interface Chunk {
+        void run(int lo, int hi, Random rnd, Connection conn) throws SQLException;
+    }
+
+    // splits [0, n) into batch sized chunks and runs them on the worker threads
+    private void phase(String name, int n, Chunk chunk) throws Exception {
+        if (n <= 0) return;
+        long t0 = System.nanoTime();
+        long rows0 = rows.get();
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "lushop-datagen");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int lo = 0; lo < n; lo += batch) {
+                int from = lo;
+                int to = Math.min(n, lo + batch);
+                Random rnd = new Random(seed * 31 + name.hashCode() * 17L + from);
+                done.add(workers.submit(() -> {
+                    try (Connection conn = pool.getConnection()) {
+                        conn.setAutoCommit(false);
+                        try {
+                            chunk.run(from, to, rnd, conn);
+                            conn.commit();
+                        } catch (SQLException | RuntimeException e) {
+                            conn.rollback();
+                            throw e;
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : done) f.get();     // first failure stops the load
+        } finally {
+            workers.shutdownNow();
+        }
+
+        double secs = (System.nanoTime() - t0) / 1e9;
+        long r = rows.get() - rows0;
+        System.out.printf("%-10s %,d done, %,d rows in %.1f s (%,.0f rows/s)%n", name, n, r, secs, r / secs);
+    }
+
+    // a manager to own the catalog and a few installment plans
+    private void setup(Dataset d) throws SQLException {
+        IdAllocator.align(pool);    // the database may already have rows above the sequences
+        try (Connection conn = pool.getConnection()) {
+            Jdbc.update(conn,
+                "MERGE INTO MANAGER m USING dual ON (m.manager_id = 1) " +
+                "WHEN NOT MATCHED THEN INSERT (manager_id, name) VALUES (1, 'Generated Manager')");
+
+            try (PreparedStatement ps = conn.prepareStatement("SELECT install_id FROM INSTALLMENT");
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) d.plans.add(rs.getInt(1));
+            }
+            if (d.plans.isEmpty()) {
+                int[][] terms = { { 6, 450 }, { 12, 390 }, { 24, 520 } };    // months, rate in 1/100 %
+                for (int[] t : terms) {
+                    int id = IdAllocator.next(conn, "install_seq");
+                    Jdbc.update(conn, "INSERT INTO INSTALLMENT (install_id, terms, int_rate, manager_id) VALUES (?, ?, ?, 1)",
+                                id, t[0], t[1] / 100.0);
+                    d.plans.add(id);
+                }
+                RefDataCache.invalidatePlans();
+            }
+        }
+    }
+
+    private void catalogChunk(Dataset d, int lo, int hi, Random rnd, Connection conn) throws SQLException {
+        List<Integer> items = new ArrayList<>();
+        List<Double> itemPrices = new ArrayList<>();
+        List<Integer> services = new ArrayList<>();
+        List<Double> servicePrices = new ArrayList<>();
+
+        try (PreparedStatement cat = conn.prepareStatement(
+                 "INSERT INTO CATALOG (catalog_id, vendor, description, price, manager_id) VALUES (?, ?, ?, ?, 1)");
+             PreparedStatement item = conn.prepareStatement("INSERT INTO ITEM (catalog_id) VALUES (?)");
+             PreparedStatement svc = conn.prepareStatement("INSERT INTO SERVICE (catalog_id, duration) VALUES (?, ?)")) {
+            for (int i = lo; i < hi; i++) {
+                int id = IdAllocator.next(conn, "catalog_seq");
+                double price = Math.round((5 + rnd.nextDouble() * 995) * 100) / 100.0;
+                String desc = WORDS[rnd.nextInt(WORDS.length)] + " " + WORDS[rnd.nextInt(WORDS.length)] + " " + i;
+                Jdbc.bind(cat, id, VENDORS[rnd.nextInt(VENDORS.length)], desc, price);
+                cat.addBatch();
+
+                if (rnd.nextInt(10) < 7) {
+                    item.setInt(1, id);
+                    item.addBatch();
+                    items.add(id);
+                    itemPrices.add(price);
+                } else {
+                    Jdbc.bind(svc, id, 1 + rnd.nextInt(365));
+                    svc.addBatch();
+                    services.add(id);
+                    servicePrices.add(price);
+                }
+            }
+            throttle.acquire(2L * (hi - lo));
+            cat.executeBatch();
+            item.executeBatch();
+            svc.executeBatch();
+        }
+        rows.addAndGet(2L * (hi - lo));
+
+        synchronized (d) {
+            d.items.addAll(items);
+            d.itemPrices.addAll(itemPrices);
+            d.services.addAll(services);
+            d.servicePrices.addAll(servicePrices);
+        }
+    }
+
+    private void customerChunk(Dataset d, int lo, int hi, Random rnd, Connection conn) throws SQLException {
+        List<int[]> individuals = new ArrayList<>();
+        List<int[]> businesses = new ArrayList<>();
+        long n = 0;
+
+        try (PreparedStatement cust = conn.prepareStatement(
+                 "INSERT INTO CUSTOMER (customer_id, name, tot_expense) VALUES (?, ?, 0)");
+             PreparedStatement ind = conn.prepareStatement("INSERT INTO INDIVIDUAL (customer_id) VALUES (?)");
+             PreparedStatement bus = conn.prepareStatement("INSERT INTO BUSINESS (customer_id) VALUES (?)");
+             PreparedStatement card = conn.prepareStatement(
+                 "INSERT INTO CREDIT_CARD (card_id, card_num, exp_month, exp_year, sec_code, customer_id) " +
+                 "VALUES (?, ?, ?, ?, ?, ?)");
+             PreparedStatement bank = conn.prepareStatement(
+                 "INSERT INTO BANK_ACC (bank_id, route_num, acc_num, customer_id) VALUES (?, ?, ?, ?)")) {
+            for (int i = lo; i < hi; i++) {
+                int id = IdAllocator.next(conn, "customer_seq");
+                boolean indiv = rnd.nextInt(4) != 0;
+                Jdbc.bind(cust, id, (indiv ? "Customer " : "Company ") + i);
+                cust.addBatch();
+                n += 2;
+
+                int accounts = 1 + rnd.nextInt(2);
+                if (indiv) {
+                    ind.setInt(1, id);
+                    ind.addBatch();
+                    int first = 0;
+                    for (int a = 0; a < accounts; a++) {
+                        int cardId = IdAllocator.next(conn, "card_seq");
+                        if (a == 0) first = cardId;
+                        Jdbc.bind(card, cardId, String.format("4%015d", (long) cardId * 7919 % 1_000_000_000_000_000L),
+                                  1 + rnd.nextInt(12), 2027 + rnd.nextInt(6), 100 + rnd.nextInt(900), id);
+                        card.addBatch();
+                    }
+                    individuals.add(new int[] { id, first });
+                } else {
+                    bus.setInt(1, id);
+                    bus.addBatch();
+                    int first = 0;
+                    for (int a = 0; a < accounts; a++) {
+                        int bankId = IdAllocator.next(conn, "bank_seq");
+                        if (a == 0) first = bankId;
+                        Jdbc.bind(bank, bankId, String.format("%09d", 10_000_000 + rnd.nextInt(90_000_000)),
+                                  String.valueOf(1_000_000_000L + bankId), id);
+                        bank.addBatch();
+                    }
+                    businesses.add(new int[] { id, first });
+                }
+                n += accounts;
+            }
+            throttle.acquire(n);
+            cust.executeBatch();
+            ind.executeBatch();
+            bus.executeBatch();
+            card.executeBatch();
+            bank.executeBatch();
+        }
+        rows.addAndGet(n);
+
+        synchronized (d) {
+            d.individuals.addAll(individuals);
+            d.businesses.addAll(businesses);
+        }
+    }
+
+    private void purchaseChunk(Dataset d, int lo, int hi, Random rnd, Connection conn,
+                               Zipf indivPick, Zipf busPick, Zipf itemPick, Zipf svcPick,
+                               AtomicLongArray indivSpent, AtomicLongArray busSpent) throws SQLException {
+        long now = System.currentTimeMillis();
+        long history = historyDays * 86_400_000L;
+        boolean canIndiv = !d.items.isEmpty() && !d.individuals.isEmpty();
+        boolean canBus = !d.services.isEmpty() && !d.businesses.isEmpty();
+        long n = 0;
+
+        try (PreparedStatement pur = conn.prepareStatement(
+                 "INSERT INTO PURCHASE (pur_id, purch_date, total, customer_id) VALUES (?, ?, ?, ?)");
+             PreparedStatement ip = conn.prepareStatement(
+                 "INSERT INTO ITEM_PURCHASE (pur_id, cc_id, install_id) VALUES (?, ?, ?)");
+             PreparedStatement sp = conn.prepareStatement(
+                 "INSERT INTO SERVICE_PURCHASE (pur_id, bank_id) VALUES (?, ?)");
+             PreparedStatement ic = conn.prepareStatement(
+                 "INSERT INTO ITEM_CONTAINS (pur_id, catalog_id, quantity, price_at_purchase) VALUES (?, ?, ?, ?)");
+             PreparedStatement sc = conn.prepareStatement(
+                 "INSERT INTO SERVICE_CONTAINS (pur_id, catalog_id, quantity, price_at_purchase) VALUES (?, ?, ?, ?)")) {
+
+            for (int i = lo; i < hi; i++) {
+                // same mix of individuals / businesses as the customers themselves
+                boolean indiv = canIndiv && (!canBus
+                    || rnd.nextInt(d.individuals.size() + d.businesses.size()) < d.individuals.size());
+                int who = indiv ? indivPick.next(rnd) : busPick.next(rnd);
+                int[] c = indiv ? d.individuals.get(who) : d.businesses.get(who);
+                int purId = IdAllocator.next(conn, "purchase_seq");
+
+                // 1-4 distinct lines (the contains tables are keyed by pur_id, catalog_id)
+                int lines = 1 + rnd.nextInt(4);
+                int[] picked = new int[lines];
+                long cents = 0;
+                int added = 0;
+                for (int l = 0; l < lines; l++) {
+                    int k = indiv ? itemPick.next(rnd) : svcPick.next(rnd);
+                    boolean dup = false;
+                    for (int j = 0; j < added; j++) dup |= picked[j] == k;
+                    if (dup) continue;
+                    picked[added++] = k;
+
+                    int qty = indiv ? 1 + rnd.nextInt(3) : 1;
+                    double price = indiv ? d.itemPrices.get(k) : d.servicePrices.get(k);
+                    Jdbc.bind(indiv ? ic : sc, purId, indiv ? d.items.get(k) : d.services.get(k), qty, price);
+                    (indiv ? ic : sc).addBatch();
+                    cents += Math.round(qty * price * 100);
+                }
+
+                long when = now - (long) (rnd.nextDouble() * history);
+                Jdbc.bind(pur, purId, new Timestamp(when), cents / 100.0, c[0]);
+                pur.addBatch();
+
+                if (indiv) {
+                    boolean installment = !d.plans.isEmpty() && rnd.nextInt(10) == 0;
+                    Jdbc.bind(ip, purId, installment ? null : (Integer) c[1],
+                              installment ? d.plans.get(rnd.nextInt(d.plans.size())) : null);
+                    ip.addBatch();
+                    indivSpent.addAndGet(who, cents);
+                } else {
+                    Jdbc.bind(sp, purId, c[1]);
+                    sp.addBatch();
+                    busSpent.addAndGet(who, cents);
+                }
+                n += 2 + added;
+            }
+
+            throttle.acquire(n);
+            // parents before children for the foreign keys
+            pur.executeBatch();
+            ip.executeBatch();
+            sp.executeBatch();
+            ic.executeBatch();
+            sc.executeBatch();
+        }
+        rows.addAndGet(n);
+    }
+
+    // tot_expense for the generated customers, then the report rollups
+    private void finish(Dataset d, AtomicLongArray indivSpent, AtomicLongArray busSpent) throws SQLException {
+        long t0 = System.nanoTime();
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(
+                     "UPDATE CUSTOMER SET tot_expense = tot_expense + ? WHERE customer_id = ?")) {
+                int pending = 0;
+                for (int pass = 0; pass < 2; pass++) {
+                    List<int[]> who = pass == 0 ? d.individuals : d.businesses;
+                    AtomicLongArray spent = pass == 0 ? indivSpent : busSpent;
+                    for (int i = 0; i < who.size(); i++) {
+                        long cents = spent.get(i);
+                        if (cents == 0) continue;
+                        Jdbc.bind(ps, cents / 100.0, who.get(i)[0]);
+                        ps.addBatch();
+                        if (++pending == batch) {
+                            ps.executeBatch();
+                            conn.commit();
+                            pending = 0;
+                        }
+                    }
+                }
+                ps.executeBatch();
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+
+        RevenueRollup.rebuild(pool);
+        PurchaseActivity.rebuild(pool);
+        System.out.printf("%-10s tot_expense + rollups in %.1f s%n", "finish", (System.nanoTime() - t0) / 1e9);
+    }
+
+    // ---------------- helpers ----------------
+
+    // Zipf(s) over ranks 0..n-1, rank 0 the most popular. ranks are shuffled
+    // onto positions so the popular rows aren't simply the lowest ids
+    static class Zipf {
+        private final double[] cdf;
+        private final int[] position;
+
+        Zipf(int n, double s, long seed) {
+            cdf = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += 1.0 / Math.pow(i + 1, s);
+                cdf[i] = sum;
+            }
+            for (int i = 0; i < n; i++) cdf[i] /= sum;
+
+            position = new int[n];
+            for (int i = 0; i < n; i++) position[i] = i;
+            Random r = new Random(seed);
+            for (int i = n - 1; i > 0; i--) {
+                int j = r.nextInt(i + 1);
+                int t = position[i];
+                position[i] = position[j];
+                position[j] = t;
+            }
+        }
+
+        int next(Random rnd) {
+            double u = rnd.nextDouble();
+            int lo = 0;
+            int hi = cdf.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cdf[mid] < u) lo = mid + 1;
+                else hi = mid;
+            }
+            return position[lo];
+        }
+    }
+
+    // keeps all workers together under "rate" rows per second (0 = no limit)
+    static class Throttle {
+        private final long rate;
+        private final long start = System.nanoTime();
+        private long granted = 0;
+
+        Throttle(long rate) {
+            this.rate = rate;
+        }
+
+        void acquire(long n) {
+            if (rate <= 0) return;
+            long due;
+            synchronized (this) {
+                granted += n;
+                due = start + granted * 1_000_000_000L / rate;
+            }
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
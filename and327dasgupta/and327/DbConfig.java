@@ -0,0 +1,290 @@
+/*
+ * small settings helper so nothing about the database is hard coded anymore.
+ * every value can be given as a -D system property (ex: -Dlushop.db.url=...)
+ * or as an environment variable (ex: LUSHOP_DB_URL). system property wins.
+ * if neither is set we fall back to the defaults below (the class oracle db).
+ * set but blank is a value too (ex: a blank report schedule = on demand only),
+ * except for numbers and flags where blank means the default.
+ */
+public class DbConfig {
+
+    // db url given by professor (still the default)
+    public static final String DEFAULT_URL =
+        "jdbc:oracle:thin:@//rocordb01.cse.lehigh.edu:1522/cse241pdb";
+
+    private DbConfig() {}
+
+    // jdbc url, can point at an embedded db for local runs
+    public static String url() {
+        return get("lushop.db.url", DEFAULT_URL);
+    }
+
+    // pool sizing
+    public static int poolMin() {
+        return getInt("lushop.pool.min", 1);
+    }
+
+    public static int poolMax() {
+        return getInt("lushop.pool.max", 8);
+    }
+
+    // connections idle longer than this get closed (down to poolMin)
+    public static long poolIdleTimeoutMs() {
+        return getLong("lushop.pool.idleTimeoutMs", 5 * 60 * 1000L);
+    }
+
+    // how long getConnection waits for a free connection before giving up
+    public static long poolBorrowTimeoutMs() {
+        return getLong("lushop.pool.borrowTimeoutMs", 30 * 1000L);
+    }
+
+    // connection held longer than this gets reported as a possible leak (0 = off)
+    public static long poolLeakThresholdMs() {
+        return getLong("lushop.pool.leakThresholdMs", 10 * 60 * 1000L);
+    }
+
+    // seconds passed to Connection.isValid when checking a connection out
+    public static int poolValidationTimeoutSec() {
+        return getInt("lushop.pool.validationTimeoutSec", 2);
+    }
+
+    // prepared statements kept open per pooled connection (0 = no caching)
+    public static int statementCacheSize() {
+        return getInt("lushop.stmtCache.size", 50);
+    }
+
+    // how long the catalog / installment plan copy in RefDataCache is trusted
+    public static long cacheTtlMs() {
+        return getLong("lushop.cache.ttlMs", 60 * 1000L);
+    }
+
+    // catalogs bigger than this are not kept in memory as a whole
+    public static int cacheMaxCatalogEntries() {
+        return getInt("lushop.cache.maxCatalogEntries", 100_000);
+    }
+
+    // customers kept by CustomerProfileCache (also the largest preview list kept)
+    public static int cacheMaxProfiles() {
+        return getInt("lushop.cache.maxProfiles", 10_000);
+    }
+
+    // listing pages kept by RefDataCache
+    public static int cacheMaxPages() {
+        return getInt("lushop.cache.maxPages", 500);
+    }
+
+    // rows per page on the catalog listing screens
+    public static int pageSize() {
+        return getInt("lushop.catalog.pageSize", 20);
+    }
+
+    // rows the driver pulls per round trip on big reads
+    public static int fetchSize() {
+        return getInt("lushop.jdbc.fetchSize", 500);
+    }
+
+    // the search index is rebuilt from the database this often (catches outside changes)
+    public static long searchRebuildMs() {
+        return getLong("lushop.search.rebuildMs", 10 * 60 * 1000L);
+    }
+
+    // ids reserved per sequence round trip, must equal INCREMENT BY in RelationalSchema.sql
+    public static int idBlockSize() {
+        return getInt("lushop.ids.blockSize", 50);
+    }
+
+    // how often pending EXPENSE_LEDGER rows are folded into CUSTOMER.tot_expense
+    public static long expenseFlushMs() {
+        return getLong("lushop.expense.flushMs", 30 * 1000L);
+    }
+
+    // ledger rows folded per consolidation transaction
+    public static int expenseBatchRows() {
+        return getInt("lushop.expense.batchRows", 5000);
+    }
+
+    // per-query latency / rows / errors (QueryMetrics)
+    public static boolean metricsEnabled() {
+        return getBoolean("lushop.metrics.enabled", true);
+    }
+
+    // distinct sql strings tracked, the rest are counted as "(other)"
+    public static int metricsMaxQueries() {
+        return getInt("lushop.metrics.maxQueries", 500);
+    }
+
+    // how often the metrics are appended to the log file (0 = never)
+    public static long metricsDumpMs() {
+        return getLong("lushop.metrics.dumpMs", 5 * 60 * 1000L);
+    }
+
+    public static String metricsLog() {
+        return get("lushop.metrics.log", "lushop-metrics.log");
+    }
+
+    // worker threads for the background reports (ReportScheduler)
+    public static int reportThreads() {
+        return getInt("lushop.reports.threads", 2);
+    }
+
+    // report runs waiting for a worker before new ones are refused
+    public static int reportQueueSize() {
+        return getInt("lushop.reports.queue", 16);
+    }
+
+    // a report result older than this is run again before it is shown
+    public static long reportMaxAgeMs() {
+        return getLong("lushop.reports.maxAgeMs", 10 * 60 * 1000L);
+    }
+
+    // cron line (min hour day month weekday) for one report, blank / off / none = on demand only.
+    // on demand is the default: a report runs when the menu asks for it and its last result is
+    // older than reportMaxAgeMs. to refresh in the background as well, opt in with a cron line,
+    // ex: -Dlushop.reports.schedule="*/5 * * * *" (all of them) or lushop.reports.spending.schedule
+    public static String reportSchedule(String report) {
+        return get("lushop.reports." + report + ".schedule", get("lushop.reports.schedule", ""));
+    }
+
+    // rows per driver round trip on bulk reads (DataExporter, AnalyticsEngine loads)
+    public static int exportFetchSize() {
+        return getInt("lushop.export.fetchSize", 10_000);
+    }
+
+    // rows buffered per row group in a .lcol export, this is what bounds its memory
+    public static int exportRowGroup() {
+        return getInt("lushop.export.rowGroup", 65_536);
+    }
+
+    // Manager reports computed by AnalyticsEngine (in memory) instead of sql
+    public static boolean analyticsEnabled() {
+        return getBoolean("lushop.analytics.enabled", true);
+    }
+
+    // how often AnalyticsEngine looks for new purchases (on the next query)
+    public static long analyticsRefreshMs() {
+        return getLong("lushop.analytics.refreshMs", 10 * 1000L);
+    }
+
+    // purchases this close to the newest one loaded are read again by the next refresh
+    public static long analyticsOverlapMs() {
+        return getLong("lushop.analytics.overlapMs", 10 * 60 * 1000L);
+    }
+
+    // full reload of the purchase facts this often (names, anything the refresh can't see)
+    public static long analyticsRebuildMs() {
+        return getLong("lushop.analytics.rebuildMs", 6 * 60 * 60 * 1000L);
+    }
+
+    // read replica for reports / exports / browsing, blank = everything on the primary
+    public static String replicaUrl() {
+        return get("lushop.replica.url", "");
+    }
+
+    public static int replicaPoolMax() {
+        return getInt("lushop.replica.poolMax", 8);
+    }
+
+    // < 0 = don't check, always read from the replica
+    public static long replicaMaxLagMs() {
+        return getLong("lushop.replica.maxLagMs", 5 * 1000L);
+    }
+
+    public static long replicaCheckMs() {
+        return getLong("lushop.replica.checkMs", 1000L);
+    }
+
+    // CHANGE_LOG tailing (ChangeFeed), 0 = off
+    public static long changesPollMs() {
+        return getLong("lushop.changes.pollMs", 1000L);
+    }
+
+    public static int changesBatch() {
+        return getInt("lushop.changes.batch", 5000);
+    }
+
+    public static long changesGapMs() {
+        return getLong("lushop.changes.gapMs", 10 * 1000L);
+    }
+
+    public static long changesRetainMs() {
+        return getLong("lushop.changes.retainMs", 24 * 60 * 60 * 1000L);
+    }
+
+    // catalog ids per UPDATE statement of a bulk reprice
+    public static int repriceChunkIds() {
+        return getInt("lushop.reprice.chunkIds", 100000);
+    }
+
+    // memory-mapped copy of the catalog and plans for a warm start, blank / off / none = no snapshot.
+    // each build is written to <this>.<millis>-<pid> next to it, startup maps the newest
+    public static String snapshotFile() {
+        return get("lushop.snapshot.file", "lushop-catalog.snap");
+    }
+
+    public static long snapshotRevalidateMs() {
+        return getLong("lushop.snapshot.revalidateMs", 60 * 1000L);
+    }
+
+    // login for tools that run without the interactive prompt (Bench)
+    public static String user() {
+        return get("lushop.db.user", "");
+    }
+
+    public static String password() {
+        return get("lushop.db.password", "");
+    }
+
+    // ---- generic lookups ----
+
+    // def only if the key is set nowhere, set but blank gives ""
+    public static String get(String key, String def) {
+        String v = System.getProperty(key);
+        if (v == null) {
+            // lushop.pool.max -> LUSHOP_POOL_MAX
+            v = System.getenv(key.toUpperCase().replace('.', '_'));
+        }
+        return v == null ? def : v.trim();
+    }
+
+    // for switches that take a value: blank, "off" or "none" turn them off
+    public static boolean isOff(String v) {
+        return v.trim().isEmpty() || v.trim().equalsIgnoreCase("off") || v.trim().equalsIgnoreCase("none");
+    }
+
+    // numbers and flags: blank is the same as not set
+    private static String number(String key, String def) {
+        String v = get(key, def);
+        return v.isEmpty() ? def : v;
+    }
+
+    public static int getInt(String key, int def) {
+        try {
+            return Integer.parseInt(number(key, String.valueOf(def)));
+        } catch (NumberFormatException e) {
+            System.out.println("Bad value for " + key + ", using " + def);
+            return def;
+        }
+    }
+
+    public static long getLong(String key, long def) {
+        try {
+            return Long.parseLong(number(key, String.valueOf(def)));
+        } catch (NumberFormatException e) {
+            System.out.println("Bad value for " + key + ", using " + def);
+            return def;
+        }
+    }
+
+    public static double getDouble(String key, double def) {
+        try {
+            return Double.parseDouble(number(key, String.valueOf(def)));
+        } catch (NumberFormatException e) {
+            System.out.println("Bad value for " + key + ", using " + def);
+            return def;
+        }
+    }
+
+    public static boolean getBoolean(String key, boolean def) {
+        return Boolean.parseBoolean(number(key, String.valueOf(def)));
+    }
+}
@@ -0,0 +1,123 @@
+import java.sql.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * customer total expense without the update_exp_item / update_exp_svc triggers.
+ *
+ * the triggers did an UPDATE of the CUSTOMER row for every line inserted, so two
+ * purchases by the same (busy) customer waited on each other's row lock until
+ * commit. now checkout only INSERTs one EXPENSE_LEDGER row per purchase, which
+ * never blocks anybody, and a background job folds the ledger into
+ * CUSTOMER.tot_expense in batches:
+ *
+ *   1. UPDATE EXPENSE_LEDGER SET batch_id = ? WHERE batch_id IS NULL   (claim rows)
+ *   2. MERGE the per-customer sums of that batch into CUSTOMER
+ *      (and those purchases into REVENUE_ROLLUP and PURCHASE_ACTIVITY,
+ *      see RevenueRollup / PurchaseActivity)
+ *   3. DELETE the batch
+ *   all in one transaction, so a row is either still in the ledger or already
+ *   in tot_expense, never both and never neither.
+ *
+ * reads stay exact by going through the CUSTOMER_EXPENSE view
+ * (tot_expense + whatever is still pending in the ledger).
+ */
+public class ExpenseLedger implements AutoCloseable {
+
+    private static final AtomicLong recorded = new AtomicLong();
+    private static final AtomicLong batches = new AtomicLong();
+    private static final AtomicLong folded = new AtomicLong();
+
+    private final ConnectionPool pool;
+    private final ScheduledExecutorService consolidator;
+
+    // starts the background consolidation, every lushop.expense.flushMs
+    public ExpenseLedger(ConnectionPool pool) {
+        this.pool = pool;
+        consolidator = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lushop-expense-ledger");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = DbConfig.expenseFlushMs();
+        consolidator.scheduleWithFixedDelay(this::flushQuietly, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // called inside the checkout transaction, right after the PURCHASE insert
+    public static void record(Connection conn, int purId, int customerId, double amount) throws SQLException {
+        Jdbc.update(conn,
+            "INSERT INTO EXPENSE_LEDGER (pur_id, customer_id, amount) VALUES (?, ?, ?)",
+            purId, customerId, amount);
+        recorded.incrementAndGet();
+    }
+
+    // folds everything pending into CUSTOMER, returns ledger rows folded
+    public static int consolidate(ConnectionPool pool) throws SQLException {
+        int batchRows = DbConfig.expenseBatchRows();
+        int total = 0;
+
+        try (Connection conn = pool.getConnection()) {
+            boolean oldAuto = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                while (true) {
+                    int batchId = IdAllocator.next(conn, "ledger_batch_seq");
+
+                    int n = Jdbc.update(conn,
+                        "UPDATE EXPENSE_LEDGER SET batch_id = ? WHERE batch_id IS NULL AND ROWNUM <= ?",
+                        batchId, batchRows);
+                    if (n == 0) {
+                        conn.rollback();
+                        break;
+                    }
+
+                    Jdbc.update(conn,
+                        "MERGE INTO CUSTOMER c " +
+                        "USING (SELECT customer_id, SUM(amount) AS amt FROM EXPENSE_LEDGER " +
+                        "       WHERE batch_id = ? GROUP BY customer_id) d " +
+                        "ON (c.customer_id = d.customer_id) " +
+                        "WHEN MATCHED THEN UPDATE SET c.tot_expense = c.tot_expense + d.amt",
+                        batchId);
+                    RevenueRollup.fold(conn, batchId);
+                    PurchaseActivity.fold(conn, batchId);
+                    Jdbc.update(conn, "DELETE FROM EXPENSE_LEDGER WHERE batch_id = ?", batchId);
+                    conn.commit();
+
+                    batches.incrementAndGet();
+                    folded.addAndGet(n);
+                    total += n;
+                    if (n < batchRows) break;
+                }
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(oldAuto);
+            }
+        }
+        return total;
+    }
+
+    public static String stats() {
+        return "expenseLedger[recorded=" + recorded.get() + ", batches=" + batches.get()
+             + ", folded=" + folded.get() + "]";
+    }
+
+    private void flushQuietly() {
+        try {
+            consolidate(pool);
+        } catch (Exception e) {
+            // pending rows stay in the ledger (and in the view), next run picks them up
+            System.out.println("Error consolidating expenses: " + e.getMessage());
+        }
+    }
+
+    // one last flush so the ledger is empty when the program exits normally
+    @Override
+    public void close() {
+        consolidator.shutdownNow();
+        flushQuietly();
+    }
+}
@@ -0,0 +1,141 @@
+import java.sql.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * hands out primary keys from the oracle sequences in RelationalSchema.sql
+ * instead of SELECT MAX(pk)+1 (which costs a query per insert and gives the
+ * same id to two sessions inserting at the same time).
+ *
+ * the sequences are created with INCREMENT BY <block size>, so one NEXTVAL
+ * reserves a whole range [nextval, nextval + blockSize) for this process.
+ * ids inside the range come out of memory, we only go back to the database
+ * when the range runs out. other app instances get their own ranges from the
+ * same sequence so they never collide.
+ *
+ * the block size here MUST match the INCREMENT BY in the schema.
+ *
+ * a database that already has rows from the old MAX(pk)+1 code (or from a
+ * script) can have ids above a sequence's START WITH, and the first blocks
+ * would run into them. align() runs at startup and moves every sequence past
+ * the largest id in its table.
+ */
+public class IdAllocator {
+
+    private static final Map<String, Block> blocks = new ConcurrentHashMap<>();
+
+    // sequence, table and key column it hands out ids for
+    private static final String[][] KEYS = {
+        { "purchase_seq", "PURCHASE", "pur_id" },
+        { "catalog_seq", "CATALOG", "catalog_id" },
+        { "customer_seq", "CUSTOMER", "customer_id" },
+        { "card_seq", "CREDIT_CARD", "card_id" },
+        { "bank_seq", "BANK_ACC", "bank_id" },
+        { "install_seq", "INSTALLMENT", "install_id" },
+        { "ledger_batch_seq", "EXPENSE_LEDGER", "batch_id" },
+    };
+
+    private IdAllocator() {}
+
+    /*
+     * raises every sequence that is behind the ids already in its table, returns
+     * how many it raised. uses its own connection: ALTER SEQUENCE is DDL and
+     * commits whatever the connection had open.
+     */
+    public static int align(ConnectionPool pool) throws SQLException {
+        int raised = 0;
+        try (Connection conn = pool.getConnection()) {
+            for (String[] k : KEYS) {
+                long max;
+                try (Statement st = conn.createStatement();
+                     ResultSet rs = st.executeQuery("SELECT NVL(MAX(" + k[2] + "), 0) FROM " + k[1])) {
+                    rs.next();
+                    max = rs.getLong(1);
+                }
+                if (blocks.computeIfAbsent(k[0], Block::new).align(conn, max)) raised++;
+            }
+        }
+        return raised;
+    }
+
+    // next id for the given sequence, uses conn only when a new block is needed
+    public static int next(Connection conn, String sequence) throws SQLException {
+        Block b = blocks.computeIfAbsent(sequence.toLowerCase(), Block::new);
+        return b.next(conn);
+    }
+
+    // how many ranges have been reserved so far (one round trip each)
+    public static String stats() {
+        StringBuilder sb = new StringBuilder("ids[");
+        for (Block b : blocks.values()) {
+            synchronized (b) {
+                if (sb.length() > 4) sb.append(", ");
+                sb.append(b.sequence).append(": handed=").append(b.handedOut)
+                  .append(" blocks=").append(b.fetches);
+            }
+        }
+        return sb.append("]").toString();
+    }
+
+    private static class Block {
+        final String sequence;
+        final int size = DbConfig.idBlockSize();
+        long nextId = 0;    // next id to give out
+        long limit = 0;     // first id NOT in the current block
+        long handedOut = 0;
+        long fetches = 0;
+
+        Block(String sequence) {
+            // sequence name goes straight into the sql so only allow plain identifiers
+            if (!sequence.matches("[a-z_][a-z0-9_]*")) {
+                throw new IllegalArgumentException("bad sequence name: " + sequence);
+            }
+            this.sequence = sequence;
+        }
+
+        synchronized int next(Connection conn) throws SQLException {
+            if (nextId >= limit) reserve(nextval(conn));
+            handedOut++;
+            return Math.toIntExact(nextId++);
+        }
+
+        // takes a block above max, true if the sequence had to be moved for it
+        synchronized boolean align(Connection conn, long max) throws SQLException {
+            long start = nextval(conn);
+            boolean raised = false;
+            // loop: another instance aligning at the same time can put the increment back under us
+            while (start <= max) {
+                // one NEXTVAL with a big increment jumps past max. a multiple of the block size, so
+                // blocks other instances take meanwhile can't overlap
+                long step = ((max - start) / size + 1) * size;
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("ALTER SEQUENCE " + sequence + " INCREMENT BY " + step);
+                    try {
+                        nextval(conn);
+                    } finally {
+                        stmt.execute("ALTER SEQUENCE " + sequence + " INCREMENT BY " + size);
+                    }
+                }
+                // take the block after the increment is back: H2 applies a new increment one NEXTVAL late
+                start = nextval(conn);
+                raised = true;
+            }
+            reserve(start);     // the block is ours now, don't waste it
+            return raised;
+        }
+
+        private void reserve(long start) {
+            nextId = start;
+            limit = start + size;
+            fetches++;
+        }
+
+        private long nextval(Connection conn) throws SQLException {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT " + sequence + ".NEXTVAL FROM dual")) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+import java.sql.*;
+
+/*
+ * tiny helpers for the one-liner queries/updates that were copy pasted
+ * all over Customer and Manager. every statement and result set is closed
+ * before returning (on a pooled connection that means it goes back into
+ * the statement cache ready for the next call).
+ */
+public class Jdbc {
+
+    private Jdbc() {}
+
+    // set ?1..?n from the given values
+    public static void bind(PreparedStatement ps, Object... params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            Object p = params[i];
+            if (p instanceof Integer) ps.setInt(i + 1, (Integer) p);
+            else if (p instanceof Long) ps.setLong(i + 1, (Long) p);
+            else if (p instanceof Double) ps.setDouble(i + 1, (Double) p);
+            else if (p instanceof String) ps.setString(i + 1, (String) p);
+            else if (p == null) ps.setNull(i + 1, Types.NUMERIC);   // all our nullable fks are numbers
+            else ps.setObject(i + 1, p);
+        }
+    }
+
+    // INSERT/UPDATE/DELETE, returns rows affected
+    public static int update(Connection conn, String sql, Object... params) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            bind(ps, params);
+            return ps.executeUpdate();
+        }
+    }
+
+    // true if the query returns at least one row
+    public static boolean exists(Connection conn, String sql, Object... params) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            bind(ps, params);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    // first column of the first row as a double, or null if no row
+    public static Double queryDouble(Connection conn, String sql, Object... params) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            bind(ps, params);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getDouble(1) : null;
+            }
+        }
+    }
+
+    // LOCK TABLE ... IN EXCLUSIVE MODE until commit. H2 (local runs, tests) has no
+    // table locks, there it's a no-op: nothing else folds into the table meanwhile
+    public static void lockExclusive(Connection conn, String table) throws SQLException {
+        if (conn.getMetaData().getURL().startsWith("jdbc:h2:")) return;
+        try (Statement st = conn.createStatement()) {
+            st.execute("LOCK TABLE " + table + " IN EXCLUSIVE MODE");
+        }
+    }
+}
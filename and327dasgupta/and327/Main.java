@@ -4,10 +4,7 @@ import java.util.Scanner;
 
 public class Main {
 
-    // db url given by professor
-    private static final String DB_URL =
-        "jdbc:oracle:thin:@//rocordb01.cse.lehigh.edu:1522/cse241pdb";
-
+    @SuppressWarnings("try")    // the expense ledger only needs to be open, not used here
     public static void main(String[] args) {
 
         Scanner input = new Scanner(System.in);
@@ -31,16 +28,41 @@ public class Main {
             pass = new String(p);
         }
 
-        try (Connection conn = DriverManager.getConnection(DB_URL, userId, pass)) {
+        // url comes from DbConfig now (defaults to the professor's db,
+        // can be pointed at an embedded db with -Dlushop.db.url=...)
+        try (ConnectionPool pool = new ConnectionPool(userId, pass);
+             ExpenseLedger ledger = new ExpenseLedger(pool);
+             ReportScheduler reports = new ReportScheduler(pool);
+             CatalogSnapshot snapshot = new CatalogSnapshot(pool);
+             ChangeFeed changes = new ChangeFeed(pool)) {
+
+            // caches drop just the rows a script or another instance changed
+            changes.subscribe(RefDataCache::changed);
+            changes.subscribe(events -> CatalogIndex.changed(pool, events));
+            changes.subscribe(CustomerProfileCache::changed);
+            changes.subscribe(events -> AnalyticsEngine.changed(pool, events));
 
             System.out.println("\nConnected successfully as: " + userId);
+            QueryMetrics.start();
+
+            // ids written before the sequences existed must not be handed out again
+            try {
+                int raised = IdAllocator.align(pool);
+                if (raised > 0) System.out.println("Moved " + raised + " id sequence(s) past existing rows.");
+            } catch (SQLException e) {
+                System.out.println("Error checking id sequences: " + e.getMessage());
+            }
 
             // quick check to see how many tables are in my schema
-            try (Statement s = conn.createStatement();
+            try (Connection conn = pool.getConnection();
+                 Statement s = conn.createStatement();
                  ResultSet r = s.executeQuery("SELECT count(*) FROM user_tables")) {
                 if(r.next()) {
                     System.out.println("Detected " + r.getInt(1) + " tables in your schema.");
                 }
+            } catch (SQLException e) {
+                // user_tables is oracle only, embedded dbs don't have it
+                System.out.println("Could not count tables: " + e.getMessage());
             }
 
             // main program loop (just menus)
@@ -63,13 +85,13 @@ public class Main {
                 if (choice == 0) break;
                 else if (choice == 1) {
                     // jump into customer menu
-                    new Customer(conn, input).run();
+                    new Customer(pool, input).run();
                 }
                 else if (choice == 2) {
-                    new Catalog(conn, input).run();
+                    new Catalog(pool, input).run();
                 }
                 else if (choice == 3) {
-                    new Manager(conn, input).run();
+                    new Manager(pool, input, reports).run();
                 }
                 else {
                     System.out.println("Invalid input.");
@@ -80,6 +102,7 @@ public class Main {
             // usually this means VPN wasn't on or credentials wrong
             System.out.println("Connection Error: " + sqle.getMessage());
         } finally {
+            QueryMetrics.stop();    // last metrics dump to the log
             input.close(); // done reading input
         }
 
@@ -1,16 +1,41 @@
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.sql.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 public class Manager {
 
+    // report queries, package level so Bench runs exactly what the menu runs
+
+    // consolidated tot_expense + anything still pending in EXPENSE_LEDGER
+    static final String SPENDING_SQL =
+        "SELECT name, tot_expense FROM CUSTOMER_EXPENSE ORDER BY tot_expense DESC";
+
+    // reads the per-catalog rollup (see RevenueRollup), cost depends on the
+    // catalog size not on how many lines were ever sold
+    static final String REVENUE_SQL =
+        "SELECT c.description, SUM(r.revenue) as revenue " +
+        "FROM REVENUE_BY_ITEM r " +
+        "JOIN CATALOG c ON r.catalog_id = c.catalog_id " +
+        "GROUP BY c.description " +
+        "ORDER BY revenue DESC";
+
     // same pattern as Customer class
-    // store the connection and the scanner once
-    private final Connection conn;
+    // store the connection pool and the scanner once
+    private final ConnectionPool pool;
     private final Scanner input;
+    // reports run in the background and are served from here (see ReportScheduler)
+    private final ReportScheduler reports;
 
-    public Manager(Connection conn, Scanner input) {
-        this.conn = conn;
+    public Manager(ConnectionPool pool, Scanner input, ReportScheduler reports) {
+        this.pool = pool;
         this.input = input;
+        this.reports = reports;
     }
 
     public void run() {
@@ -19,10 +44,15 @@ public class Manager {
             System.out.println("\n--- Manager Menu ---");
             System.out.println("1. Report: Total spending by customer");
             System.out.println("2. Report: Total revenue by catalog item");
-            System.out.println("3. Report: Purchases per day");
+            System.out.println("3. Report: Purchase activity (hour/day/month, date range)");
             System.out.println("4. List all managers");
             System.out.println("5. Manage catalog");
             System.out.println("6. Manage installment plans");
+            System.out.println("7. System statistics");
+            System.out.println("8. Verify / rebuild report rollups");
+            System.out.println("9. Refresh all reports now");
+            System.out.println("10. Export data to a file (csv.gz / lcol)");
+            System.out.println("11. Ad-hoc analytics (group / filter purchases)");
             System.out.println("0. Back");
             System.out.print("Choice: ");
 
@@ -38,18 +68,43 @@ public class Manager {
             if (choice == 0) return;
             else if (choice == 1) reportSpendingByCustomer();
             else if (choice == 2) reportRevenueByItem();
-            else if (choice == 3) reportPurchasesByDay();
+            else if (choice == 3) reportPurchaseActivity();
             else if (choice == 4) listManagers();
             else if (choice == 5) manageCatalog();
             else if (choice == 6) manageInstallmentPlans();
+            else if (choice == 7) showSystemStats();
+            else if (choice == 8) checkRollups();
+            else if (choice == 9) refreshReports();
+            else if (choice == 10) exportData();
+            else if (choice == 11) adHocAnalytics();
             else System.out.println("Invalid choice.");
         }
     }
 
+    // connection pool / statement cache / id allocator counters
+    private void showSystemStats() {
+        System.out.println("\n--- System Statistics ---");
+        System.out.println(pool.stats());
+        System.out.println(StatementCache.stats());
+        System.out.println(IdAllocator.stats());
+        System.out.println(RefDataCache.stats());
+        System.out.println(CatalogIndex.stats());
+        System.out.println(CatalogSnapshot.stats());
+        System.out.println(ChangeFeed.stats());
+        System.out.println(ExpenseLedger.stats());
+        System.out.println(CustomerProfileCache.stats());
+        System.out.println(ReportScheduler.stats());
+        System.out.println(AnalyticsEngine.stats());
+        System.out.println(QueryMetrics.stats());
+        System.out.println("\nSlowest queries (by total time):");
+        System.out.print(QueryMetrics.dump(10));
+    }
+
     private void listManagers() {
         // quick helper to list rows from MANAGER table
         String sql = "SELECT manager_id, name FROM MANAGER";
-        try (Statement stmt = conn.createStatement();
+        try (Connection conn = pool.getConnection();
+             Statement stmt = conn.createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
 
             System.out.println("\n--- Registered Managers ---");
@@ -62,20 +117,17 @@ public class Manager {
     }
 
     private void reportSpendingByCustomer() {
-        // uses tot_expense column that is updated by our triggers
-        String sql = "SELECT name, tot_expense FROM CUSTOMER ORDER BY tot_expense DESC";
-
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+        try {
+            ReportScheduler.Snapshot<List<ReportScheduler.Total>> s = reports.get(reports.spending);
 
             System.out.println("\nTotal Spending by Customer:");
             System.out.printf("%-20s | %s%n", "Name", "Total");
             System.out.println("-------------------------------");
 
-            while (rs.next()) {
-                System.out.printf("%-20s | $%.2f%n",
-                    rs.getString("name"), rs.getDouble("tot_expense"));
+            for (ReportScheduler.Total t : s.value) {
+                System.out.printf("%-20s | $%.2f%n", t.name, t.amount);
             }
+            printAsOf(s);
 
         } catch (SQLException e) {
             System.out.println("SQL error: " + e.getMessage());
@@ -83,50 +135,201 @@ public class Manager {
     }
 
     private void reportRevenueByItem() {
-        // combine item and service line items to compute revenue per catalog description
-        String sql =
-            "SELECT c.description, SUM(combined.qty * combined.sold_price) as revenue FROM (" +
-            "  SELECT catalog_id, quantity as qty, price_at_purchase as sold_price FROM ITEM_CONTAINS " +
-            "  UNION ALL " +
-            "  SELECT catalog_id, quantity as qty, price_at_purchase as sold_price FROM SERVICE_CONTAINS " +
-            ") combined " +
-            "JOIN CATALOG c ON combined.catalog_id = c.catalog_id " +
-            "GROUP BY c.description " +
-            "ORDER BY revenue DESC";
-
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+        try {
+            ReportScheduler.Snapshot<List<ReportScheduler.Total>> s = reports.get(reports.revenue);
 
             System.out.println("\nRevenue by Item:");
             System.out.printf("%-30s | %s%n", "Item", "Revenue");
             System.out.println("-------------------------------------------");
 
-            while (rs.next()) {
-                System.out.printf("%-30s | $%.2f%n",
-                    rs.getString(1), rs.getDouble(2));
+            for (ReportScheduler.Total t : s.value) {
+                System.out.printf("%-30s | $%.2f%n", t.name, t.amount);
             }
+            printAsOf(s);
 
         } catch (SQLException e) {
             System.out.println("SQL error: " + e.getMessage());
         }
     }
 
-    private void reportPurchasesByDay() {
-        // group by TRUNC(purch_date) to ignore time part
-        String sql =
-            "SELECT TRUNC(purch_date), COUNT(*) " +
-            "FROM PURCHASE " +
-            "GROUP BY TRUNC(purch_date) " +
-            "ORDER BY TRUNC(purch_date)";
+    private void printAsOf(ReportScheduler.Snapshot<?> s) {
+        System.out.println("(as of " + s.asOf.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"))
+            + ", took " + s.tookMs + " ms)");
+    }
 
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+    // runs every report in parallel and waits, so the next views are current
+    private void refreshReports() {
+        try {
+            long t0 = System.nanoTime();
+            reports.refreshAll();
+            System.out.printf("Refreshed %d report(s) in %d ms.%n",
+                reports.reports().size(), (System.nanoTime() - t0) / 1_000_000);
+        } catch (SQLException e) {
+            System.out.println("SQL error: " + e.getMessage());
+        }
+    }
 
-            System.out.println("\nPurchases per Day:");
-            while (rs.next()) {
-                System.out.println(rs.getDate(1) + " | " + rs.getInt(2));
+    private void checkRollups() {
+        try {
+            System.out.println("Checking rollups against the purchase tables...");
+            int badTotals = PurchaseActivity.badTotals(pool);
+            int badRevenue = RevenueRollup.verify(pool);
+            int badActivity = PurchaseActivity.verify(pool);
+            if (badTotals == 0 && badRevenue == 0 && badActivity == 0) {
+                System.out.println("Purchase totals, revenue and activity rollups are up to date.");
+                return;
+            }
+            if (badTotals > 0) {
+                // older purchases were stored with total 0, activity revenue comes from it
+                System.out.println(badTotals + " purchase total(s) don't match their lines.");
+            }
+            System.out.println(badRevenue + " catalog item(s) and " + badActivity
+                + " activity bucket(s) disagree with the purchase tables.");
+
+            System.out.print("Rebuild them now? (y/n): ");
+            if (!input.nextLine().trim().equalsIgnoreCase("y")) return;
+
+            if (badTotals > 0) {
+                System.out.println("Set the total of " + PurchaseActivity.backfillTotals(pool) + " purchase(s) from their lines.");
+                badActivity = PurchaseActivity.verify(pool);
+            }
+
+            if (badRevenue > 0) {
+                System.out.println("Revenue rollup rebuilt for " + RevenueRollup.rebuild(pool) + " catalog item(s).");
             }
+            if (badActivity > 0) {
+                System.out.println("Activity rebuilt, " + PurchaseActivity.rebuild(pool) + " bucket(s).");
+            }
+
+        } catch (SQLException e) {
+            System.out.println("SQL error: " + e.getMessage());
+        }
+    }
+
+    private void reportPurchaseActivity() {
+        // reads only the hour/day/month buckets in the range (see PurchaseActivity)
+        try {
+            System.out.print("Granularity (h = hour, d = day, m = month) [d]: ");
+            String g = input.nextLine().trim().toLowerCase();
+            PurchaseActivity.Grain grain = g.startsWith("h") ? PurchaseActivity.Grain.HOUR
+                                         : g.startsWith("m") ? PurchaseActivity.Grain.MONTH
+                                         : PurchaseActivity.Grain.DAY;
+
+            System.out.print("From date YYYY-MM-DD (blank = 30 days ago): ");
+            String f = input.nextLine().trim();
+            System.out.print("To date YYYY-MM-DD (blank = today): ");
+            String t = input.nextLine().trim();
+
+            LocalDate to = t.isEmpty() ? LocalDate.now() : LocalDate.parse(t);
+            LocalDate from = f.isEmpty() ? to.minusDays(29) : LocalDate.parse(f);
+            if (from.isAfter(to)) {
+                System.out.println("From date is after the to date.");
+                return;
+            }
+
+            // the default view (per day, last 30 days) is pre-computed by the scheduler
+            ReportScheduler.Snapshot<List<PurchaseActivity.Bucket>> cached = null;
+            List<PurchaseActivity.Bucket> buckets;
+            if (grain == PurchaseActivity.Grain.DAY && f.isEmpty() && t.isEmpty()) {
+                cached = reports.get(reports.activity);
+                buckets = cached.value;
+            } else {
+                buckets = ReportScheduler.activity(pool, grain, from, to);
+            }
+
+            System.out.println("\nPurchases per " + grain.name().toLowerCase() + " (" + from + " to " + to + "):");
+            System.out.printf("%-16s | %-9s | %s%n", "Period", "Purchases", "Revenue");
+            System.out.println("-------------------------------------------");
+
+            String pattern = grain == PurchaseActivity.Grain.HOUR ? "yyyy-MM-dd HH:00"
+                           : grain == PurchaseActivity.Grain.DAY ? "yyyy-MM-dd" : "yyyy-MM";
+            DateTimeFormatter fmt = DateTimeFormatter.ofPattern(pattern);
+            for (PurchaseActivity.Bucket b : buckets) {
+                System.out.printf("%-16s | %-9d | $%.2f%n",
+                    b.start.toLocalDateTime().format(fmt), b.purchases, b.revenue);
+            }
+            if (buckets.isEmpty()) System.out.println("(no purchases in this range)");
+            if (cached != null) printAsOf(cached);
+
+        } catch (DateTimeParseException e) {
+            System.out.println("Bad date, use YYYY-MM-DD.");
+        } catch (SQLException e) {
+            System.out.println("SQL error: " + e.getMessage());
+        }
+    }
+
+    // group / filter / sum over the in-memory purchase facts, no new sql needed
+    private void adHocAnalytics() {
+        try {
+            System.out.print("Group by (customer, catalog, kind, hour, day, month) [catalog]: ");
+            String g = input.nextLine().trim().toUpperCase();
+            AnalyticsEngine.Group group = g.isEmpty() ? AnalyticsEngine.Group.CATALOG : AnalyticsEngine.Group.valueOf(g);
+
+            AnalyticsEngine.Filter f = new AnalyticsEngine.Filter();
+            System.out.print("From date YYYY-MM-DD (blank = all): ");
+            String s = input.nextLine().trim();
+            if (!s.isEmpty()) f.from = LocalDate.parse(s);
+            System.out.print("To date YYYY-MM-DD (blank = all): ");
+            s = input.nextLine().trim();
+            if (!s.isEmpty()) f.to = LocalDate.parse(s);
+            System.out.print("Only items (i), only services (s) or both (blank): ");
+            s = input.nextLine().trim().toLowerCase();
+            if (s.startsWith("i")) f.items = Boolean.TRUE;
+            else if (s.startsWith("s")) f.items = Boolean.FALSE;
+            System.out.print("Customer id (blank = all): ");
+            s = input.nextLine().trim();
+            if (!s.isEmpty()) f.customerId = Integer.parseInt(s);
+
+            // per catalog entry / kind needs the lines, the rest is per purchase
+            boolean byLine = group == AnalyticsEngine.Group.CATALOG || group == AnalyticsEngine.Group.KIND;
+            long t0 = System.nanoTime();
+            List<AnalyticsEngine.Row> rows = byLine ? AnalyticsEngine.lines(pool, group, f)
+                                                    : AnalyticsEngine.purchases(pool, group, f);
+            long micros = (System.nanoTime() - t0) / 1000;
+
+            int limit = DbConfig.pageSize();
+            System.out.printf("%n%-30s | %-9s | %-7s | %s%n", group.name().toLowerCase(),
+                byLine ? "Lines" : "Purchases", byLine ? "Units" : "", "Revenue");
+            System.out.println("--------------------------------------------------------------");
+            for (int i = 0; i < rows.size() && i < limit; i++) {
+                AnalyticsEngine.Row r = rows.get(i);
+                System.out.printf("%-30s | %-9d | %-7s | $%.2f%n", r.label, r.count, byLine ? r.units : "", r.revenue);
+            }
+            if (rows.size() > limit) System.out.println("... " + (rows.size() - limit) + " more");
+            if (rows.isEmpty()) System.out.println("(nothing matches)");
+            System.out.println("(" + rows.size() + " group(s) in " + micros + " us)");
+
+        } catch (IllegalArgumentException e) {
+            // bad group name or customer id (NumberFormatException is one too)
+            System.out.println("Bad input: " + e.getMessage());
+        } catch (DateTimeParseException e) {
+            System.out.println("Bad date, use YYYY-MM-DD.");
+        } catch (SQLException e) {
+            System.out.println("SQL error: " + e.getMessage());
+        }
+    }
 
+    // streams a report or the purchase facts to a file (see DataExporter)
+    private void exportData() {
+        System.out.print("Export what (" + String.join(", ", DataExporter.EXPORTS.keySet()) + "): ");
+        String what = input.nextLine().trim().toLowerCase();
+        if (!DataExporter.EXPORTS.containsKey(what)) {
+            System.out.println("Unknown export.");
+            return;
+        }
+        String def = what + "-" + LocalDate.now() + ".csv.gz";
+        System.out.print("File name, .csv.gz or .lcol [" + def + "]: ");
+        String file = input.nextLine().trim();
+        if (file.isEmpty()) file = def;
+
+        try {
+            long t0 = System.nanoTime();
+            long rows = DataExporter.export(pool, what, Paths.get(file));
+            System.out.printf("Exported %d rows to %s in %.1f s.%n", rows, file, (System.nanoTime() - t0) / 1e9);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (IOException e) {
+            System.out.println("Error writing file: " + e.getMessage());
         } catch (SQLException e) {
             System.out.println("SQL error: " + e.getMessage());
         }
@@ -139,6 +342,8 @@ public class Manager {
         System.out.println("1. Add new item");
         System.out.println("2. Add new service");
         System.out.println("3. Update item/service");
+        System.out.println("4. Bulk import from file (CSV/TSV)");
+        System.out.println("5. Bulk reprice (by vendor / type / id range)");
         System.out.println("0. Back");
         System.out.print("Choice: ");
 
@@ -153,6 +358,8 @@ public class Manager {
         else if (c == 1) addItem();
         else if (c == 2) addService();
         else if (c == 3) updateCatalog();   // upgraded version of this method
+        else if (c == 4) bulkImport();
+        else if (c == 5) bulkReprice();
     }
 
     private void addItem() {
@@ -170,26 +377,23 @@ public class Manager {
             System.out.print("Enter manager ID: ");
             int managerId = Integer.parseInt(input.nextLine());
 
-            // generate catalog id using helper
-            int catId = generateNewId("CATALOG", "catalog_id");
+            // only grab a connection once we have all the input
+            try (Connection conn = pool.getConnection()) {
+                // catalog id comes from catalog_seq via the block allocator
+                int catId = IdAllocator.next(conn, "catalog_seq");
 
-            // insert into CATALOG
-            String sql1 = "INSERT INTO CATALOG VALUES (?, ?, ?, ?, ?)";
-            PreparedStatement ps1 = conn.prepareStatement(sql1);
-            ps1.setInt(1, catId);
-            ps1.setString(2, vendor);
-            ps1.setString(3, desc);
-            ps1.setDouble(4, price);
-            ps1.setInt(5, managerId);
-            ps1.executeUpdate();
+                // insert into CATALOG
+                String sql1 = "INSERT INTO CATALOG (catalog_id, vendor, description, price, manager_id) VALUES (?, ?, ?, ?, ?)";
+                Jdbc.update(conn, sql1, catId, vendor, desc, price, managerId);
 
-            // insert into ITEM (subtype)
-            String sql2 = "INSERT INTO ITEM VALUES (?)";
-            PreparedStatement ps2 = conn.prepareStatement(sql2);
-            ps2.setInt(1, catId);
-            ps2.executeUpdate();
+                // insert into ITEM (subtype)
+                String sql2 = "INSERT INTO ITEM VALUES (?)";
+                Jdbc.update(conn, sql2, catId);
 
-            System.out.println("Item added with ID: " + catId);
+                RefDataCache.invalidateCatalog();
+                CatalogIndex.add(new RefDataCache.CatalogEntry(catId, vendor, desc, price, true, false, 0));
+                System.out.println("Item added with ID: " + catId);
+            }
 
         } catch (Exception e) {
             System.out.println("Error adding item: " + e.getMessage());
@@ -214,24 +418,20 @@ public class Manager {
             System.out.print("Enter manager ID: ");
             int managerId = Integer.parseInt(input.nextLine());
 
-            int catId = generateNewId("CATALOG", "catalog_id");
+            // only grab a connection once we have all the input
+            try (Connection conn = pool.getConnection()) {
+                int catId = IdAllocator.next(conn, "catalog_seq");
 
-            String sql1 = "INSERT INTO CATALOG VALUES (?, ?, ?, ?, ?)";
-            PreparedStatement ps1 = conn.prepareStatement(sql1);
-            ps1.setInt(1, catId);
-            ps1.setString(2, vendor);
-            ps1.setString(3, desc);
-            ps1.setDouble(4, price);
-            ps1.setInt(5, managerId);
-            ps1.executeUpdate();
+                String sql1 = "INSERT INTO CATALOG (catalog_id, vendor, description, price, manager_id) VALUES (?, ?, ?, ?, ?)";
+                Jdbc.update(conn, sql1, catId, vendor, desc, price, managerId);
 
-            String sql2 = "INSERT INTO SERVICE VALUES (?, ?)";
-            PreparedStatement ps2 = conn.prepareStatement(sql2);
-            ps2.setInt(1, catId);
-            ps2.setInt(2, duration);
-            ps2.executeUpdate();
+                String sql2 = "INSERT INTO SERVICE VALUES (?, ?)";
+                Jdbc.update(conn, sql2, catId, duration);
 
-            System.out.println("Service added with ID: " + catId);
+                RefDataCache.invalidateCatalog();
+                CatalogIndex.add(new RefDataCache.CatalogEntry(catId, vendor, desc, price, false, true, duration));
+                System.out.println("Service added with ID: " + catId);
+            }
 
         } catch (Exception e) {
             System.out.println("Error adding service: " + e.getMessage());
@@ -240,28 +440,34 @@ public class Manager {
 
     // Priority 2: fully implemented updateCatalog based on the suggestion
     private void updateCatalog() {
+        // a connection only around each statement, never while the manager is typing
         try {
             System.out.print("Enter catalog ID to update: ");
             int catId = Integer.parseInt(input.nextLine());
 
             // pull the current row from CATALOG so user sees before updating
-            String sqlSelect = "SELECT vendor, description, price FROM CATALOG WHERE catalog_id = ?";
-            PreparedStatement psSelect = conn.prepareStatement(sqlSelect);
-            psSelect.setInt(1, catId);
-            ResultSet rs = psSelect.executeQuery();
-
-            if (!rs.next()) {
-                // if no row comes back, id is not valid
-                System.out.println("Catalog ID not found.");
-                return;
+            String sqlSelect = "SELECT vendor, description, price, version FROM CATALOG WHERE catalog_id = ?";
+            long version;
+            try (Connection conn = pool.getConnection();
+                 PreparedStatement psSelect = conn.prepareStatement(sqlSelect)) {
+                psSelect.setInt(1, catId);
+
+                try (ResultSet rs = psSelect.executeQuery()) {
+                    if (!rs.next()) {
+                        // if no row comes back, id is not valid
+                        System.out.println("Catalog ID not found.");
+                        return;
+                    }
+
+                    // show existing values to the user
+                    System.out.println("Current: " +
+                        rs.getString("vendor") + " | " +
+                        rs.getString("description") + " | $" +
+                        rs.getDouble("price"));
+                    version = rs.getLong("version");
+                }
             }
 
-            // show existing values to the user
-            System.out.println("Current: " +
-                rs.getString("vendor") + " | " +
-                rs.getString("description") + " | $" +
-                rs.getDouble("price"));
-
             System.out.print("Enter new price (leave blank to skip): ");
             String priceStr = input.nextLine();
 
@@ -269,13 +475,16 @@ public class Manager {
             if (!priceStr.trim().isEmpty()) {
                 double newPrice = Double.parseDouble(priceStr);
 
-                String sqlUpdate = "UPDATE CATALOG SET price = ? WHERE catalog_id = ?";
-                PreparedStatement psUpdate = conn.prepareStatement(sqlUpdate);
-                psUpdate.setDouble(1, newPrice);
-                psUpdate.setInt(2, catId);
-                psUpdate.executeUpdate();
-
-                System.out.println("Price updated!");
+                // only if nobody changed it while we were typing
+                boolean updated;
+                try (Connection conn = pool.getConnection()) {
+                    updated = CatalogRepricer.setPrice(conn, catId, newPrice, version);
+                }
+                if (updated) {
+                    System.out.println("Price updated!");
+                } else {
+                    System.out.println("Someone else changed this entry meanwhile, price not updated. Look it up again.");
+                }
             }
 
         } catch (Exception e) {
@@ -283,12 +492,85 @@ public class Manager {
         }
     }
 
+    // loads a whole vendor feed with batched inserts (see CatalogLoader for the file format)
+    private void bulkImport() {
+        System.out.println("File columns: type,vendor,description,price,manager_id,duration");
+        System.out.print("Enter file path: ");
+        String path = input.nextLine().trim();
+
+        System.out.print("Commit every how many rows? (blank = 1000): ");
+        String every = input.nextLine().trim();
+
+        try {
+            int commitEvery = every.isEmpty() ? 1000 : Integer.parseInt(every);
+            CatalogLoader.Result r;
+            try {
+                r = new CatalogLoader(pool, commitEvery).load(Paths.get(path));
+            } finally {
+                // even a failed load may have committed some batches
+                RefDataCache.invalidateCatalog();
+                CatalogIndex.invalidate();
+            }
+
+            System.out.printf("Loaded %d rows in %.1f s (%.0f rows/sec), %d rejected, %d skipped from earlier run.%n",
+                r.loaded, r.seconds, r.rowsPerSec(), r.rejected, r.skipped);
+
+        } catch (Exception e) {
+            System.out.println("Error importing catalog: " + e.getMessage());
+        }
+    }
+
+    // percentage or fixed change over a vendor / type / id range, shown before it runs
+    private void bulkReprice() {
+        try {
+            System.out.print("Vendor (blank = any): ");
+            String vendor = input.nextLine().trim();
+            System.out.print("Type (1 = all, 2 = items, 3 = services): ");
+            String t = input.nextLine().trim();
+            CatalogPager.Kind kind = t.equals("2") ? CatalogPager.Kind.ITEMS
+                                   : t.equals("3") ? CatalogPager.Kind.SERVICES : CatalogPager.Kind.ALL;
+            System.out.print("From catalog ID (blank = first): ");
+            String from = input.nextLine().trim();
+            System.out.print("To catalog ID (blank = last): ");
+            String to = input.nextLine().trim();
+            System.out.print("Change, e.g. 10% / -5% / +2.50 / -1: ");
+            String ch = input.nextLine().trim();
+
+            CatalogRepricer.Filter f = new CatalogRepricer.Filter(vendor.isEmpty() ? null : vendor, kind,
+                from.isEmpty() ? null : Integer.valueOf(from), to.isEmpty() ? null : Integer.valueOf(to));
+            CatalogRepricer.Change change = ch.endsWith("%")
+                ? CatalogRepricer.Change.percent(Double.parseDouble(ch.substring(0, ch.length() - 1)))
+                : CatalogRepricer.Change.amount(Double.parseDouble(ch));
+
+            CatalogRepricer.Preview p = CatalogRepricer.preview(pool, f, change);
+            if (p.rows == 0) {
+                System.out.println("No catalog entries match.");
+                return;
+            }
+            System.out.printf("%d entries, prices summing to $%.2f now and $%.2f after. Apply? (y/n): ",
+                p.rows, p.oldTotal, p.newTotal);
+            if (!input.nextLine().trim().equalsIgnoreCase("y")) return;
+
+            int n = CatalogRepricer.apply(pool, p);
+            System.out.println(n + " entries repriced.");
+
+        } catch (NumberFormatException e) {
+            System.out.println("Error: not a number.");
+        } catch (CatalogRepricer.ConflictException e) {
+            System.out.println("Not repriced: " + e.getMessage());
+        } catch (SQLException e) {
+            System.out.println("Error repricing: " + e.getMessage());
+        }
+    }
+
     //INSTALLMENT PLAN SECTION
     private void manageInstallmentPlans() {
         // small menu for viewing and adding plans
         System.out.println("\n--- Installment Plan Management ---");
         System.out.println("1. View all plans");
         System.out.println("2. Add new plan");
+        System.out.println("3. Payment schedule for an amount");
+        System.out.println("4. Outstanding balance projection");
         System.out.println("0. Back");
         System.out.print("Choice: ");
 
@@ -302,22 +584,75 @@ public class Manager {
         if (c == 0) return;
         else if (c == 1) viewInstallmentPlans();
         else if (c == 2) addInstallmentPlan();
+        else if (c == 3) showPaymentSchedule();
+        else if (c == 4) showExposure();
     }
 
-    private void viewInstallmentPlans() {
-        // simply dump install_id, terms, int_rate for all rows
-        String sql = "SELECT install_id, terms, int_rate FROM INSTALLMENT";
+    private void showPaymentSchedule() {
+        try {
+            System.out.print("Plan ID: ");
+            int planId = Integer.parseInt(input.nextLine().trim());
+            System.out.print("Amount: ");
+            double amount = Double.parseDouble(input.nextLine().trim());
+
+            Amortization.Quote q = Amortization.quote(pool, planId, amount);
+            if (q == null) {
+                System.out.println("No such plan.");
+                return;
+            }
+            System.out.printf("%n$%.2f over %d months at %.2f%%: $%.2f a month, $%.2f interest%n",
+                amount, q.plan.terms, q.plan.rate, q.monthly, q.totalInterest);
+            System.out.printf("%-6s | %-10s | %-10s | %-10s | %s%n", "Month", "Payment", "Interest", "Principal", "Balance");
+            System.out.println("--------------------------------------------------------");
+            for (Amortization.Payment p : Amortization.schedule(pool, planId, amount)) {
+                System.out.printf("%-6d | %-10.2f | %-10.2f | %-10.2f | %.2f%n",
+                    p.month, p.payment, p.interest, p.principal, p.balance);
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Error: not a number.");
+        } catch (SQLException e) {
+            System.out.println("Error reading plans: " + e.getMessage());
+        }
+    }
 
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+    private void showExposure() {
+        try {
+            System.out.print("Months ahead (blank = until everything is paid off): ");
+            String m = input.nextLine().trim();
+            Amortization.Projection p = Amortization.project(pool, m.isEmpty() ? 0 : Integer.parseInt(m));
+
+            System.out.printf("%n%d installment purchases, computed in %d ms%n", p.loans, p.tookMs);
+            System.out.println("\n--- Outstanding now by plan ---");
+            for (Map.Entry<Integer, Double> e : p.byPlan.entrySet()) {
+                System.out.printf("%-5d | $%.2f%n", e.getKey(), e.getValue());
+            }
+
+            System.out.println("\n--- Projection (end of month) ---");
+            System.out.printf("%-8s | %-14s | %s%n", "Month", "Outstanding", "Payments due");
+            System.out.println("----------------------------------------------");
+            for (int h = 0; h < p.outstanding.length; h++) {
+                if (h > 0 && p.outstanding[h] == 0 && p.due[h] == 0) break;     // nothing left
+                System.out.printf("%-8s | $%-13.2f | $%.2f%n",
+                    p.from.plusMonths(h).toString().substring(0, 7), p.outstanding[h], p.due[h]);
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Error: not a number.");
+        } catch (SQLException e) {
+            System.out.println("Error computing projection: " + e.getMessage());
+        }
+    }
+
+    private void viewInstallmentPlans() {
+        // simply dump install_id, terms, int_rate for all rows (cached copy)
+        try {
+            List<RefDataCache.Plan> plans = RefDataCache.plans(pool);
 
             System.out.println("\n--- Installment Plans ---");
             System.out.printf("%-5s | %-10s | %s%n", "ID", "Months", "Rate");
             System.out.println("--------------------------------");
 
-            while (rs.next()) {
-                System.out.printf("%-5d | %-10d | %.2f%%%n",
-                    rs.getInt(1), rs.getInt(2), rs.getDouble(3));
+            for (RefDataCache.Plan p : plans) {
+                System.out.printf("%-5d | %-10d | %.2f%%%n", p.id, p.terms, p.rate);
             }
 
         } catch (SQLException e) {
@@ -337,35 +672,22 @@ public class Manager {
             System.out.print("Enter manager ID: ");
             int managerId = Integer.parseInt(input.nextLine());
 
-            int id = generateNewId("INSTALLMENT", "install_id");
+            // only grab a connection once we have all the input
+            try (Connection conn = pool.getConnection()) {
+                int id = IdAllocator.next(conn, "install_seq");
 
-            String sql =
-                "INSERT INTO INSTALLMENT (install_id, terms, int_rate, manager_id) " +
-                "VALUES (?, ?, ?, ?)";
+                String sql =
+                    "INSERT INTO INSTALLMENT (install_id, terms, int_rate, manager_id) " +
+                    "VALUES (?, ?, ?, ?)";
 
-            PreparedStatement ps = conn.prepareStatement(sql);
-            ps.setInt(1, id);
-            ps.setInt(2, terms);
-            ps.setDouble(3, rate);
-            ps.setInt(4, managerId);
-            ps.executeUpdate();
+                Jdbc.update(conn, sql, id, terms, rate, managerId);
 
-            System.out.println("Installment plan added with ID: " + id);
+                RefDataCache.invalidatePlans();
+                System.out.println("Installment plan added with ID: " + id);
+            }
 
         } catch (Exception e) {
             System.out.println("Error adding plan: " + e.getMessage());
         }
     }
-
-    // helper to generate primary keys using MAX + 1
-    // same pattern as Customer class so it stays consistent
-    private int generateNewId(String table, String pkCol) throws SQLException {
-        String sql = "SELECT NVL(MAX(" + pkCol + "), 0) + 1 FROM " + table;
-
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            rs.next();
-            return rs.getInt(1);
-        }
-    }
 }
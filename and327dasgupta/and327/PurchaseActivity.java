@@ -0,0 +1,167 @@
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * purchase count + revenue per hour, day and month in PURCHASE_ACTIVITY.
+ *
+ * the old report grouped all of PURCHASE by TRUNC(purch_date) on every run
+ * (no index can serve that) and had no date range. the buckets are folded in
+ * by the expense ledger job like REVENUE_ROLLUP (see ExpenseLedger.consolidate)
+ * and the report reads PURCHASE_ACTIVITY_ALL (buckets + purchases still in the
+ * ledger) for just the range asked for, through the table's primary key.
+ *
+ * revenue is PURCHASE.total. purchases written before checkout stored the
+ * real total (and the old seed data) have 0 there, backfillTotals() sets
+ * them from their lines once.
+ */
+public class PurchaseActivity {
+
+    public enum Grain {
+        HOUR("H"), DAY("D"), MONTH("M");
+
+        final String code;     // PURCHASE_ACTIVITY.grain
+
+        Grain(String code) {
+            this.code = code;
+        }
+    }
+
+    public static class Bucket {
+        public final Timestamp start;
+        public final int purchases;
+        public final double revenue;
+
+        Bucket(Timestamp start, int purchases, double revenue) {
+            this.start = start;
+            this.purchases = purchases;
+            this.revenue = revenue;
+        }
+    }
+
+    // one row per grain, used to bucket each purchase three ways at once
+    static final String GRAINS =
+        "(SELECT 'H' AS grain, 'HH24' AS fmt FROM dual UNION ALL " +
+        " SELECT 'D', 'DD' FROM dual UNION ALL " +
+        " SELECT 'M', 'MM' FROM dual) g ";
+
+    // a purchase's total worked out from its lines, rounded like Cart.total
+    private static final String LINES_TOTAL =
+        "(SELECT ROUND(NVL(SUM(l.quantity * l.price_at_purchase), 0), 2) FROM (" +
+        "   SELECT pur_id, quantity, price_at_purchase FROM ITEM_CONTAINS UNION ALL " +
+        "   SELECT pur_id, quantity, price_at_purchase FROM SERVICE_CONTAINS) l " +
+        " WHERE l.pur_id = p.pur_id)";
+
+    private PurchaseActivity() {}
+
+    // called by ExpenseLedger.consolidate inside its transaction, after claiming the batch
+    static void fold(Connection conn, int batchId) throws SQLException {
+        Jdbc.update(conn,
+            "MERGE INTO PURCHASE_ACTIVITY a " +
+            "USING (SELECT g.grain, TRUNC(p.purch_date, g.fmt) AS bucket_start, " +
+            "              COUNT(*) AS purchases, NVL(SUM(p.total), 0) AS revenue " +
+            "       FROM PURCHASE p JOIN EXPENSE_LEDGER l ON p.pur_id = l.pur_id " +
+            "       CROSS JOIN " + GRAINS +
+            "       WHERE l.batch_id = ? " +
+            "       GROUP BY g.grain, TRUNC(p.purch_date, g.fmt)) d " +
+            "ON (a.grain = d.grain AND a.bucket_start = d.bucket_start) " +
+            "WHEN MATCHED THEN UPDATE SET a.purchases = a.purchases + d.purchases, " +
+            "                             a.revenue = a.revenue + d.revenue " +
+            "WHEN NOT MATCHED THEN INSERT (grain, bucket_start, purchases, revenue) " +
+            "     VALUES (d.grain, d.bucket_start, d.purchases, d.revenue)",
+            batchId);
+    }
+
+    // buckets from "from" to "to" (both days included), oldest first
+    public static List<Bucket> range(ConnectionPool pool, Grain grain, LocalDate from, LocalDate to)
+            throws SQLException {
+        // a month bucket starts on the 1st, so widen the range to take it in
+        if (grain == Grain.MONTH) from = from.withDayOfMonth(1);
+
+        String sql =
+            "SELECT bucket_start, purchases, revenue FROM PURCHASE_ACTIVITY_ALL " +
+            "WHERE grain = ? AND bucket_start >= ? AND bucket_start < ? " +
+            "ORDER BY bucket_start";
+
+        List<Bucket> out = new ArrayList<>();
+        try (Connection conn = pool.readConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            Jdbc.bind(ps, grain.code, Timestamp.valueOf(from.atStartOfDay()),
+                      Timestamp.valueOf(to.plusDays(1).atStartOfDay()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.add(new Bucket(rs.getTimestamp(1), rs.getInt(2), rs.getDouble(3)));
+            }
+        }
+        return out;
+    }
+
+    // recompute every bucket from PURCHASE, returns buckets written
+    public static int rebuild(ConnectionPool pool) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            boolean oldAuto = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                // same deal as RevenueRollup.rebuild: purchases still in the ledger are left to the job
+                Jdbc.lockExclusive(conn, "PURCHASE_ACTIVITY");
+                Jdbc.update(conn, "DELETE FROM PURCHASE_ACTIVITY");
+                int n = Jdbc.update(conn,
+                    "INSERT INTO PURCHASE_ACTIVITY (grain, bucket_start, purchases, revenue) " +
+                    "SELECT g.grain, TRUNC(p.purch_date, g.fmt), COUNT(*), NVL(SUM(p.total), 0) " +
+                    "FROM PURCHASE p CROSS JOIN " + GRAINS +
+                    "WHERE p.pur_id NOT IN (SELECT pur_id FROM EXPENSE_LEDGER) " +
+                    "GROUP BY g.grain, TRUNC(p.purch_date, g.fmt)");
+                conn.commit();
+                return n;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(oldAuto);
+            }
+        }
+    }
+
+    // purchases whose total disagrees with their lines
+    public static int badTotals(ConnectionPool pool) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement ps = conn.prepareStatement(
+                 "SELECT COUNT(*) FROM PURCHASE p WHERE NVL(p.total, 0) <> " + LINES_TOTAL);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    // sets PURCHASE.total from the lines where it disagrees, returns purchases fixed.
+    // the activity buckets were summed from the old totals, rebuild() them afterwards
+    public static int backfillTotals(ConnectionPool pool) throws SQLException {
+        int n;
+        try (Connection conn = pool.getConnection()) {
+            n = Jdbc.update(conn,
+                "UPDATE PURCHASE p SET total = " + LINES_TOTAL + " WHERE NVL(p.total, 0) <> " + LINES_TOTAL);
+        }
+        if (n > 0) AnalyticsEngine.invalidate();
+        return n;
+    }
+
+    // buckets where PURCHASE_ACTIVITY_ALL disagrees with a full recompute (0 = all good)
+    public static int verify(ConnectionPool pool) throws SQLException {
+        String sql =
+            "SELECT COUNT(*) FROM (" +
+            "  SELECT g.grain, TRUNC(p.purch_date, g.fmt) AS bucket_start, " +
+            "         COUNT(*) AS purchases, NVL(SUM(p.total), 0) AS revenue " +
+            "  FROM PURCHASE p CROSS JOIN " + GRAINS +
+            "  GROUP BY g.grain, TRUNC(p.purch_date, g.fmt)) f " +
+            "FULL OUTER JOIN PURCHASE_ACTIVITY_ALL a " +
+            "  ON f.grain = a.grain AND f.bucket_start = a.bucket_start " +
+            "WHERE NVL(f.purchases, 0) <> NVL(a.purchases, 0) OR NVL(f.revenue, 0) <> NVL(a.revenue, 0)";
+
+        try (Connection conn = pool.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Scanner;
+
+/*
+ * one customer's purchases, newest first, a page at a time.
+ *
+ * the old screen pulled the customer's whole history (every line of every
+ * purchase) in one unordered query. now each page is one query:
+ *  - the next pageSize+1 purchases after the keyset cursor (purch_date, pur_id),
+ *    read from idx_purchase_cust_date without touching the PURCHASE table
+ *  - joined to just their lines (ITEM_CONTAINS / SERVICE_CONTAINS by pur_id)
+ * so the first page of a customer with years of history costs the same as
+ * one with a single purchase, and only one page is ever held in memory.
+ */
+public class PurchaseHistory {
+
+    public static class Line {
+        public final String description;
+        public final int quantity;
+        public final double price;
+
+        Line(String description, int quantity, double price) {
+            this.description = description;
+            this.quantity = quantity;
+            this.price = price;
+        }
+    }
+
+    public static class Purchase {
+        public final int id;
+        public final Timestamp date;
+        public final double total;
+        public final List<Line> lines = new ArrayList<>();
+
+        Purchase(int id, Timestamp date, double total) {
+            this.id = id;
+            this.date = date;
+            this.total = total;
+        }
+    }
+
+    public static class Page {
+        public final List<Purchase> purchases;
+        public final boolean hasMore;
+
+        Page(List<Purchase> purchases, boolean hasMore) {
+            this.purchases = purchases;
+            this.hasMore = hasMore;
+        }
+
+        // keyset cursor for the (older) page after this one
+        public Purchase last() {
+            return purchases.isEmpty() ? null : purchases.get(purchases.size() - 1);
+        }
+    }
+
+    private PurchaseHistory() {}
+
+    // purchases older than "after" (null = newest), optionally only from..to (days included)
+    public static Page page(ConnectionPool pool, int customerId, LocalDate from, LocalDate to,
+                            Purchase after, int size) throws SQLException {
+        StringBuilder pg = new StringBuilder(
+            "SELECT pur_id, purch_date, total FROM PURCHASE WHERE customer_id = ? ");
+        List<Object> params = new ArrayList<>();
+        params.add(customerId);
+
+        if (from != null) {
+            pg.append("AND purch_date >= ? ");
+            params.add(Timestamp.valueOf(from.atStartOfDay()));
+        }
+        if (to != null) {
+            pg.append("AND purch_date < ? ");
+            params.add(Timestamp.valueOf(to.plusDays(1).atStartOfDay()));
+        }
+        if (after != null) {
+            pg.append("AND (purch_date < ? OR (purch_date = ? AND pur_id < ?)) ");
+            params.add(after.date);
+            params.add(after.date);
+            params.add(after.id);
+        }
+        // one extra purchase tells us if there is an older page
+        pg.append("ORDER BY purch_date DESC, pur_id DESC FETCH FIRST ? ROWS ONLY");
+        params.add(size + 1);
+
+        String sql =
+            "SELECT p.pur_id, p.purch_date, p.total, c.description, l.quantity, l.price_at_purchase " +
+            "FROM (" + pg + ") p " +
+            "LEFT JOIN (SELECT pur_id, catalog_id, quantity, price_at_purchase FROM ITEM_CONTAINS " +
+            "           UNION ALL " +
+            "           SELECT pur_id, catalog_id, quantity, price_at_purchase FROM SERVICE_CONTAINS) l " +
+            "  ON l.pur_id = p.pur_id " +
+            "LEFT JOIN CATALOG c ON c.catalog_id = l.catalog_id " +
+            "ORDER BY p.purch_date DESC, p.pur_id DESC";
+
+        List<Purchase> out = new ArrayList<>();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            Jdbc.bind(ps, params.toArray());
+            ps.setFetchSize(DbConfig.fetchSize());
+            try (ResultSet rs = ps.executeQuery()) {
+                Purchase cur = null;
+                while (rs.next()) {
+                    int id = rs.getInt(1);
+                    if (cur == null || cur.id != id) {
+                        cur = new Purchase(id, rs.getTimestamp(2), rs.getDouble(3));
+                        out.add(cur);
+                    }
+                    if (rs.getString(4) != null || rs.getInt(5) != 0) {
+                        cur.lines.add(new Line(rs.getString(4), rs.getInt(5), rs.getDouble(6)));
+                    }
+                }
+            }
+        }
+
+        boolean more = out.size() > size;
+        if (more) out.remove(out.size() - 1);
+        return new Page(out, more);
+    }
+
+    // interactive paging for the customer details screen
+    public static void browse(ConnectionPool pool, Scanner input, int customerId,
+                              LocalDate from, LocalDate to) throws SQLException {
+        int size = DbConfig.pageSize();
+        Deque<Purchase> previous = new ArrayDeque<>();     // cursors of newer pages
+        Purchase cursor = null;
+        int pageNo = 1;
+
+        while (true) {
+            Page p = page(pool, customerId, from, to, cursor, size);
+
+            for (Purchase pur : p.purchases) {
+                System.out.printf(" - %s | Purchase %d | Total: $%.2f%n",
+                    pur.date.toLocalDateTime().toLocalDate(), pur.id, pur.total);
+                for (Line l : pur.lines) {
+                    System.out.println("     " + l.description + " | Qty: " + l.quantity + " | $" + l.price);
+                }
+            }
+            if (p.purchases.isEmpty()) {
+                System.out.println("   (No purchases found)");
+                return;
+            }
+            if (!p.hasMore && pageNo == 1) return;      // everything fit on one page
+
+            System.out.print("[page " + pageNo + "] " + (p.hasMore ? "Enter = older, " : "")
+                + (pageNo > 1 ? "b = newer, " : "") + "q = done: ");
+            String cmd = input.nextLine().trim().toLowerCase();
+
+            if (cmd.isEmpty() || cmd.equals("n")) {
+                if (!p.hasMore) return;
+                previous.push(cursor == null ? NO_CURSOR : cursor);
+                cursor = p.last();
+                pageNo++;
+            } else if (cmd.equals("b") && !previous.isEmpty()) {
+                Purchase back = previous.pop();
+                cursor = back == NO_CURSOR ? null : back;
+                pageNo--;
+            } else if (cmd.equals("q")) {
+                return;
+            }
+        }
+    }
+
+    // ArrayDeque can't hold null, this stands in for "newest page"
+    private static final Purchase NO_CURSOR = new Purchase(-1, null, 0);
+}
@@ -0,0 +1,167 @@
+import java.lang.reflect.Method;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/*
+ * the purchase rules without any Scanner prompts, so they can be driven by
+ * code (tests, load generators, another front end) as well as by the CLI.
+ *
+ * rules (same ones the Customer screen always enforced):
+ *  - individuals buy ITEMS, businesses buy SERVICES
+ *  - items are paid by credit card or an installment plan, services by bank account
+ *  - every line must exist in CATALOG, quantity >= 1
+ *
+ * purchase() runs one order on the calling thread. submit()/runAll() run many
+ * orders at once, one virtual thread per order when the JVM has them (java 21+),
+ * otherwise a fixed pool the size of the connection pool. either way at most
+ * lushop.pool.max orders hold a connection at the same time, the rest wait
+ * on a semaphore (not inside the pool's synchronized wait, which would pin
+ * virtual threads to their carrier).
+ */
+public class PurchaseService implements AutoCloseable {
+
+    // one order as data
+    public static class Order {
+        public final int customerId;
+        public final Map<Integer, Integer> lines = new LinkedHashMap<>();    // catalog id -> qty
+        public final Cart.Payment payment;
+
+        public Order(int customerId, Cart.Payment payment) {
+            this.customerId = customerId;
+            this.payment = payment;
+        }
+
+        public Order add(int catalogId, int quantity) {
+            lines.merge(catalogId, quantity, Integer::sum);
+            return this;
+        }
+    }
+
+    public static class Result {
+        public final Order order;
+        public final int purchaseId;    // 0 when it failed
+        public final double total;
+        public final String error;      // null when it worked
+
+        Result(Order order, int purchaseId, double total, String error) {
+            this.order = order;
+            this.purchaseId = purchaseId;
+            this.total = total;
+            this.error = error;
+        }
+
+        public boolean ok() {
+            return error == null;
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final Semaphore inFlight = new Semaphore(DbConfig.poolMax());
+    private ExecutorService executor;   // only created if submit() is used
+
+    public PurchaseService(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    // TRUE = individual, FALSE = business, null = no such customer
+    public Boolean customerType(int customerId) throws SQLException {
+        CustomerProfileCache.Profile p = profile(customerId);
+        return p == null ? null : p.individual;
+    }
+
+    // subtype, cards, bank accounts and expense (cached), null = no such customer
+    public CustomerProfileCache.Profile profile(int customerId) throws SQLException {
+        return CustomerProfileCache.profile(pool, customerId);
+    }
+
+    // prices and checks the cart without buying anything
+    public List<Cart.Line> quote(Cart cart) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            return cart.price(conn);
+        }
+    }
+
+    // buys everything in the cart
+    public Cart.Receipt checkout(Cart cart, Cart.Payment pay) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            return cart.checkout(conn, pay);
+        } finally {
+            // even a failed checkout may mean the cached profile is stale
+            CustomerProfileCache.invalidate(cart.getCustomerId());
+        }
+    }
+
+    // a whole order on the calling thread, rule violations come back in Result.error
+    public Result purchase(Order order) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(order, 0, 0, "interrupted");
+        }
+
+        try (Connection conn = pool.getConnection()) {
+            CustomerProfileCache.Profile p = CustomerProfileCache.profile(conn, order.customerId);
+            if (p == null || p.individual == null) return new Result(order, 0, 0, "Customer ID not found.");
+
+            Cart cart = new Cart(order.customerId, p.individual);
+            for (Map.Entry<Integer, Integer> l : order.lines.entrySet()) cart.add(l.getKey(), l.getValue());
+
+            Cart.Receipt r = cart.checkout(conn, order.payment);
+            CustomerProfileCache.invalidate(order.customerId);     // tot_expense changed
+            return new Result(order, r.purchaseId, r.total, null);
+
+        } catch (IllegalArgumentException | IllegalStateException rule) {
+            return new Result(order, 0, 0, rule.getMessage());
+        } catch (SQLException e) {
+            return new Result(order, 0, 0, "Transaction failed: " + e.getMessage());
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    public CompletableFuture<Result> submit(Order order) {
+        return CompletableFuture.supplyAsync(() -> purchase(order), executor());
+    }
+
+    // runs all orders concurrently and waits for them, results in the same order
+    public List<Result> runAll(List<Order> orders) {
+        List<CompletableFuture<Result>> futures = new ArrayList<>(orders.size());
+        for (Order o : orders) futures.add(submit(o));
+
+        List<Result> out = new ArrayList<>(orders.size());
+        for (CompletableFuture<Result> f : futures) out.add(f.join());
+        return out;
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) executor = newExecutor();
+        return executor;
+    }
+
+    // virtual threads on java 21+, found by reflection so this still compiles/runs on 17
+    private static ExecutorService newExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(DbConfig.poolMax(), r -> {
+                Thread t = new Thread(r, "lushop-purchase");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (executor != null) executor.shutdown();
+    }
+}
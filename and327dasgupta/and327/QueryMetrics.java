@@ -0,0 +1,357 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/*
+ * latency / rows / errors for every statement run on a pooled connection,
+ * grouped by sql text, so slow queries show up without adding timing code
+ * to Customer, Catalog and Manager.
+ *
+ * ConnectionPool and StatementCache call execute() around every execute*
+ * call (cached statements in StatementCache.Handle, everything else through
+ * the wrap() proxy). result sets come back wrapped so rows are counted as
+ * they are read.
+ *
+ * per query we keep a fixed histogram (4 buckets per power of two of
+ * microseconds, so percentiles are within ~25%), counted with atomics and no
+ * locks, cheap enough to leave on. lushop.metrics.enabled=false turns it off.
+ *
+ * visible as:
+ *  - JMX bean lushop:type=QueryMetrics (jconsole / VisualVM)
+ *  - a dump appended to lushop.metrics.log every lushop.metrics.dumpMs
+ *  - the top queries under Manager > System statistics
+ */
+public class QueryMetrics {
+
+    private static final boolean enabled = DbConfig.metricsEnabled();
+    private static final int maxQueries = DbConfig.metricsMaxQueries();
+
+    private static final Map<String, Stat> stats = new ConcurrentHashMap<>();
+    // once maxQueries different sql strings are seen the rest are lumped together here
+    private static final Stat OTHER = new Stat("(other)");
+    private static ScheduledExecutorService dumper;
+
+    private QueryMetrics() {}
+
+    // ---------------- one query ----------------
+
+    static class Stat {
+        // 0..7 us exact, then 4 buckets per power of two
+        private static final int BUCKETS = 8 + 60 * 4;
+
+        final String sql;
+        final LongAdder calls = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+        volatile String lastError;
+
+        Stat(String sql) {
+            this.sql = sql;
+        }
+
+        void record(long nanos) {
+            calls.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            histogram.incrementAndGet(bucket(nanos / 1000));
+        }
+
+        static int bucket(long us) {
+            if (us < 8) return (int) Math.max(0, us);
+            int e = 63 - Long.numberOfLeadingZeros(us);     // >= 3
+            int sub = (int) (us >> (e - 2)) & 3;
+            return Math.min(BUCKETS - 1, 8 + (e - 3) * 4 + sub);
+        }
+
+        // largest value that lands in the bucket
+        static long upper(int b) {
+            if (b < 8) return b;
+            int e = (b - 8) / 4 + 3;
+            int sub = (b - 8) % 4;
+            return ((4L + sub) << (e - 2)) + (1L << (e - 2)) - 1;
+        }
+
+        // p in 0..1, microseconds
+        long percentile(double p) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) total += histogram.get(i);
+            if (total == 0) return 0;
+            long want = (long) Math.ceil(p * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += histogram.get(i);
+                if (seen >= want) return Math.min(upper(i), maxNanos.get() / 1000);
+            }
+            return maxNanos.get() / 1000;
+        }
+
+        // back to nothing seen, the object stays (StatementCache entries hold on to it)
+        void clear() {
+            calls.reset();
+            errors.reset();
+            rows.reset();
+            totalNanos.reset();
+            maxNanos.set(0);
+            for (int i = 0; i < BUCKETS; i++) histogram.set(i, 0);
+            lastError = null;
+        }
+
+        Info info() {
+            return new Info(label(sql), calls.sum(), errors.sum(), rows.sum(),
+                            percentile(0.50), percentile(0.99), maxNanos.get() / 1000,
+                            totalNanos.sum() / 1_000_000, lastError);
+        }
+    }
+
+    static Stat stat(String sql) {
+        if (sql == null) sql = "(batch)";
+        Stat s = stats.get(sql);
+        if (s != null) return s;
+        if (stats.size() >= maxQueries) return OTHER;
+        return stats.computeIfAbsent(sql, Stat::new);
+    }
+
+    public static boolean enabled() {
+        return enabled;
+    }
+
+    // ---------------- hooks for ConnectionPool / StatementCache ----------------
+
+    // runs an execute* method on target, timing it into s (null s = plain
+    // Statement, the sql is the first argument)
+    static Object execute(Stat s, Object target, Method m, Object[] args) throws Throwable {
+        if (s == null) s = stat(args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null);
+
+        long t0 = System.nanoTime();
+        Object result;
+        try {
+            result = m.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            s.record(System.nanoTime() - t0);
+            s.errors.increment();
+            s.lastError = e.getCause().getMessage();
+            throw e.getCause();
+        }
+        s.record(System.nanoTime() - t0);
+
+        if (result instanceof Integer) s.rows.add(Math.max(0, (Integer) result));
+        else if (result instanceof Long) s.rows.add(Math.max(0, (Long) result));
+        else if (result instanceof int[]) {
+            for (int n : (int[]) result) s.rows.add(n == Statement.SUCCESS_NO_INFO ? 1 : Math.max(0, n));
+        } else if (result instanceof ResultSet) {
+            return countRows((ResultSet) result, s);
+        }
+        return result;
+    }
+
+    // statement that didn't come from the statement cache, owner = pooled connection
+    static Statement wrap(Statement stmt, String sql, Connection owner) {
+        Class<?> iface = stmt instanceof CallableStatement ? CallableStatement.class
+                       : stmt instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+        Stat s = sql == null ? null : stat(sql);
+
+        return (Statement) Proxy.newProxyInstance(QueryMetrics.class.getClassLoader(), new Class<?>[] { iface },
+            (proxy, m, args) -> {
+                String name = m.getName();
+                if (name.equals("getConnection")) return owner;
+                if (name.startsWith("execute")) return execute(s, stmt, m, args);
+                try {
+                    return m.invoke(stmt, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            });
+    }
+
+    private static ResultSet countRows(ResultSet rs, Stat s) {
+        InvocationHandler h = (proxy, m, args) -> {
+            Object r;
+            try {
+                r = m.invoke(rs, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (r == Boolean.TRUE && m.getName().equals("next")) s.rows.increment();
+            return r;
+        };
+        return (ResultSet) Proxy.newProxyInstance(QueryMetrics.class.getClassLoader(),
+                                                  new Class<?>[] { ResultSet.class }, h);
+    }
+
+    // ---------------- reporting ----------------
+
+    // one query as seen from JMX (an MXBean turns this into CompositeData)
+    public static class Info {
+        private final String query;
+        private final long calls, errors, rows, p50Micros, p99Micros, maxMicros, totalMillis;
+        private final String lastError;
+
+        Info(String query, long calls, long errors, long rows, long p50Micros, long p99Micros,
+             long maxMicros, long totalMillis, String lastError) {
+            this.query = query;
+            this.calls = calls;
+            this.errors = errors;
+            this.rows = rows;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+            this.totalMillis = totalMillis;
+            this.lastError = lastError;
+        }
+
+        public String getQuery() { return query; }
+        public long getCalls() { return calls; }
+        public long getErrors() { return errors; }
+        public long getRows() { return rows; }
+        public long getP50Micros() { return p50Micros; }
+        public long getP99Micros() { return p99Micros; }
+        public long getMaxMicros() { return maxMicros; }
+        public long getTotalMillis() { return totalMillis; }
+        public String getLastError() { return lastError; }
+    }
+
+    public interface QueryMetricsMXBean {
+        int getQueryCount();
+        long getCalls();
+        long getErrors();
+        List<Info> getTopQueries();     // by total time
+        String getDump();
+        void reset();
+    }
+
+    // queries sorted by total time spent, most expensive first
+    public static List<Info> top(int limit) {
+        List<Stat> all = new ArrayList<>(stats.values());
+        all.add(OTHER);
+        all.removeIf(s -> s.calls.sum() == 0);      // nothing since the last reset
+        all.sort((a, b) -> Long.compare(b.totalNanos.sum(), a.totalNanos.sum()));
+
+        List<Info> out = new ArrayList<>();
+        for (Stat s : all) {
+            if (out.size() == limit) break;
+            out.add(s.info());
+        }
+        return out;
+    }
+
+    public static String dump(int limit) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-60s %8s %6s %9s %8s %8s %8s%n",
+                                "query", "calls", "errors", "rows", "p50us", "p99us", "maxus"));
+        for (Info i : top(limit)) {
+            sb.append(String.format("%-60s %8d %6d %9d %8d %8d %8d%n",
+                                    i.query, i.calls, i.errors, i.rows, i.p50Micros, i.p99Micros, i.maxMicros));
+        }
+        return sb.toString();
+    }
+
+    public static String stats() {
+        long calls = 0;
+        long errors = 0;
+        for (Stat s : stats.values()) {
+            calls += s.calls.sum();
+            errors += s.errors.sum();
+        }
+        return "queries[distinct=" + stats.size() + ", calls=" + calls + ", errors=" + errors + "]";
+    }
+
+    // zeroes every query in place: cached statements and wrapped ones keep
+    // their Stat, so dropping the map entries would leave them counting into
+    // objects nobody reports any more
+    public static void reset() {
+        for (Stat s : stats.values()) s.clear();
+        OTHER.clear();
+    }
+
+    // "SELECT c.customer_id, c.name ..." squeezed onto one line and cut to fit the dump
+    static String label(String sql) {
+        String s = sql.replaceAll("\\s+", " ").trim();
+        return s.length() <= 60 ? s : s.substring(0, 57) + "...";
+    }
+
+    // ---------------- startup / shutdown ----------------
+
+    // registers the JMX bean and starts the periodic dump (Main calls this once)
+    public static synchronized void start() {
+        if (!enabled || dumper != null) return;
+
+        try {
+            QueryMetricsMXBean bean = new QueryMetricsMXBean() {
+                public int getQueryCount() { return stats.size(); }
+                public long getCalls() {
+                    long n = 0;
+                    for (Stat s : stats.values()) n += s.calls.sum();
+                    return n;
+                }
+                public long getErrors() {
+                    long n = 0;
+                    for (Stat s : stats.values()) n += s.errors.sum();
+                    return n;
+                }
+                public List<Info> getTopQueries() { return top(20); }
+                public String getDump() { return dump(Integer.MAX_VALUE); }
+                public void reset() { QueryMetrics.reset(); }
+            };
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new StandardMBean(bean, QueryMetricsMXBean.class, true),
+                new ObjectName("lushop:type=QueryMetrics"));
+        } catch (JMException e) {
+            System.out.println("Could not register query metrics with JMX: " + e.getMessage());
+        }
+
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lushop-query-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = DbConfig.metricsDumpMs();
+        if (period > 0) {
+            dumper.scheduleWithFixedDelay(QueryMetrics::writeLog, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // last dump on the way out
+    public static synchronized void stop() {
+        if (dumper == null) return;
+        dumper.shutdownNow();
+        dumper = null;
+        if (DbConfig.metricsDumpMs() > 0) writeLog();
+    }
+
+    private static void writeLog() {
+        if (stats.isEmpty()) return;
+        try (PrintWriter w = new PrintWriter(Files.newBufferedWriter(Paths.get(DbConfig.metricsLog()),
+                 StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+            w.println("==== " + LocalDateTime.now() + " " + stats());
+            w.print(dump(Integer.MAX_VALUE));
+        } catch (IOException e) {
+            System.out.println("Error writing query metrics: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * a second pool on a read replica (lushop.replica.url) plus how far behind it is.
+ *
+ * ConnectionPool.readConnection() hands out a replica connection for reads
+ * that can be a little behind (reports, analytics loads, exports, catalog
+ * browsing), so they don't compete with checkout on the primary. everything
+ * else, and every write, stays on the primary.
+ *
+ * freshness: every lushop.replica.checkMs we read MAX(change_id) of
+ * CHANGE_LOG on the primary and then on the replica. the primary values are
+ * kept with the time they were read, and the newest one the replica has
+ * reached is the point in time the replica is known to be complete up to
+ * (caughtUpTo). reads go to the primary instead when that is more than
+ * lushop.replica.maxLagMs ago, when a caller needs rows written after it
+ * (readConnection(since)), or when the replica can't be reached.
+ *
+ * lushop.replica.maxLagMs < 0 turns the check off (always use the replica),
+ * for two local embedded dbs without CHANGE_LOG.
+ */
+class ReadReplica implements AutoCloseable {
+
+    private static final String MAX_SQL = "SELECT NVL(MAX(change_id), 0) FROM CHANGE_LOG";
+
+    final ConnectionPool pool;
+    private final ConnectionPool primary;
+    private final long maxLagMs = DbConfig.replicaMaxLagMs();
+    private final ScheduledExecutorService checker;
+
+    // primary MAX(change_id) and when it was read, oldest first
+    private final Deque<long[]> samples = new ArrayDeque<>();
+    private volatile long caughtUpTo = 0;       // replica has everything committed before this
+    private volatile boolean reachable = true;
+    private volatile String lastError;
+
+    private final AtomicLong replicaReads = new AtomicLong();
+    private final AtomicLong primaryReads = new AtomicLong();
+
+    ReadReplica(ConnectionPool primary, String url, String user, String pass) throws SQLException {
+        this.primary = primary;
+        // min 0 so a replica that is down doesn't stop the program from starting
+        this.pool = new ConnectionPool(url, user, pass, 0, DbConfig.replicaPoolMax(),
+                                       DbConfig.poolIdleTimeoutMs(), DbConfig.poolBorrowTimeoutMs(),
+                                       DbConfig.poolLeakThresholdMs(), DbConfig.poolValidationTimeoutSec());
+        if (maxLagMs < 0) {
+            checker = null;
+            return;
+        }
+        reachable = false;      // until the first check says otherwise
+        checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lushop-replica-check");
+            t.setDaemon(true);
+            return t;
+        });
+        checker.scheduleWithFixedDelay(this::check, 0, DbConfig.replicaCheckMs(), TimeUnit.MILLISECONDS);
+    }
+
+    // a replica connection if it has everything committed before since (and is within the lag bound), else null
+    Connection connection(long since) {
+        if (maxLagMs >= 0) {
+            long upTo = caughtUpTo;
+            if (!reachable || upTo < since || System.currentTimeMillis() - upTo > maxLagMs) {
+                primaryReads.incrementAndGet();
+                return null;
+            }
+        }
+        try {
+            Connection c = pool.getConnection();
+            replicaReads.incrementAndGet();
+            return c;
+        } catch (SQLException e) {
+            // pool full or replica gone, the primary can take it
+            lastError = e.getMessage();
+            primaryReads.incrementAndGet();
+            return null;
+        }
+    }
+
+    private void check() {
+        try {
+            long now = System.currentTimeMillis();
+            long primaryMax = max(primary);
+            long replicaMax = max(pool);
+
+            synchronized (samples) {
+                samples.addLast(new long[] { primaryMax, now });
+                // newest primary reading the replica has reached; older ones aren't needed any more
+                long upTo = caughtUpTo;
+                while (!samples.isEmpty() && samples.peekFirst()[0] <= replicaMax) {
+                    upTo = samples.pollFirst()[1];
+                }
+                caughtUpTo = upTo;
+                // far behind: don't keep readings forever
+                while (samples.size() > 10000) samples.pollFirst();
+            }
+            reachable = true;
+            lastError = null;
+        } catch (SQLException e) {
+            reachable = false;
+            lastError = e.getMessage();
+        }
+    }
+
+    private static long max(ConnectionPool p) throws SQLException {
+        try (Connection conn = p.getConnection();
+             Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(MAX_SQL)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    String stats() {
+        String lag = maxLagMs < 0 ? "unchecked"
+                   : caughtUpTo == 0 ? "unknown"
+                   : (System.currentTimeMillis() - caughtUpTo) + " ms";
+        return "replica[" + pool.getUrl() + ", lag=" + lag + ", reachable=" + reachable
+             + ", reads=" + replicaReads.get() + ", sentToPrimary=" + primaryReads.get()
+             + (lastError == null ? "" : ", lastError=" + lastError) + "]\n  " + pool.stats();
+    }
+
+    @Override
+    public void close() {
+        if (checker != null) checker.shutdownNow();
+        pool.close();
+    }
+}
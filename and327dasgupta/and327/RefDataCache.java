@@ -0,0 +1,328 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * in-memory copy of the reference data that barely changes:
+ * the catalog (with item/service type and duration) and the installment plans.
+ *
+ * read-through: if the copy is missing or older than the TTL we reload it
+ * from the database, otherwise the screens are served from memory.
+ * Manager calls the invalidate methods after it writes, so changes made in
+ * this program show up right away (the TTL covers changes made elsewhere).
+ *
+ * memory is bounded: a catalog bigger than maxCatalogEntries is not kept as a
+ * whole list (it is returned once and dropped), and single-entry lookups go
+ * into an LRU map of the same size. listing pages (CatalogPager) are kept in
+ * their own small LRU map.
+ */
+public class RefDataCache {
+
+    // one catalog row plus its subtype info
+    public static class CatalogEntry {
+        public final int id;
+        public final String vendor;
+        public final String description;
+        public final double price;
+        public final boolean item;      // has an ITEM row
+        public final boolean service;   // has a SERVICE row
+        public final int duration;      // days, only for services
+
+        public CatalogEntry(int id, String vendor, String description, double price,
+                            boolean item, boolean service, int duration) {
+            this.id = id;
+            this.vendor = vendor;
+            this.description = description;
+            this.price = price;
+            this.item = item;
+            this.service = service;
+            this.duration = duration;
+        }
+    }
+
+    public static class Plan {
+        public final int id;
+        public final int terms;     // months
+        public final double rate;   // yearly %
+
+        public Plan(int id, int terms, double rate) {
+            this.id = id;
+            this.terms = terms;
+            this.rate = rate;
+        }
+    }
+
+    static final String CATALOG_SQL =
+        "SELECT c.catalog_id, c.vendor, c.description, c.price, " +
+        "       CASE WHEN i.catalog_id IS NOT NULL THEN 1 ELSE 0 END, " +
+        "       CASE WHEN s.catalog_id IS NOT NULL THEN 1 ELSE 0 END, s.duration " +
+        "FROM CATALOG c " +
+        "LEFT JOIN ITEM i ON c.catalog_id = i.catalog_id " +
+        "LEFT JOIN SERVICE s ON c.catalog_id = s.catalog_id ";
+
+    private static final long ttlMs = DbConfig.cacheTtlMs();
+    private static final int maxCatalogEntries = DbConfig.cacheMaxCatalogEntries();
+    private static final int maxPages = DbConfig.cacheMaxPages();
+
+    // something that reads from the database
+    public interface Loader<T> {
+        T load() throws SQLException;
+    }
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    // whole catalog ordered by id, null when not loaded / invalidated / too big
+    private static List<CatalogEntry> catalog;
+    private static long catalogLoadedAt;
+    // single lookups, access ordered so the oldest gets dropped first
+    private static final Map<Integer, Timed> byId =
+        new LinkedHashMap<Integer, Timed>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Timed> e) {
+                return size() > maxCatalogEntries;
+            }
+        };
+
+    // catalog listing pages by CatalogPager key
+    private static final Map<String, Timed> pages =
+        new LinkedHashMap<String, Timed>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Timed> e) {
+                return size() > maxPages;
+            }
+        };
+
+    private static List<Plan> plans;
+    private static long plansLoadedAt;
+
+    // bumped by every invalidate, a load that raced with a write is not kept
+    private static long catalogVersion = 0;
+    private static long plansVersion = 0;
+
+    // when the catalog last changed (here or seen in the change feed); loads from
+    // the read replica only if it has caught up to this
+    private static volatile long catalogChangedAt = 0;
+
+    private RefDataCache() {}
+
+    // ---------------- catalog ----------------
+
+    // every catalog entry ordered by catalog_id
+    public static List<CatalogEntry> catalog(ConnectionPool pool) throws SQLException {
+        long version;
+        synchronized (RefDataCache.class) {
+            if (catalog != null && fresh(catalogLoadedAt)) {
+                hits.incrementAndGet();
+                return catalog;
+            }
+            misses.incrementAndGet();
+            version = catalogVersion;
+        }
+
+        List<CatalogEntry> list = new ArrayList<>();
+        try (Connection conn = pool.readConnection(catalogChangedAt);
+             PreparedStatement ps = conn.prepareStatement(CATALOG_SQL + "ORDER BY c.catalog_id");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) list.add(read(rs));
+        }
+        list = Collections.unmodifiableList(list);
+
+        synchronized (RefDataCache.class) {
+            if (version == catalogVersion && list.size() <= maxCatalogEntries) {
+                catalog = list;
+                catalogLoadedAt = System.currentTimeMillis();
+            }
+        }
+        return list;
+    }
+
+    // one entry by id, null if it does not exist
+    public static CatalogEntry catalogEntry(ConnectionPool pool, int id) throws SQLException {
+        long version;
+        synchronized (RefDataCache.class) {
+            if (catalog != null && fresh(catalogLoadedAt)) {
+                CatalogEntry e = find(catalog, id);
+                hits.incrementAndGet();
+                return e;
+            }
+            Timed t = byId.get(id);
+            if (t != null && fresh(t.loadedAt)) {
+                hits.incrementAndGet();
+                return (CatalogEntry) t.value;
+            }
+            misses.incrementAndGet();
+            version = catalogVersion;
+        }
+
+        CatalogEntry e = null;
+        try (Connection conn = pool.getConnection();
+             PreparedStatement ps = conn.prepareStatement(CATALOG_SQL + "WHERE c.catalog_id = ?")) {
+            ps.setInt(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) e = read(rs);
+            }
+        }
+
+        synchronized (RefDataCache.class) {
+            if (e != null && version == catalogVersion) {
+                byId.put(id, new Timed(e));
+            }
+        }
+        return e;
+    }
+
+    // one listing page, loaded with the given loader on a miss
+    public static CatalogPager.Page page(String key, Loader<CatalogPager.Page> loader) throws SQLException {
+        long version;
+        synchronized (RefDataCache.class) {
+            Timed t = pages.get(key);
+            if (t != null && fresh(t.loadedAt)) {
+                hits.incrementAndGet();
+                return (CatalogPager.Page) t.value;
+            }
+            misses.incrementAndGet();
+            version = catalogVersion;
+        }
+
+        CatalogPager.Page p = loader.load();
+
+        synchronized (RefDataCache.class) {
+            if (version == catalogVersion) pages.put(key, new Timed(p));
+        }
+        return p;
+    }
+
+    // called after anything writes CATALOG / ITEM / SERVICE
+    public static synchronized void invalidateCatalog() {
+        catalogVersion++;
+        catalogChangedAt = System.currentTimeMillis();
+        catalog = null;
+        CatalogSnapshot.invalidate();
+        byId.clear();
+        pages.clear();
+    }
+
+    // rows changed by someone else (ChangeFeed): drop just those entries, and
+    // the full list and pages since they contain them
+    public static void changed(List<ChangeFeed.Event> events) {
+        boolean catalogChanged = false;
+        boolean plansChanged = false;
+        synchronized (RefDataCache.class) {
+            for (ChangeFeed.Event e : events) {
+                if (e.isCatalog()) {
+                    catalogChanged = true;
+                    byId.remove(e.rowId);
+                } else if (e.table == ChangeFeed.Table.INSTALLMENT) {
+                    plansChanged = true;
+                }
+            }
+            if (catalogChanged) {
+                catalogVersion++;
+                catalogChangedAt = System.currentTimeMillis();
+                catalog = null;
+                pages.clear();
+                CatalogSnapshot.invalidate();
+            }
+        }
+        if (plansChanged) invalidatePlans();
+    }
+
+    static long catalogChangedAt() {
+        return catalogChangedAt;
+    }
+
+    // ---------------- installment plans ----------------
+
+    public static List<Plan> plans(ConnectionPool pool) throws SQLException {
+        long version;
+        synchronized (RefDataCache.class) {
+            if (plans != null && fresh(plansLoadedAt)) {
+                hits.incrementAndGet();
+                return plans;
+            }
+            misses.incrementAndGet();
+            version = plansVersion;
+        }
+
+        List<Plan> list;
+        CatalogSnapshot.Mapped snap = CatalogSnapshot.current();
+        if (snap != null) {
+            list = snap.plans();
+        } else {
+            list = new ArrayList<>();
+            try (Connection conn = pool.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(
+                     "SELECT install_id, terms, int_rate FROM INSTALLMENT ORDER BY install_id");
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) list.add(new Plan(rs.getInt(1), rs.getInt(2), rs.getDouble(3)));
+            }
+            list = Collections.unmodifiableList(list);
+        }
+
+        synchronized (RefDataCache.class) {
+            if (version == plansVersion) {
+                plans = list;
+                plansLoadedAt = System.currentTimeMillis();
+            }
+        }
+        return list;
+    }
+
+    // called after anything writes INSTALLMENT
+    public static synchronized void invalidatePlans() {
+        plansVersion++;
+        plans = null;
+        CatalogSnapshot.invalidate();
+    }
+
+    // ---------------- helpers ----------------
+
+    public static String stats() {
+        long h = hits.get();
+        long m = misses.get();
+        double rate = (h + m) == 0 ? 0 : 100.0 * h / (h + m);
+        synchronized (RefDataCache.class) {
+            return String.format("refdata[hits=%d, misses=%d, hitRate=%.1f%%, catalog=%s, plans=%s]",
+                h, m, rate,
+                catalog == null ? "not loaded" : catalog.size() + " rows",
+                plans == null ? "not loaded" : plans.size() + " rows");
+        }
+    }
+
+    private static boolean fresh(long loadedAt) {
+        return System.currentTimeMillis() - loadedAt < ttlMs;
+    }
+
+    static CatalogEntry read(ResultSet rs) throws SQLException {
+        return new CatalogEntry(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getDouble(4),
+                                rs.getInt(5) == 1, rs.getInt(6) == 1, rs.getInt(7));
+    }
+
+    private static class Timed {
+        final Object value;
+        final long loadedAt = System.currentTimeMillis();
+
+        Timed(Object value) {
+            this.value = value;
+        }
+    }
+
+    // list is sorted by id so binary search it
+    private static CatalogEntry find(List<CatalogEntry> list, int id) {
+        int lo = 0;
+        int hi = list.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int v = list.get(mid).id;
+            if (v < id) lo = mid + 1;
+            else if (v > id) hi = mid - 1;
+            else return list.get(mid);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,359 @@
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * runs the manager reports in the background and keeps their last result.
+ *
+ * before, every report ran on the manager's connection when the menu item was
+ * picked, so a slow one froze the session. now each report is a Report with a
+ * loader and an optional cron schedule:
+ *  - a worker pool of lushop.reports.threads runs them, several at once
+ *  - a ticker checks the schedules once a minute and refreshes what is due
+ *  - get() returns the last result right away while it is younger than
+ *    lushop.reports.maxAgeMs, otherwise refreshes it and waits
+ *  - a report that is already running is never started twice, a second
+ *    caller just waits for the same run
+ * every result carries its as-of time, the menu prints it under the report.
+ *
+ * new reports: register(name, loader) in the constructor, the schedule comes
+ * from lushop.reports.<name>.schedule (or lushop.reports.schedule). with
+ * neither set a report is on demand only, the ticker has nothing to do.
+ */
+public class ReportScheduler implements AutoCloseable {
+
+    // what a report computes, runs on a worker thread with its own connection
+    public interface Loader<T> {
+        T load(ConnectionPool pool) throws SQLException;
+    }
+
+    // one line of the spending / revenue reports
+    public static class Total {
+        public final String name;
+        public final double amount;
+
+        Total(String name, double amount) {
+            this.name = name;
+            this.amount = amount;
+        }
+    }
+
+    // a finished run
+    public static class Snapshot<T> {
+        public final T value;
+        public final LocalDateTime asOf;     // when the run started
+        public final long tookMs;
+
+        Snapshot(T value, LocalDateTime asOf, long tookMs) {
+            this.value = value;
+            this.asOf = asOf;
+            this.tookMs = tookMs;
+        }
+    }
+
+    public static class Report<T> {
+        public final String name;
+        final Loader<T> loader;
+        final Cron schedule;                 // null = on demand only
+
+        private Snapshot<T> last;
+        private CompletableFuture<Snapshot<T>> running;
+
+        Report(String name, Loader<T> loader, Cron schedule) {
+            this.name = name;
+            this.loader = loader;
+            this.schedule = schedule;
+        }
+
+        public synchronized Snapshot<T> last() {
+            return last;
+        }
+    }
+
+    // the built-in reports, same results the menu always showed
+    public final Report<List<Total>> spending;
+    public final Report<List<Total>> revenue;
+    public final Report<List<PurchaseActivity.Bucket>> activity;    // per day, last 30 days
+
+    private static final AtomicLong runs = new AtomicLong();
+    private static final AtomicLong failures = new AtomicLong();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong waits = new AtomicLong();
+
+    private final ConnectionPool pool;
+    private final long maxAgeMs = DbConfig.reportMaxAgeMs();
+    private final List<Report<?>> reports = new ArrayList<>();
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService ticker;
+
+    public ReportScheduler(ConnectionPool pool) {
+        this.pool = pool;
+
+        int threads = Math.max(1, DbConfig.reportThreads());
+        AtomicInteger n = new AtomicInteger();
+        // bounded: a report is queued at most once, so this only fills up if
+        // far more reports are registered than the queue holds
+        workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(DbConfig.reportQueueSize()), r -> {
+                Thread t = new Thread(r, "lushop-report-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        workers.allowCoreThreadTimeOut(true);
+
+        // revenue from the in-memory purchase facts when enabled, otherwise the report sql.
+        // spending always reads CUSTOMER_EXPENSE, the engine has no expense ledger
+        boolean mem = DbConfig.analyticsEnabled();
+        spending = register("spending", p -> totals(p, Manager.SPENDING_SQL));
+        revenue = register("revenue", p -> mem ? AnalyticsEngine.revenue(p) : totals(p, Manager.REVENUE_SQL));
+        activity = register("activity", p -> activity(p, PurchaseActivity.Grain.DAY,
+            LocalDate.now().minusDays(29), LocalDate.now()));
+
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lushop-report-ticker");
+            t.setDaemon(true);
+            return t;
+        });
+        // first tick at the start of the next minute, like cron
+        LocalDateTime now = LocalDateTime.now();
+        long delay = ChronoUnit.MILLIS.between(now, now.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1));
+        ticker.scheduleAtFixedRate(this::tick, delay, 60_000, TimeUnit.MILLISECONDS);
+    }
+
+    // adds a report, scheduled per lushop.reports.<name>.schedule
+    public <T> Report<T> register(String name, Loader<T> loader) {
+        String spec = DbConfig.reportSchedule(name);
+        Cron cron = null;
+        if (!DbConfig.isOff(spec)) {
+            try {
+                cron = Cron.parse(spec);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Bad schedule for report " + name + " (" + e.getMessage() + "), on demand only.");
+            }
+        }
+        Report<T> r = new Report<>(name, loader, cron);
+        synchronized (reports) {
+            reports.add(r);
+        }
+        return r;
+    }
+
+    // last result if still fresh, otherwise a new run (waits for it)
+    public <T> Snapshot<T> get(Report<T> r) throws SQLException {
+        Snapshot<T> s = r.last();
+        if (s != null && ChronoUnit.MILLIS.between(s.asOf, LocalDateTime.now()) < maxAgeMs) {
+            hits.incrementAndGet();
+            return s;
+        }
+        waits.incrementAndGet();
+        return await(refresh(r));
+    }
+
+    // starts a run unless one is already going, never blocks
+    public <T> CompletableFuture<Snapshot<T>> refresh(Report<T> r) {
+        synchronized (r) {
+            if (r.running != null) return r.running;
+            CompletableFuture<Snapshot<T>> f = new CompletableFuture<>();
+            r.running = f;
+            try {
+                workers.execute(() -> run(r, f));
+            } catch (RejectedExecutionException e) {
+                r.running = null;
+                f.completeExceptionally(new SQLException("report queue is full, try again later"));
+            }
+            return f;
+        }
+    }
+
+    // every report at once, waits until all are done
+    public void refreshAll() throws SQLException {
+        List<CompletableFuture<? extends Snapshot<?>>> all = new ArrayList<>();
+        for (Report<?> r : reports()) all.add(refresh(r));
+        SQLException first = null;
+        for (CompletableFuture<? extends Snapshot<?>> f : all) {
+            try {
+                await(f);
+            } catch (SQLException e) {
+                if (first == null) first = e;
+            }
+        }
+        if (first != null) throw first;
+    }
+
+    public List<Report<?>> reports() {
+        synchronized (reports) {
+            return Collections.unmodifiableList(new ArrayList<>(reports));
+        }
+    }
+
+    private <T> void run(Report<T> r, CompletableFuture<Snapshot<T>> f) {
+        LocalDateTime asOf = LocalDateTime.now();
+        long t0 = System.nanoTime();
+        try {
+            T value = r.loader.load(pool);
+            Snapshot<T> s = new Snapshot<>(value, asOf, (System.nanoTime() - t0) / 1_000_000);
+            synchronized (r) {
+                r.last = s;
+                r.running = null;
+            }
+            runs.incrementAndGet();
+            f.complete(s);
+        } catch (Exception e) {
+            // the previous result (if any) stays, it just keeps getting older
+            synchronized (r) {
+                r.running = null;
+            }
+            failures.incrementAndGet();
+            f.completeExceptionally(e);
+        }
+    }
+
+    private void tick() {
+        LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES);
+        for (Report<?> r : reports()) {
+            if (r.schedule != null && r.schedule.matches(now)) {
+                refresh(r).whenComplete((s, e) -> {
+                    if (e != null) System.out.println("Error running report " + r.name + ": " + e.getMessage());
+                });
+            }
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> f) throws SQLException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a report");
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof SQLException) throw (SQLException) c;
+            throw new SQLException(c.getMessage(), c);
+        }
+    }
+
+    // purchase activity the same way the reports are computed (see lushop.analytics.enabled)
+    static List<PurchaseActivity.Bucket> activity(ConnectionPool pool, PurchaseActivity.Grain grain,
+                                                  LocalDate from, LocalDate to) throws SQLException {
+        return DbConfig.analyticsEnabled() ? AnalyticsEngine.activity(pool, grain, from, to)
+                                           : PurchaseActivity.range(pool, grain, from, to);
+    }
+
+    private static List<Total> totals(ConnectionPool pool, String sql) throws SQLException {
+        List<Total> out = new ArrayList<>();
+        try (Connection conn = pool.readConnection();
+             Statement st = conn.createStatement()) {
+            st.setFetchSize(DbConfig.fetchSize());
+            try (ResultSet rs = st.executeQuery(sql)) {
+                while (rs.next()) out.add(new Total(rs.getString(1), rs.getDouble(2)));
+            }
+        }
+        return out;
+    }
+
+    public static String stats() {
+        return "reports[runs=" + runs.get() + ", failures=" + failures.get()
+             + ", servedCached=" + hits.get() + ", waitedForRun=" + waits.get() + "]";
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /*
+     * the usual 5 field cron line: minute hour day-of-month month day-of-week
+     * (0 or 7 = Sunday). each field is *, a number, a range a-b, a list a,b,c
+     * or any of those with a /step, e.g. "0,30 8-18 * * 1-5" or "0-59/10" (star slash 10) for every 10 minutes.
+     * like cron, if both day fields are restricted either one matching is enough.
+     */
+    static class Cron {
+        private final long minutes, hours, days, months, weekdays;
+        private final boolean anyDay, anyWeekday;
+
+        private Cron(long minutes, long hours, long days, long months, long weekdays,
+                     boolean anyDay, boolean anyWeekday) {
+            this.minutes = minutes;
+            this.hours = hours;
+            this.days = days;
+            this.months = months;
+            this.weekdays = weekdays;
+            this.anyDay = anyDay;
+            this.anyWeekday = anyWeekday;
+        }
+
+        static Cron parse(String spec) {
+            String[] f = spec.trim().split("\\s+");
+            if (f.length != 5) throw new IllegalArgumentException("need 5 fields, got " + f.length);
+            long dow = field(f[4], 0, 7);
+            if ((dow & (1L << 7)) != 0) dow = (dow | 1L) & ~(1L << 7);     // 7 is Sunday too
+            return new Cron(field(f[0], 0, 59), field(f[1], 0, 23), field(f[2], 1, 31),
+                            field(f[3], 1, 12), dow, f[2].equals("*"), f[4].equals("*"));
+        }
+
+        boolean matches(LocalDateTime t) {
+            if (!bit(minutes, t.getMinute()) || !bit(hours, t.getHour()) || !bit(months, t.getMonthValue())) {
+                return false;
+            }
+            boolean day = bit(days, t.getDayOfMonth());
+            boolean weekday = bit(weekdays, t.getDayOfWeek().getValue() % 7);
+            if (anyDay || anyWeekday) return day && weekday;
+            return day || weekday;
+        }
+
+        private static boolean bit(long mask, int i) {
+            return (mask & (1L << i)) != 0;
+        }
+
+        // one field as a bit mask, bit i set = value i matches
+        private static long field(String s, int min, int max) {
+            long mask = 0;
+            for (String part : s.split(",")) {
+                int step = 1;
+                int slash = part.indexOf('/');
+                if (slash >= 0) {
+                    step = number(part.substring(slash + 1), 1, max);
+                    part = part.substring(0, slash);
+                }
+                int lo, hi;
+                if (part.equals("*")) {
+                    lo = min;
+                    hi = max;
+                } else if (part.indexOf('-') > 0) {
+                    lo = number(part.substring(0, part.indexOf('-')), min, max);
+                    hi = number(part.substring(part.indexOf('-') + 1), lo, max);
+                } else {
+                    lo = number(part, min, max);
+                    hi = slash >= 0 ? max : lo;      // "5/10" = from 5 on, every 10
+                }
+                for (int i = lo; i <= hi; i += step) mask |= 1L << i;
+            }
+            return mask;
+        }
+
+        private static int number(String s, int min, int max) {
+            try {
+                int v = Integer.parseInt(s);
+                if (v < min || v > max) throw new IllegalArgumentException(s + " is not in " + min + "-" + max);
+                return v;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad number '" + s + "'");
+            }
+        }
+    }
+}
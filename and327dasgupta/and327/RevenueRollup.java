@@ -0,0 +1,94 @@
+import java.sql.*;
+
+/*
+ * revenue per catalog id kept in REVENUE_ROLLUP instead of summing every
+ * ITEM_CONTAINS / SERVICE_CONTAINS row each time the report runs.
+ *
+ * it rides on the expense ledger: every purchase has an EXPENSE_LEDGER row
+ * until it is consolidated, and the consolidation transaction also folds the
+ * lines of those purchases into the rollup (see ExpenseLedger.consolidate).
+ * so checkout itself never touches a shared rollup row, and the
+ * REVENUE_BY_ITEM view (rollup + lines of purchases still in the ledger)
+ * is exact at any moment while only reading a handful of pending lines.
+ *
+ * rebuild() recomputes the whole thing from the line tables, verify() compares
+ * the view against a full recompute without changing anything.
+ */
+public class RevenueRollup {
+
+    private RevenueRollup() {}
+
+    // lines of the purchases in one ledger batch, summed per catalog id
+    private static final String BATCH_LINES =
+        "SELECT catalog_id, SUM(quantity * price_at_purchase) AS revenue, SUM(quantity) AS units FROM (" +
+        "  SELECT ic.catalog_id, ic.quantity, ic.price_at_purchase FROM ITEM_CONTAINS ic " +
+        "  JOIN EXPENSE_LEDGER l ON ic.pur_id = l.pur_id WHERE l.batch_id = ? " +
+        "  UNION ALL " +
+        "  SELECT sc.catalog_id, sc.quantity, sc.price_at_purchase FROM SERVICE_CONTAINS sc " +
+        "  JOIN EXPENSE_LEDGER l ON sc.pur_id = l.pur_id WHERE l.batch_id = ? " +
+        ") GROUP BY catalog_id";
+
+    // every line ever sold, summed per catalog id (the old report query)
+    private static final String ALL_LINES =
+        "SELECT catalog_id, SUM(quantity * price_at_purchase) AS revenue, SUM(quantity) AS units FROM (" +
+        "  SELECT catalog_id, quantity, price_at_purchase FROM ITEM_CONTAINS " +
+        "  UNION ALL " +
+        "  SELECT catalog_id, quantity, price_at_purchase FROM SERVICE_CONTAINS " +
+        ") GROUP BY catalog_id";
+
+    // called by ExpenseLedger.consolidate inside its transaction, after claiming the batch
+    static void fold(Connection conn, int batchId) throws SQLException {
+        Jdbc.update(conn,
+            "MERGE INTO REVENUE_ROLLUP r " +
+            "USING (" + BATCH_LINES + ") d " +
+            "ON (r.catalog_id = d.catalog_id) " +
+            "WHEN MATCHED THEN UPDATE SET r.revenue = r.revenue + d.revenue, r.units = r.units + d.units " +
+            "WHEN NOT MATCHED THEN INSERT (catalog_id, revenue, units) VALUES (d.catalog_id, d.revenue, d.units)",
+            batchId, batchId);
+    }
+
+    // recompute the rollup from scratch, returns catalog ids written
+    public static int rebuild(ConnectionPool pool) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            boolean oldAuto = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                // a consolidation running now waits for us at its MERGE, and the
+                // purchases it claimed are still in the ledger, so we skip them here
+                Jdbc.lockExclusive(conn, "REVENUE_ROLLUP");
+                Jdbc.update(conn, "DELETE FROM REVENUE_ROLLUP");
+                int n = Jdbc.update(conn,
+                    "INSERT INTO REVENUE_ROLLUP (catalog_id, revenue, units) " +
+                    "SELECT catalog_id, SUM(quantity * price_at_purchase), SUM(quantity) FROM (" +
+                    "  SELECT catalog_id, quantity, price_at_purchase FROM ITEM_CONTAINS " +
+                    "  WHERE pur_id NOT IN (SELECT pur_id FROM EXPENSE_LEDGER) " +
+                    "  UNION ALL " +
+                    "  SELECT catalog_id, quantity, price_at_purchase FROM SERVICE_CONTAINS " +
+                    "  WHERE pur_id NOT IN (SELECT pur_id FROM EXPENSE_LEDGER) " +
+                    ") GROUP BY catalog_id");
+                conn.commit();
+                return n;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(oldAuto);
+            }
+        }
+    }
+
+    // catalog ids where REVENUE_BY_ITEM disagrees with a full recompute (0 = all good)
+    public static int verify(ConnectionPool pool) throws SQLException {
+        String sql =
+            "SELECT COUNT(*) FROM (" + ALL_LINES + ") f " +
+            "FULL OUTER JOIN REVENUE_BY_ITEM r ON f.catalog_id = r.catalog_id " +
+            "WHERE NVL(f.revenue, 0) <> NVL(r.revenue, 0) OR NVL(f.units, 0) <> NVL(r.units, 0)";
+
+        try (Connection conn = pool.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+/*
+ * runs the sqlplus style scripts in dataGeneration/ over jdbc: ';' ends a
+ * statement, '/' ends a PL/SQL block. DROPs that fail are skipped since the
+ * schema script drops everything first, which fails on an empty schema.
+ *
+ * the same scripts load into H2 (oracle mode) for Bench and the tests, minus
+ * what H2 can't run:
+ *   - PL/SQL (the CHANGE_LOG triggers), skipped
+ *   - the LOWER(description) function index, skipped
+ *   - TRUNC(date, fmt), replaced with trunc below
+ */
+public class SqlScript {
+
+    private SqlScript() {}
+
+    public static void run(Connection conn, Path file) throws IOException, SQLException {
+        boolean h2 = conn.getMetaData().getURL().startsWith("jdbc:h2:");
+        if (h2) {
+            execute(conn, "SET BUILTIN_ALIAS_OVERRIDE TRUE");
+            execute(conn, "CREATE ALIAS IF NOT EXISTS TRUNC FOR \"SqlScript.trunc\"");
+        }
+
+        StringBuilder stmt = new StringBuilder();
+        boolean plsql = false;
+
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String t = line.trim();
+            if (stmt.length() == 0 && (t.isEmpty() || t.startsWith("--"))) continue;
+
+            if (plsql && t.equals("/")) {
+                if (!h2) execute(conn, stmt.toString());
+                stmt.setLength(0);
+                plsql = false;
+                continue;
+            }
+            if (stmt.length() == 0) {
+                String u = t.toUpperCase();
+                plsql = u.startsWith("BEGIN") || u.startsWith("DECLARE")
+                     || u.matches("CREATE (OR REPLACE )?(TRIGGER|PROCEDURE|FUNCTION|PACKAGE).*");
+            }
+            stmt.append(line).append('\n');
+
+            if (!plsql && t.endsWith(";")) {
+                String s = stmt.toString().trim();
+                stmt.setLength(0);
+                if (h2 && s.toUpperCase().contains("(LOWER(")) continue;
+                execute(conn, s.substring(0, s.length() - 1));
+            }
+        }
+    }
+
+    private static void execute(Connection conn, String sql) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.execute(sql);
+        } catch (SQLException e) {
+            if (!sql.trim().toUpperCase().startsWith("DROP")) throw new SQLException(e.getMessage() + " in " + sql, e);
+        }
+    }
+
+    // TRUNC(date) and TRUNC(date, 'HH24' / 'DD' / 'MM') for H2, all the schema and PurchaseActivity use
+    public static Timestamp trunc(Timestamp t) {
+        return trunc(t, "DD");
+    }
+
+    public static Timestamp trunc(Timestamp t, String fmt) {
+        if (t == null) return null;
+        LocalDateTime d = t.toLocalDateTime();
+        switch (fmt.trim().toUpperCase()) {
+            case "HH24": return Timestamp.valueOf(d.truncatedTo(ChronoUnit.HOURS));
+            case "DD":   return Timestamp.valueOf(d.truncatedTo(ChronoUnit.DAYS));
+            case "MM":   return Timestamp.valueOf(d.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1));
+            default: throw new IllegalArgumentException("TRUNC format not supported: " + fmt);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * per-connection cache of prepared statements (one of these lives next to
+ * every physical connection in ConnectionPool).
+ *
+ * conn.prepareStatement(sql) on a pooled connection comes through here:
+ *  - same sql seen before on this connection -> reuse the already parsed statement
+ *  - otherwise prepare it and keep it (least recently used one gets closed when full)
+ *
+ * close() on the statement we hand out does NOT close the real statement, it
+ * closes any result sets it opened, clears the parameters, puts fetch size,
+ * max rows and query timeout back to what the driver started with, and puts
+ * it back in the cache. so code keeps using normal try-with-resources.
+ */
+public class StatementCache {
+
+    // counters across all connections, shown in the manager stats screen
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    private final Connection physical;
+    private final int maxSize;
+
+    // access-order map, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    public StatementCache(Connection physical, int maxSize) {
+        this.physical = physical;
+        this.maxSize = maxSize;
+    }
+
+    // owner = the pooled Connection proxy, returned from ps.getConnection()
+    public synchronized PreparedStatement prepare(Connection owner, String sql) throws SQLException {
+        if (maxSize <= 0) {
+            misses.incrementAndGet();
+            return oneOff(owner, sql);
+        }
+
+        Entry e = entries.get(sql);
+        if (e != null && !e.inUse) {
+            hits.incrementAndGet();
+        } else if (e != null) {
+            // same sql already open on this connection (nested use), give a one-off statement
+            misses.incrementAndGet();
+            return oneOff(owner, sql);
+        } else {
+            misses.incrementAndGet();
+            e = new Entry(physical.prepareStatement(sql), sql);
+            entries.put(sql, e);
+            evictIfFull();
+        }
+
+        e.inUse = true;
+        return (PreparedStatement) Proxy.newProxyInstance(
+            StatementCache.class.getClassLoader(), new Class<?>[] { PreparedStatement.class },
+            new Handle(e, owner));
+    }
+
+    // not cached, closing it really closes it
+    private PreparedStatement oneOff(Connection owner, String sql) throws SQLException {
+        PreparedStatement ps = physical.prepareStatement(sql);
+        return QueryMetrics.enabled() ? (PreparedStatement) QueryMetrics.wrap(ps, sql, owner) : ps;
+    }
+
+    private void evictIfFull() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() > maxSize && it.hasNext()) {
+            Entry old = it.next();
+            if (old.inUse) continue;
+            it.remove();
+            evictions.incrementAndGet();
+            ConnectionPool.closeQuietly(old.stmt);
+        }
+    }
+
+    // connection went back to the pool: anything the borrower forgot to close is closed now
+    public synchronized void reset() {
+        for (Entry e : entries.values()) {
+            if (e.inUse) e.giveBack();
+        }
+    }
+
+    // physical connection is being closed
+    public synchronized void closeAll() {
+        for (Entry e : entries.values()) {
+            ConnectionPool.closeQuietly(e.stmt);
+        }
+        entries.clear();
+    }
+
+    public static String stats() {
+        long h = hits.get();
+        long m = misses.get();
+        double rate = (h + m) == 0 ? 0 : 100.0 * h / (h + m);
+        return String.format("statements[hits=%d, misses=%d, hitRate=%.1f%%, evicted=%d]",
+                             h, m, rate, evictions.get());
+    }
+
+    private static class Entry {
+        final PreparedStatement stmt;
+        final QueryMetrics.Stat metrics;
+        final List<ResultSet> open = new ArrayList<>();
+        boolean inUse = false;
+        int generation = 0;     // bumped on every give back so stale handles can't touch it
+        // driver defaults, so one borrower's tuning doesn't carry over to the next
+        final int fetchSize;
+        final int maxRows;
+        final int queryTimeout;
+
+        Entry(PreparedStatement stmt, String sql) throws SQLException {
+            this.stmt = stmt;
+            this.metrics = QueryMetrics.stat(sql);
+            this.fetchSize = stmt.getFetchSize();
+            this.maxRows = stmt.getMaxRows();
+            this.queryTimeout = stmt.getQueryTimeout();
+        }
+
+        void giveBack() {
+            for (ResultSet rs : open) ConnectionPool.closeQuietly(rs);
+            open.clear();
+            try {
+                stmt.clearParameters();
+                stmt.clearBatch();
+                // max rows first, some drivers refuse a fetch size above it
+                stmt.setMaxRows(maxRows);
+                stmt.setFetchSize(fetchSize);
+                stmt.setQueryTimeout(queryTimeout);
+            } catch (SQLException ignored) {}
+            inUse = false;
+            generation++;
+        }
+    }
+
+    // handler behind the PreparedStatement proxy the caller sees
+    private class Handle implements InvocationHandler {
+        final Entry entry;
+        final Connection owner;
+        final int generation;
+
+        Handle(Entry entry, Connection owner) {
+            this.entry = entry;
+            this.owner = owner;
+            this.generation = entry.generation;
+        }
+
+        // closed by the caller, or taken back by reset() when the connection was returned
+        boolean isClosed() {
+            synchronized (StatementCache.this) {
+                return entry.generation != generation;
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+            String name = m.getName();
+
+            if (name.equals("close")) {
+                synchronized (StatementCache.this) {
+                    if (entry.generation == generation) entry.giveBack();
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) return isClosed();
+            if (name.equals("getConnection")) return owner;
+            if (name.equals("equals")) return proxy == args[0];
+            if (name.equals("hashCode")) return System.identityHashCode(proxy);
+
+            if (isClosed()) throw new SQLException("Statement already closed");
+
+            Object result;
+            if (QueryMetrics.enabled() && name.startsWith("execute")) {
+                result = QueryMetrics.execute(entry.metrics, entry.stmt, m, args);
+            } else {
+                try {
+                    result = m.invoke(entry.stmt, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+
+            // remember cursors so they are closed when the statement goes back to the cache
+            if (result instanceof ResultSet) {
+                synchronized (StatementCache.this) {
+                    entry.open.add((ResultSet) result);
+                }
+            }
+            return result;
+        }
+    }
+}
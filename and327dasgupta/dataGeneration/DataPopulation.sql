@@ -17,16 +17,16 @@ INSERT INTO BUSINESS VALUES (3);
 INSERT INTO BUSINESS VALUES (4);
 
 -- Catalog Items and Services
-INSERT INTO CATALOG VALUES (101, 'JBL', 'Wireless Headphones', 99.99, 1);
+INSERT INTO CATALOG (catalog_id, vendor, description, price, manager_id) VALUES (101, 'JBL', 'Wireless Headphones', 99.99, 1);
 INSERT INTO ITEM VALUES (101);
 
-INSERT INTO CATALOG VALUES (102, 'Apple', 'iPhone Screen Repair', 200.00, 2);
+INSERT INTO CATALOG (catalog_id, vendor, description, price, manager_id) VALUES (102, 'Apple', 'iPhone Screen Repair', 200.00, 2);
 INSERT INTO SERVICE VALUES (102, 14);
 
-INSERT INTO CATALOG VALUES (103, 'Samsung', 'Smart TV', 550.00, 1);
+INSERT INTO CATALOG (catalog_id, vendor, description, price, manager_id) VALUES (103, 'Samsung', 'Smart TV', 550.00, 1);
 INSERT INTO ITEM VALUES (103);
 
-INSERT INTO CATALOG VALUES (104, 'Lenovo', 'Laptop Cleaning', 75.00, 2);
+INSERT INTO CATALOG (catalog_id, vendor, description, price, manager_id) VALUES (104, 'Lenovo', 'Laptop Cleaning', 75.00, 2);
 INSERT INTO SERVICE VALUES (104, 7);
 
 -- Payment Plans
@@ -44,18 +44,23 @@ INSERT INTO INSTALLMENT VALUES (703, 18, 5.2, 1);
 -- Purchases
 
 -- Purchase 1: John buys Item via Credit Card
-INSERT INTO PURCHASE VALUES (1001, TO_DATE('2025-09-10', 'YYYY-MM-DD'), 0, 1);
+INSERT INTO PURCHASE VALUES (1001, TO_DATE('2025-09-10', 'YYYY-MM-DD'), 99.99, 1);
 INSERT INTO ITEM_PURCHASE VALUES (1001, 501, NULL); 
 INSERT INTO ITEM_CONTAINS VALUES (1001, 101, 1, 99.99);
 
 -- Purchase 2: Sarah buys Item via Installment
-INSERT INTO PURCHASE VALUES (1002, TO_DATE('2025-09-12', 'YYYY-MM-DD'), 0, 2);
+INSERT INTO PURCHASE VALUES (1002, TO_DATE('2025-09-12', 'YYYY-MM-DD'), 550.00, 2);
 INSERT INTO ITEM_PURCHASE VALUES (1002, NULL, 701); 
 INSERT INTO ITEM_CONTAINS VALUES (1002, 103, 1, 550.00);
 
 -- Purchase 3: Lutron buys Service via Bank Account
-INSERT INTO PURCHASE VALUES (1003, TO_DATE('2025-09-15', 'YYYY-MM-DD'), 0, 3);
+INSERT INTO PURCHASE VALUES (1003, TO_DATE('2025-09-15', 'YYYY-MM-DD'), 375.00, 3);
 INSERT INTO SERVICE_PURCHASE VALUES (1003, 601); 
 INSERT INTO SERVICE_CONTAINS VALUES (1003, 104, 5, 75.00);
 
+-- expense of the purchases above, folded into CUSTOMER.tot_expense by the app
+INSERT INTO EXPENSE_LEDGER (pur_id, customer_id, amount) VALUES (1001, 1, 99.99);
+INSERT INTO EXPENSE_LEDGER (pur_id, customer_id, amount) VALUES (1002, 2, 550.00);
+INSERT INTO EXPENSE_LEDGER (pur_id, customer_id, amount) VALUES (1003, 3, 375.00);
+
 COMMIT;
@@ -1,4 +1,10 @@
 -- DROP STATEMENTS
+DROP VIEW CUSTOMER_EXPENSE;
+DROP VIEW REVENUE_BY_ITEM;
+DROP VIEW PURCHASE_ACTIVITY_ALL;
+DROP TABLE PURCHASE_ACTIVITY CASCADE CONSTRAINTS;
+DROP TABLE REVENUE_ROLLUP CASCADE CONSTRAINTS;
+DROP TABLE EXPENSE_LEDGER CASCADE CONSTRAINTS;
 DROP TABLE SERVICE_CONTAINS CASCADE CONSTRAINTS;
 DROP TABLE ITEM_CONTAINS CASCADE CONSTRAINTS;
 DROP TABLE SERVICE_PURCHASE CASCADE CONSTRAINTS;
@@ -14,12 +20,16 @@ DROP TABLE BUSINESS CASCADE CONSTRAINTS;
 DROP TABLE INDIVIDUAL CASCADE CONSTRAINTS;
 DROP TABLE CUSTOMER CASCADE CONSTRAINTS;
 DROP TABLE MANAGER CASCADE CONSTRAINTS;
+DROP TABLE CATALOG_LOAD CASCADE CONSTRAINTS;
+DROP TABLE CHANGE_LOG CASCADE CONSTRAINTS;
 DROP SEQUENCE purchase_seq;
 DROP SEQUENCE catalog_seq;
 DROP SEQUENCE customer_seq;
 DROP SEQUENCE card_seq;
 DROP SEQUENCE bank_seq;
 DROP SEQUENCE install_seq;
+DROP SEQUENCE ledger_batch_seq;
+DROP SEQUENCE change_seq;
 
 -- Core Entities
 
@@ -57,6 +67,8 @@ CREATE TABLE CATALOG (
   description VARCHAR2(200),
   price       NUMBER(10,2)  NOT NULL CHECK (price >= 0),
   manager_id  NUMBER        NOT NULL,
+  -- bumped by every price change, updates check it (CatalogRepricer.java)
+  version     NUMBER        DEFAULT 0 NOT NULL,
   CONSTRAINT fk_cat_man FOREIGN KEY (manager_id) REFERENCES MANAGER(manager_id)
 );
 
@@ -156,41 +168,183 @@ CREATE TABLE SERVICE_CONTAINS (
   CONSTRAINT fk_sc_svc  FOREIGN KEY (catalog_id) REFERENCES SERVICE(catalog_id)
 );
 
+-- Bulk load bookkeeping (CatalogLoader.java)
+-- last line of each feed file that is committed, so a failed load can resume
+
+CREATE TABLE CATALOG_LOAD (
+  file_name  VARCHAR2(400) PRIMARY KEY,
+  last_line  NUMBER        NOT NULL,
+  loaded_at  DATE          NOT NULL
+);
+
+-- Expense ledger (ExpenseLedger.java)
+-- checkout inserts one row per purchase instead of the old triggers updating
+-- the CUSTOMER row per line (hot row lock). a background job folds the rows
+-- into CUSTOMER.tot_expense in batches: batch_id NULL = not claimed yet.
+
+CREATE TABLE EXPENSE_LEDGER (
+  pur_id      NUMBER       PRIMARY KEY,
+  customer_id NUMBER       NOT NULL,
+  amount      NUMBER(10,2) NOT NULL,
+  batch_id    NUMBER,
+  CONSTRAINT fk_el_pur  FOREIGN KEY (pur_id) REFERENCES PURCHASE(pur_id),
+  CONSTRAINT fk_el_cust FOREIGN KEY (customer_id) REFERENCES CUSTOMER(customer_id)
+);
+
+-- exact total expense: consolidated part + whatever is still pending
+CREATE OR REPLACE VIEW CUSTOMER_EXPENSE AS
+SELECT c.customer_id, c.name, c.tot_expense + NVL(l.pending, 0) AS tot_expense
+FROM CUSTOMER c
+LEFT JOIN (SELECT customer_id, SUM(amount) AS pending
+           FROM EXPENSE_LEDGER GROUP BY customer_id) l
+  ON c.customer_id = l.customer_id;
+
+-- Revenue rollup (RevenueRollup.java)
+-- revenue / units sold per catalog id, folded in by the same job that
+-- consolidates EXPENSE_LEDGER. rebuild from Manager > Verify / rebuild.
+
+CREATE TABLE REVENUE_ROLLUP (
+  catalog_id NUMBER       PRIMARY KEY,
+  revenue    NUMBER(14,2) DEFAULT 0 NOT NULL,
+  units      NUMBER       DEFAULT 0 NOT NULL,
+  CONSTRAINT fk_rr_cat FOREIGN KEY (catalog_id) REFERENCES CATALOG(catalog_id)
+);
+
+-- exact revenue: rollup + lines of purchases not consolidated yet
+CREATE OR REPLACE VIEW REVENUE_BY_ITEM AS
+SELECT catalog_id, SUM(revenue) AS revenue, SUM(units) AS units FROM (
+  SELECT catalog_id, revenue, units FROM REVENUE_ROLLUP
+  UNION ALL
+  SELECT ic.catalog_id, ic.quantity * ic.price_at_purchase, ic.quantity
+  FROM ITEM_CONTAINS ic JOIN EXPENSE_LEDGER l ON ic.pur_id = l.pur_id
+  UNION ALL
+  SELECT sc.catalog_id, sc.quantity * sc.price_at_purchase, sc.quantity
+  FROM SERVICE_CONTAINS sc JOIN EXPENSE_LEDGER l ON sc.pur_id = l.pur_id
+) GROUP BY catalog_id;
+
+-- Purchase activity (PurchaseActivity.java)
+-- purchase count + revenue per hour (H), day (D) and month (M) bucket,
+-- folded in by the same job. the report reads one grain and date range
+-- through the primary key instead of grouping all of PURCHASE.
+
+CREATE TABLE PURCHASE_ACTIVITY (
+  grain        CHAR(1)      NOT NULL CHECK (grain IN ('H', 'D', 'M')),
+  bucket_start DATE         NOT NULL,
+  purchases    NUMBER       DEFAULT 0 NOT NULL,
+  revenue      NUMBER(14,2) DEFAULT 0 NOT NULL,
+  CONSTRAINT pk_activity PRIMARY KEY (grain, bucket_start)
+);
+
+-- exact activity: buckets + purchases not consolidated yet
+CREATE OR REPLACE VIEW PURCHASE_ACTIVITY_ALL AS
+SELECT grain, bucket_start, SUM(purchases) AS purchases, SUM(revenue) AS revenue FROM (
+  SELECT grain, bucket_start, purchases, revenue FROM PURCHASE_ACTIVITY
+  UNION ALL
+  SELECT g.grain, TRUNC(p.purch_date, g.fmt), 1, NVL(p.total, 0)
+  FROM PURCHASE p JOIN EXPENSE_LEDGER l ON p.pur_id = l.pur_id
+  CROSS JOIN (SELECT 'H' AS grain, 'HH24' AS fmt FROM dual UNION ALL
+              SELECT 'D', 'DD' FROM dual UNION ALL
+              SELECT 'M', 'MM' FROM dual) g
+) GROUP BY grain, bucket_start;
+
+-- Change log (ChangeFeed.java)
+-- one row per changed CATALOG / ITEM / SERVICE / INSTALLMENT / PURCHASE row,
+-- written by the triggers below so scripts and other instances show up too.
+-- every instance tails it by change_id and refreshes just those rows in its
+-- caches. row_id is the table's key (catalog_id for ITEM / SERVICE),
+-- customer_id is only set for PURCHASE. op: I, U or D.
+
+CREATE TABLE CHANGE_LOG (
+  change_id   NUMBER       PRIMARY KEY,
+  table_name  VARCHAR2(30) NOT NULL,
+  row_id      NUMBER       NOT NULL,
+  customer_id NUMBER,
+  op          CHAR(1)      NOT NULL CHECK (op IN ('I', 'U', 'D')),
+  changed_at  DATE         DEFAULT SYSDATE NOT NULL
+);
+
 -- Indexes
 
 CREATE INDEX idx_catalog_desc ON CATALOG(LOWER(description));
-CREATE INDEX idx_purchase_cust ON PURCHASE(customer_id);
+-- purchase history pages (PurchaseHistory.java): newest first per customer,
+-- covers the whole page query so PURCHASE itself is never read.
+-- also serves plain customer_id lookups, so it replaces idx_purchase_cust
+CREATE INDEX idx_purchase_cust_date ON PURCHASE(customer_id, purch_date DESC, pur_id DESC, total);
 CREATE INDEX idx_purchase_date ON PURCHASE(purch_date);
+-- keyset paging of the catalog listings sorted by price / vendor (CatalogPager.java)
+CREATE INDEX idx_catalog_price  ON CATALOG(price, catalog_id);
+CREATE INDEX idx_catalog_vendor ON CATALOG(vendor, catalog_id);
+CREATE INDEX idx_ledger_cust    ON EXPENSE_LEDGER(customer_id);
+-- lines of a history page by pur_id without going to the tables
+CREATE INDEX idx_item_con_cover ON ITEM_CONTAINS(pur_id, catalog_id, quantity, price_at_purchase);
+CREATE INDEX idx_svc_con_cover  ON SERVICE_CONTAINS(pur_id, catalog_id, quantity, price_at_purchase);
 
 -- Sequences
+-- INCREMENT BY 50 so the app (IdAllocator.java) reserves 50 ids per NEXTVAL
+-- and hands them out from memory. keep in sync with lushop.ids.blockSize.
+-- START WITH only has to clear DataPopulation.sql: on startup IdAllocator.align
+-- moves a sequence past MAX(id) of its table if older rows are above it.
 
-CREATE SEQUENCE purchase_seq START WITH 2000;
-CREATE SEQUENCE catalog_seq  START WITH 200;
-CREATE SEQUENCE customer_seq START WITH 100;
+CREATE SEQUENCE purchase_seq START WITH 2000 INCREMENT BY 50;
+CREATE SEQUENCE catalog_seq  START WITH 200  INCREMENT BY 50;
+CREATE SEQUENCE customer_seq START WITH 100  INCREMENT BY 50;
 
-CREATE SEQUENCE card_seq     START WITH 600;
-CREATE SEQUENCE bank_seq     START WITH 700;
-CREATE SEQUENCE install_seq  START WITH 800;
+CREATE SEQUENCE card_seq     START WITH 600  INCREMENT BY 50;
+CREATE SEQUENCE bank_seq     START WITH 700  INCREMENT BY 50;
+CREATE SEQUENCE install_seq  START WITH 800  INCREMENT BY 50;
+CREATE SEQUENCE ledger_batch_seq START WITH 1 INCREMENT BY 50;
+-- not through IdAllocator: the feed reads change_id in order, so ids must
+-- follow the order rows are written in (gaps are fine)
+CREATE SEQUENCE change_seq START WITH 1 INCREMENT BY 1 CACHE 100;
 
 -- Triggers
+-- change log, one row per changed row (see CHANGE_LOG above).
+-- the old update_exp_item / update_exp_svc are gone, they updated the CUSTOMER
+-- row once per purchased line and made concurrent purchases queue on it. total
+-- expense is kept through EXPENSE_LEDGER + CUSTOMER_EXPENSE now. an old schema
+-- loses them with ITEM_CONTAINS / SERVICE_CONTAINS in the DROP block at the top.
+CREATE OR REPLACE TRIGGER log_catalog
+AFTER INSERT OR UPDATE OR DELETE ON CATALOG FOR EACH ROW
+BEGIN
+  INSERT INTO CHANGE_LOG (change_id, table_name, row_id, customer_id, op)
+  VALUES (change_seq.NEXTVAL, 'CATALOG', NVL(:NEW.catalog_id, :OLD.catalog_id), NULL,
+          CASE WHEN INSERTING THEN 'I' WHEN UPDATING THEN 'U' ELSE 'D' END);
+END;
+/
+
+CREATE OR REPLACE TRIGGER log_item
+AFTER INSERT OR UPDATE OR DELETE ON ITEM FOR EACH ROW
+BEGIN
+  INSERT INTO CHANGE_LOG (change_id, table_name, row_id, customer_id, op)
+  VALUES (change_seq.NEXTVAL, 'ITEM', NVL(:NEW.catalog_id, :OLD.catalog_id), NULL,
+          CASE WHEN INSERTING THEN 'I' WHEN UPDATING THEN 'U' ELSE 'D' END);
+END;
+/
+
+CREATE OR REPLACE TRIGGER log_service
+AFTER INSERT OR UPDATE OR DELETE ON SERVICE FOR EACH ROW
+BEGIN
+  INSERT INTO CHANGE_LOG (change_id, table_name, row_id, customer_id, op)
+  VALUES (change_seq.NEXTVAL, 'SERVICE', NVL(:NEW.catalog_id, :OLD.catalog_id), NULL,
+          CASE WHEN INSERTING THEN 'I' WHEN UPDATING THEN 'U' ELSE 'D' END);
+END;
+/
 
-CREATE OR REPLACE TRIGGER update_exp_item
-AFTER INSERT ON ITEM_CONTAINS
-FOR EACH ROW
+CREATE OR REPLACE TRIGGER log_installment
+AFTER INSERT OR UPDATE OR DELETE ON INSTALLMENT FOR EACH ROW
 BEGIN
-    UPDATE CUSTOMER
-    SET tot_expense = tot_expense + (:NEW.quantity * :NEW.price_at_purchase)
-    WHERE customer_id = (SELECT customer_id FROM PURCHASE WHERE pur_id = :NEW.pur_id);
+  INSERT INTO CHANGE_LOG (change_id, table_name, row_id, customer_id, op)
+  VALUES (change_seq.NEXTVAL, 'INSTALLMENT', NVL(:NEW.install_id, :OLD.install_id), NULL,
+          CASE WHEN INSERTING THEN 'I' WHEN UPDATING THEN 'U' ELSE 'D' END);
 END;
 /
 
-CREATE OR REPLACE TRIGGER update_exp_svc
-AFTER INSERT ON SERVICE_CONTAINS
-FOR EACH ROW
+CREATE OR REPLACE TRIGGER log_purchase
+AFTER INSERT OR UPDATE OR DELETE ON PURCHASE FOR EACH ROW
 BEGIN
-    UPDATE CUSTOMER
-    SET tot_expense = tot_expense + (:NEW.quantity * :NEW.price_at_purchase)
-    WHERE customer_id = (SELECT customer_id FROM PURCHASE WHERE pur_id = :NEW.pur_id);
+  INSERT INTO CHANGE_LOG (change_id, table_name, row_id, customer_id, op)
+  VALUES (change_seq.NEXTVAL, 'PURCHASE', NVL(:NEW.pur_id, :OLD.pur_id), NVL(:NEW.customer_id, :OLD.customer_id),
+          CASE WHEN INSERTING THEN 'I' WHEN UPDATING THEN 'U' ELSE 'D' END);
 END;
 /
 
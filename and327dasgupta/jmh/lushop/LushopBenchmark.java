@@ -0,0 +1,63 @@
+package lushop;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * the Bench benchmarks under jmh: one trial per @Param value, each in its own
+ * forked jvm with warmup iterations first. the database comes from DbConfig
+ * like everything else, pass the settings to the forks with -jvmArgs:
+ *
+ *   mvn -P jmh package
+ *   java -cp target/benchmarks.jar:ojdbc11.jar org.openjdk.jmh.Main \
+ *        -jvmArgs "-Dlushop.db.url=... -Dlushop.db.user=... -Dlushop.db.password=... \
+ *                  -Dlushop.bench.schema=dataGeneration/RelationalSchema.sql" \
+ *        -rf json -rff results.json
+ *
+ * every fork loads the schema (if lushop.bench.schema is set) and seeds, so
+ * use a scratch schema. -p op=search,listing runs only some of them.
+ *
+ * without lushop.db.url every fork gets its own in-memory H2 db with the
+ * schema loaded (h2 is in benchmarks.jar), for a quick run:
+ *
+ *   java -jar target/benchmarks.jar
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LushopBenchmark {
+
+    @Param({ "purchase", "search", "listing",
+             "report.spending", "report.revenue", "report.activity",
+             "analytics.revenue", "analytics.activity",
+             "plans.quotes", "plans.exposure" })
+    public String op;
+
+    private AutoCloseable fixture;
+    private Callable<Object> run;
+
+    // Bench is in the default package, see Bench.Fixture
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        Object f = Class.forName("Bench").getMethod("fixture").invoke(null);
+        fixture = (AutoCloseable) f;
+        run = ((Function<String, Callable<Object>>) f).apply(op);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (fixture != null) fixture.close();
+    }
+
+    @Benchmark
+    public Object run() throws Exception {
+        return run.call();
+    }
+}
@@ -0,0 +1,109 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AmortizationTest {
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void open() throws Exception {
+        pool = TestDb.open(true);
+        // seed plans are 701 (6 months, 4.5%), 702 (12, 3.9%) and 703 (18, 5.2%), plus an interest free one
+        TestDb.update(pool, "INSERT INTO INSTALLMENT VALUES (704, 3, 0, 1)");
+        RefDataCache.invalidatePlans();
+    }
+
+    @AfterEach
+    void close() {
+        pool.close();
+    }
+
+    private static double cents(double v) {
+        return Math.round(v * 100) / 100.0;
+    }
+
+    // the textbook annuity payment, worked out separately from the per-dollar tables
+    private static double annuity(double amount, int terms, double yearly) {
+        double r = yearly / 1200.0;
+        return cents(amount * r / (1 - Math.pow(1 + r, -terms)));
+    }
+
+    @Test
+    void quotesEveryPlanInIdOrder() throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        for (Amortization.Quote q : Amortization.quotes(pool, 1000)) ids.add(q.plan.id);
+        assertEquals(List.of(701, 702, 703, 704), ids);
+
+        Amortization.Quote q = Amortization.quote(pool, 702, 1000);
+        assertEquals(annuity(1000, 12, 3.9), q.monthly, 0.001);
+        assertEquals(cents(q.monthly * 11 + q.last), q.totalPaid, 0.001);
+        assertEquals(cents(q.totalPaid - 1000), q.totalInterest, 0.001);
+        assertTrue(q.totalInterest > 0);
+        assertEquals(q.monthly, q.last, 0.01 * 12);     // a rounded monthly is off by under a cent a month
+
+        assertNull(Amortization.quote(pool, 799, 1000));
+        assertTrue(Amortization.schedule(pool, 799, 1000).isEmpty());
+    }
+
+    @Test
+    void interestFreePlanSplitsTheAmount() throws Exception {
+        Amortization.Quote q = Amortization.quote(pool, 704, 100);
+        assertEquals(33.33, q.monthly, 0.001);
+        assertEquals(33.34, q.last, 0.001);         // the last payment takes the rounding
+        assertEquals(100.0, q.totalPaid, 0.001);
+        assertEquals(0.0, q.totalInterest, 0.001);
+
+        List<Amortization.Payment> s = Amortization.schedule(pool, 704, 100);
+        assertEquals(3, s.size());
+        for (Amortization.Payment p : s) assertEquals(0.0, p.interest, 0.001);
+        assertEquals(33.34, s.get(2).payment, 0.001);
+    }
+
+    @Test
+    void schedulePaysOffTheAmount() throws Exception {
+        for (int plan : new int[] { 701, 702, 703 }) {
+            Amortization.Quote q = Amortization.quote(pool, plan, 2499.99);
+            List<Amortization.Payment> s = Amortization.schedule(pool, plan, 2499.99);
+            assertEquals(q.plan.terms, s.size());
+
+            double left = 2499.99, paid = 0, principal = 0;
+            for (Amortization.Payment p : s) {
+                assertEquals(cents(p.interest + p.principal), p.payment, 0.001);
+                left = cents(left - p.principal);
+                assertEquals(left, p.balance, 0.001);
+                if (p.month < s.size()) assertEquals(q.monthly, p.payment, 0.001);
+                paid += p.payment;
+                principal += p.principal;
+            }
+            assertEquals(0.0, s.get(s.size() - 1).balance, 0.001);
+            assertEquals(2499.99, cents(principal), 0.001);
+            // closed form vs month by month, interest rounding adds up to half a cent a month
+            double slack = 0.005 * s.size() + 0.001;
+            assertEquals(q.totalPaid, cents(paid), slack);
+            assertEquals(q.last, s.get(s.size() - 1).payment, slack);
+        }
+    }
+
+    @Test
+    void projectionFollowsTheBalance() throws Exception {
+        // financed this month: nothing paid yet, first payment next month
+        TestDb.update(pool, "INSERT INTO PURCHASE VALUES (1095, SYSDATE, 1000, 1)");
+        TestDb.update(pool, "INSERT INTO ITEM_PURCHASE VALUES (1095, NULL, 702)");
+
+        Amortization.Projection p = Amortization.project(pool, 0);
+        Amortization.Quote q = Amortization.quote(pool, 702, 1000);
+        assertEquals(1000.0, p.byPlan.get(702), 0.001);
+        assertEquals(1000.0, p.outstanding[0], 0.001);
+        assertEquals(0.0, p.due[0], 0.001);
+        assertEquals(q.monthly, p.due[1], 0.01);
+        assertEquals(0.0, p.outstanding[12], 0.001);
+        // the seed purchase on plan 701 (september 2025) is long paid off
+        assertEquals(0.0, p.byPlan.get(701), 0.001);
+    }
+}
@@ -0,0 +1,130 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AnalyticsEngineTest {
+
+    static {
+        // every query runs the delta, so only a reload can explain a missing purchase
+        System.setProperty("lushop.analytics.refreshMs", "0");
+    }
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void open() throws Exception {
+        System.setProperty("lushop.reports.schedule", "off");
+        pool = TestDb.open(true);
+        AnalyticsEngine.invalidate();
+    }
+
+    @AfterEach
+    void close() {
+        System.clearProperty("lushop.reports.schedule");
+        pool.close();
+    }
+
+    private List<String> sql(String sql) throws Exception {
+        List<String> out = new ArrayList<>();
+        try (Connection conn = pool.getConnection();
+             Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            while (rs.next()) out.add(rs.getString(1) + "=" + rs.getDouble(2));
+        }
+        return out;
+    }
+
+    private static List<String> rows(List<ReportScheduler.Total> totals) {
+        List<String> out = new ArrayList<>();
+        for (ReportScheduler.Total t : totals) out.add(t.name + "=" + t.amount);
+        return out;
+    }
+
+    @Test
+    void scheduledSpendingIsTheSqlReport() throws Exception {
+        List<String> expected = List.of("Sarah Ali=550.0", "Lutron=375.0", "John Dine=99.99", "PPL=0.0");
+        assertEquals(expected, sql(Manager.SPENDING_SQL));
+        try (ReportScheduler reports = new ReportScheduler(pool)) {
+            assertEquals(expected, rows(reports.get(reports.spending).value));
+        }
+
+        // purchases stored with total 0 (before the backfill) don't change spending, it is the ledger
+        TestDb.update(pool, "UPDATE PURCHASE SET total = 0");
+        AnalyticsEngine.invalidate();
+        try (ReportScheduler reports = new ReportScheduler(pool)) {
+            assertEquals(expected, rows(reports.get(reports.spending).value));
+        }
+    }
+
+    @Test
+    void inMemoryRevenueMatchesTheSqlReport() throws Exception {
+        List<String> expected = sql(Manager.REVENUE_SQL);
+        assertEquals(List.of("Smart TV=550.0", "Laptop Cleaning=375.0", "Wireless Headphones=99.99"), expected);
+        assertEquals(expected, rows(AnalyticsEngine.revenue(pool)));
+        try (ReportScheduler reports = new ReportScheduler(pool)) {
+            assertEquals(expected, rows(reports.get(reports.revenue).value));
+        }
+    }
+
+    private static long stat(String name) {
+        Matcher m = Pattern.compile(name + "=(\\d+)").matcher(AnalyticsEngine.stats());
+        assertTrue(m.find());
+        return Long.parseLong(m.group(1));
+    }
+
+    private long purchases() throws Exception {
+        long n = 0;
+        for (AnalyticsEngine.Row r : AnalyticsEngine.purchases(pool, AnalyticsEngine.Group.CUSTOMER, null)) n += r.count;
+        return n;
+    }
+
+    private static List<ChangeFeed.Event> inserted(int purId) {
+        return List.of(new ChangeFeed.Event(1, ChangeFeed.Table.PURCHASE, purId, 1, ChangeFeed.Op.INSERT));
+    }
+
+    @Test
+    void backdatedInsertReloads() throws Exception {
+        long before = purchases();
+        long loads = stat("fullLoads");
+        long backdated = stat("backdated");
+
+        // older than anything loaded, the delta only looks after the newest purchase
+        TestDb.update(pool, "INSERT INTO PURCHASE VALUES (1090, DATE '2020-01-01', 40, 1)");
+        assertEquals(before, purchases());
+
+        AnalyticsEngine.changed(pool, inserted(1090));
+        assertEquals(before + 1, purchases());
+        assertEquals(loads + 1, stat("fullLoads"));
+        assertEquals(backdated + 1, stat("backdated"));
+    }
+
+    @Test
+    void newInsertComesThroughTheDelta() throws Exception {
+        long before = purchases();
+        long loads = stat("fullLoads");
+        long backdated = stat("backdated");
+
+        TestDb.update(pool, "INSERT INTO PURCHASE VALUES (1091, SYSDATE, 40, 1)");
+        AnalyticsEngine.changed(pool, inserted(1091));
+        assertEquals(before + 1, purchases());
+        assertEquals(loads, stat("fullLoads"));
+        assertEquals(backdated, stat("backdated"));
+
+        // anything but an insert reloads
+        TestDb.update(pool, "UPDATE PURCHASE SET total = 45 WHERE pur_id = 1091");
+        AnalyticsEngine.changed(pool, List.of(
+            new ChangeFeed.Event(2, ChangeFeed.Table.PURCHASE, 1091, 1, ChangeFeed.Op.UPDATE)));
+        purchases();
+        assertEquals(loads + 1, stat("fullLoads"));
+    }
+}
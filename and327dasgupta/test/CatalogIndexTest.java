@@ -0,0 +1,126 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class CatalogIndexTest {
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void open() throws Exception {
+        pool = TestDb.open(true);
+        CatalogIndex.invalidate();
+    }
+
+    @AfterEach
+    void close() {
+        pool.close();
+    }
+
+    private static long builds() {
+        Matcher m = Pattern.compile("builds=(\\d+)").matcher(CatalogIndex.stats());
+        assertTrue(m.find());
+        return Long.parseLong(m.group(1));
+    }
+
+    private static List<Integer> ids(List<CatalogIndex.Hit> hits) {
+        List<Integer> out = new ArrayList<>();
+        for (CatalogIndex.Hit h : hits) out.add(h.entry.id);
+        return out;
+    }
+
+    @Test
+    void searchesTheSeedCatalog() throws Exception {
+        assertEquals(List.of(101), ids(CatalogIndex.search(pool, "head", 10)));
+        assertEquals(List.of(103, 104), ids(CatalogIndex.search(pool, "tv OR laptop", 10)));
+        assertTrue(CatalogIndex.search(pool, "tv laptop", 10).isEmpty());
+    }
+
+    @Test
+    void replacedEntriesDontDiluteRareWords() throws Exception {
+        double before = CatalogIndex.search(pool, "smart", 10).get(0).score;
+
+        // the same entry saved 50 times leaves 50 dead postings for its words
+        RefDataCache.CatalogEntry tv = CatalogIndex.search(pool, "smart", 10).get(0).entry;
+        for (int i = 0; i < 50; i++) CatalogIndex.add(tv);
+        assertEquals(before, CatalogIndex.search(pool, "smart", 10).get(0).score, 1e-9);
+
+        CatalogIndex.remove(tv.id);
+        assertTrue(CatalogIndex.search(pool, "smart", 10).isEmpty());
+    }
+
+    @Test
+    void concurrentFirstSearchesLoadOnce() throws Exception {
+        long before = builds();
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch go = new CountDownLatch(1);
+            List<Future<List<CatalogIndex.Hit>>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(threads.submit(() -> {
+                    go.await();
+                    return CatalogIndex.search(pool, "smart", 10);
+                }));
+            }
+            go.countDown();
+            for (Future<List<CatalogIndex.Hit>> f : results) assertEquals(List.of(103), ids(f.get()));
+        } finally {
+            threads.shutdownNow();
+        }
+        assertEquals(before + 1, builds());
+    }
+
+    @Test
+    void addDuringTheLoadIsNotLost() throws Exception {
+        // hold every connection so the build blocks while loading
+        List<Connection> held = new ArrayList<>();
+        for (int i = 0; i < 4; i++) held.add(pool.getConnection());
+
+        ExecutorService thread = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<CatalogIndex.Hit>> first = thread.submit(() -> CatalogIndex.search(pool, "smart", 10));
+            while (!CatalogIndex.stats().contains("building=true")) Thread.sleep(1);
+
+            // a manager adds an entry the load won't see
+            CatalogIndex.add(new RefDataCache.CatalogEntry(9999, "Acme", "Zephyr Blender", 49.5, true, false, 0));
+            for (Connection c : held) c.close();
+
+            assertEquals(List.of(103), ids(first.get()));
+        } finally {
+            thread.shutdownNow();
+        }
+        assertEquals(List.of(9999), ids(CatalogIndex.search(pool, "zephyr", 10)));
+    }
+
+    @Test
+    void priceChangeDuringTheLoadIsReplayed() throws Exception {
+        CatalogIndex.search(pool, "smart", 10);
+        CatalogIndex.invalidate();
+
+        List<Connection> held = new ArrayList<>();
+        for (int i = 0; i < 4; i++) held.add(pool.getConnection());
+        ExecutorService thread = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> rebuild = thread.submit(() -> CatalogIndex.search(pool, "smart", 10));
+            while (!CatalogIndex.stats().contains("building=true")) Thread.sleep(1);
+            CatalogIndex.updatePrice(103, 499.0);
+            for (Connection c : held) c.close();
+            rebuild.get();
+        } finally {
+            thread.shutdownNow();
+        }
+        assertEquals(499.0, CatalogIndex.search(pool, "smart", 10).get(0).entry.price);
+    }
+}
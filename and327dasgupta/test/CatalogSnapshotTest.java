@@ -0,0 +1,100 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CatalogSnapshotTest {
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void open() throws Exception {
+        pool = TestDb.open(true);
+    }
+
+    @AfterEach
+    void close() {
+        System.clearProperty("lushop.snapshot.file");
+        System.clearProperty("lushop.snapshot.revalidateMs");
+        pool.close();
+    }
+
+    @Test
+    void offAndBlankMeanNoSnapshot() throws Exception {
+        for (String off : new String[] { "", "off", "none" }) {
+            System.setProperty("lushop.snapshot.file", off);
+            try (CatalogSnapshot s = new CatalogSnapshot(pool)) {
+                Thread.sleep(200);
+                assertNull(CatalogSnapshot.current(), "'" + off + "'");
+                assertTrue(CatalogSnapshot.stats().startsWith("snapshot[none"), CatalogSnapshot.stats());
+            }
+            if (!off.isEmpty()) assertFalse(Files.exists(Paths.get(off)), "wrote a file named " + off);
+        }
+    }
+
+    private static List<String> files(Path dir) throws Exception {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.map(p -> p.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static void awaitSnapshot() throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (CatalogSnapshot.current() == null && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        assertNotNull(CatalogSnapshot.current(), CatalogSnapshot.stats());
+    }
+
+    private static double price(int id) {
+        for (RefDataCache.CatalogEntry e : CatalogSnapshot.current().all()) {
+            if (e.id == id) return e.price;
+        }
+        return fail("no catalog id " + id);
+    }
+
+    @Test
+    void writesAndServesTheCatalog(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("catalog.snap");
+        System.setProperty("lushop.snapshot.file", file.toString());
+        try (CatalogSnapshot s = new CatalogSnapshot(pool)) {
+            awaitSnapshot();
+            assertEquals(4, CatalogSnapshot.current().all().size());
+            List<String> written = files(dir);
+            assertEquals(1, written.size());
+            assertTrue(written.get(0).matches("catalog\\.snap\\.\\d+-" + ProcessHandle.current().pid()), written.get(0));
+        }
+    }
+
+    @Test
+    void changeIsRebuiltIntoANewFile(@TempDir Path dir) throws Exception {
+        System.setProperty("lushop.snapshot.file", dir.resolve("catalog.snap").toString());
+        System.setProperty("lushop.snapshot.revalidateMs", "3600000");     // only the check at start runs by itself
+        double before;
+        try (CatalogSnapshot s = new CatalogSnapshot(pool)) {
+            awaitSnapshot();
+            List<String> first = files(dir);
+            before = price(104);
+
+            TestDb.update(pool, "UPDATE CATALOG SET price = price + 1 WHERE catalog_id = 104");
+            s.revalidate();
+            List<String> second = files(dir);
+            assertEquals(1, second.size(), "old build not removed: " + second);
+            assertNotEquals(first, second);
+            assertEquals(before + 1, price(104), 0.001);
+        }
+
+        // a restart maps the newest build before asking the database anything
+        try (CatalogSnapshot s = new CatalogSnapshot(pool)) {
+            assertNotNull(CatalogSnapshot.current(), CatalogSnapshot.stats());
+            assertEquals(before + 1, price(104), 0.001);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ChangeFeedTest {
+
+    private ConnectionPool pool;
+    private ChangeFeed feed;
+    // change ids of every published event, in order
+    private final List<Long> seen = new ArrayList<>();
+
+    @BeforeEach
+    void open() throws Exception {
+        System.setProperty("lushop.changes.pollMs", "0");      // no poller thread, the tests call poll()
+        pool = TestDb.open(false);
+    }
+
+    @AfterEach
+    void close() {
+        if (feed != null) feed.close();
+        pool.close();
+        System.clearProperty("lushop.changes.pollMs");
+        System.clearProperty("lushop.changes.gapMs");
+    }
+
+    private void start(long gapMs) throws Exception {
+        System.setProperty("lushop.changes.gapMs", String.valueOf(gapMs));
+        feed = new ChangeFeed(pool);
+        feed.subscribe(events -> {
+            for (ChangeFeed.Event e : events) seen.add(e.id);
+        });
+        feed.poll();    // first poll only finds where the log ends
+    }
+
+    // what a trigger writes, committed whenever the test says
+    private void log(long id, String table, String op) throws Exception {
+        TestDb.update(pool, "INSERT INTO CHANGE_LOG (change_id, table_name, row_id, customer_id, op) VALUES (?, ?, ?, ?, ?)",
+                      id, table, 100 + id, 1, op);
+    }
+
+    private static long stat(String name) {
+        Matcher m = Pattern.compile(name + "=(\\d+)").matcher(ChangeFeed.stats());
+        assertTrue(m.find());
+        return Long.parseLong(m.group(1));
+    }
+
+    @Test
+    void startsAfterWhatIsAlreadyLogged() throws Exception {
+        log(1, "CATALOG", "I");
+        start(60_000);
+        feed.poll();
+        assertEquals(List.of(), seen);
+
+        log(2, "PURCHASE", "U");
+        feed.poll();
+        assertEquals(List.of(2L), seen);
+    }
+
+    @Test
+    void lateCommitFillsItsGapOnce() throws Exception {
+        start(60_000);
+        long filled = stat("gapsFilled");
+
+        // 2 committed after 3, the feed must go back for it
+        log(1, "CATALOG", "I");
+        log(3, "PURCHASE", "I");
+        feed.poll();
+        assertEquals(List.of(1L, 3L), seen);
+
+        log(2, "ITEM", "U");
+        feed.poll();
+        assertEquals(List.of(1L, 3L, 2L), seen);
+        assertEquals(filled + 1, stat("gapsFilled"));
+
+        // nothing new, nothing published twice
+        feed.poll();
+        assertEquals(List.of(1L, 3L, 2L), seen);
+    }
+
+    @Test
+    void oldGapIsGivenUp() throws Exception {
+        start(0);
+        long dropped = stat("gapsDropped");
+
+        log(1, "CATALOG", "I");
+        log(3, "CATALOG", "D");
+        feed.poll();
+        Thread.sleep(5);
+        feed.poll();        // gap 2 is older than gapMs now
+        assertEquals(dropped + 1, stat("gapsDropped"));
+
+        // a rolled back id never shows up, and if it did it is too late
+        log(2, "CATALOG", "U");
+        feed.poll();
+        assertEquals(List.of(1L, 3L), seen);
+    }
+
+    @Test
+    void unknownTablesAreSkipped() throws Exception {
+        start(60_000);
+        log(1, "SOMETHING_NEWER", "I");
+        log(2, "INSTALLMENT", "D");
+        feed.poll();
+        assertEquals(List.of(2L), seen);
+    }
+}
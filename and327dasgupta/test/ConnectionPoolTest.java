@@ -0,0 +1,65 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ConnectionPoolTest {
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void open() throws SQLException {
+        pool = new ConnectionPool("jdbc:h2:mem:pool", "sa", "", 0, 2, 60_000, 1000, 0, 2);
+    }
+
+    @AfterEach
+    void close() {
+        pool.close();
+    }
+
+    @Test
+    void closingFromManyThreadsReturnsTheConnectionOnce() throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < 200; round++) {
+                Connection c = pool.getConnection();
+                CountDownLatch go = new CountDownLatch(1);
+                CountDownLatch done = new CountDownLatch(8);
+                for (int t = 0; t < 8; t++) {
+                    threads.execute(() -> {
+                        try {
+                            go.await();
+                            c.close();
+                        } catch (Exception ignored) {
+                        } finally {
+                            done.countDown();
+                        }
+                    });
+                }
+                go.countDown();
+                assertTrue(done.await(5, TimeUnit.SECONDS));
+                // two releases would put the same physical connection in the idle list twice
+                assertTrue(pool.stats().startsWith("pool[total=1, idle=1, inUse=0"), pool.stats());
+            }
+        } finally {
+            threads.shutdownNow();
+            threads.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void returnedProxyCannotBeUsed() throws SQLException {
+        Connection c = pool.getConnection();
+        c.close();
+        assertTrue(c.isClosed());
+        assertThrows(SQLException.class, c::createStatement);
+    }
+}
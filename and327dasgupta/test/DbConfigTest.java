@@ -0,0 +1,41 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class DbConfigTest {
+
+    @AfterEach
+    void clear() {
+        System.clearProperty("lushop.test.value");
+    }
+
+    @Test
+    void unsetGivesTheDefault() {
+        assertEquals("def", DbConfig.get("lushop.test.value", "def"));
+        assertEquals(7, DbConfig.getInt("lushop.test.value", 7));
+    }
+
+    @Test
+    void setButBlankIsBlank() {
+        System.setProperty("lushop.test.value", "   ");
+        assertEquals("", DbConfig.get("lushop.test.value", "def"));
+    }
+
+    @Test
+    void blankNumbersAndFlagsAreTheDefault() {
+        System.setProperty("lushop.test.value", "");
+        assertEquals(7, DbConfig.getInt("lushop.test.value", 7));
+        assertEquals(7L, DbConfig.getLong("lushop.test.value", 7L));
+        assertEquals(1.5, DbConfig.getDouble("lushop.test.value", 1.5));
+        assertTrue(DbConfig.getBoolean("lushop.test.value", true));
+    }
+
+    @Test
+    void offSwitches() {
+        assertTrue(DbConfig.isOff(""));
+        assertTrue(DbConfig.isOff(" off "));
+        assertTrue(DbConfig.isOff("None"));
+        assertFalse(DbConfig.isOff("*/5 * * * *"));
+    }
+}
@@ -0,0 +1,134 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ExpenseLedgerTest {
+
+    // what the spending report reads: tot_expense + whatever is still in the ledger
+    private static final String SPENDING_SQL =
+        "SELECT name, tot_expense FROM CUSTOMER_EXPENSE ORDER BY tot_expense DESC, customer_id";
+
+    private static final String REVENUE_SQL =
+        "SELECT catalog_id, revenue FROM REVENUE_BY_ITEM ORDER BY catalog_id";
+
+    // the seed ledger holds the three sample purchases, CUSTOMER.tot_expense is still 0
+    private static final List<String> SPENDING =
+        List.of("Sarah Ali=550.0", "Lutron=375.0", "John Dine=99.99", "PPL=0.0");
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void open() throws Exception {
+        pool = TestDb.open(true);
+    }
+
+    @AfterEach
+    void close() {
+        System.clearProperty("lushop.expense.batchRows");
+        pool.close();
+    }
+
+    private List<String> sql(String sql) throws Exception {
+        List<String> out = new ArrayList<>();
+        try (Connection conn = pool.getConnection();
+             Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            while (rs.next()) out.add(rs.getString(1) + "=" + rs.getDouble(2));
+        }
+        return out;
+    }
+
+    private List<String> stored() throws Exception {
+        return sql("SELECT name, tot_expense FROM CUSTOMER ORDER BY tot_expense DESC, customer_id");
+    }
+
+    private List<String> ledger() throws Exception {
+        return sql("SELECT pur_id, NVL(batch_id, 0) FROM EXPENSE_LEDGER ORDER BY pur_id");
+    }
+
+    private static List<String> activity(ConnectionPool pool) throws Exception {
+        List<String> out = new ArrayList<>();
+        for (PurchaseActivity.Bucket b : PurchaseActivity.range(pool, PurchaseActivity.Grain.DAY,
+                                                                LocalDate.of(2025, 9, 1), LocalDate.of(2025, 9, 30))) {
+            out.add(b.start.toLocalDateTime().toLocalDate() + " " + b.purchases + "=" + b.revenue);
+        }
+        return out;
+    }
+
+    private static long stat(String name) {
+        Matcher m = Pattern.compile(name + "=(\\d+)").matcher(ExpenseLedger.stats());
+        assertTrue(m.find());
+        return Long.parseLong(m.group(1));
+    }
+
+    // a checkout: the purchase and its ledger row in one transaction
+    private void buy(int purId, int customerId, double amount) throws Exception {
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            Jdbc.update(conn, "INSERT INTO PURCHASE VALUES (?, SYSDATE, ?, ?)", purId, amount, customerId);
+            ExpenseLedger.record(conn, purId, customerId, amount);
+            conn.commit();
+        }
+    }
+
+    @Test
+    void consolidateFoldsTheLedgerIntoCustomer() throws Exception {
+        assertEquals(SPENDING, sql(SPENDING_SQL));
+        List<String> revenue = sql(REVENUE_SQL);
+        List<String> days = List.of("2025-09-10 1=99.99", "2025-09-12 1=550.0", "2025-09-15 1=375.0");
+        assertEquals(days, activity(pool));
+        assertEquals(List.of(), sql("SELECT catalog_id, revenue FROM REVENUE_ROLLUP"));
+
+        assertEquals(3, ExpenseLedger.consolidate(pool));
+        assertEquals(List.of(), ledger());
+        assertEquals(SPENDING, stored());
+        // the views read the same before and after, the lines now come from the rollup
+        assertEquals(SPENDING, sql(SPENDING_SQL));
+        assertEquals(revenue, sql(REVENUE_SQL));
+        assertEquals(revenue, sql("SELECT catalog_id, revenue FROM REVENUE_ROLLUP ORDER BY catalog_id"));
+        assertEquals(days, activity(pool));
+        assertEquals(List.of("D=3.0", "H=3.0", "M=3.0"),
+                     sql("SELECT grain, SUM(purchases) FROM PURCHASE_ACTIVITY GROUP BY grain ORDER BY grain"));
+
+        assertEquals(0, ExpenseLedger.consolidate(pool));
+        assertEquals(SPENDING, stored());
+    }
+
+    @Test
+    void pendingExpenseShowsRightAway() throws Exception {
+        buy(1096, 4, 20);
+        buy(1097, 1, 0.01);
+        assertEquals(List.of("Sarah Ali=550.0", "Lutron=375.0", "John Dine=100.0", "PPL=20.0"),
+                     sql(SPENDING_SQL));
+
+        // small batches: 5 rows in 3 transactions, same result
+        System.setProperty("lushop.expense.batchRows", "2");
+        long batches = stat("batches");
+        assertEquals(5, ExpenseLedger.consolidate(pool));
+        assertEquals(batches + 3, stat("batches"));
+        assertEquals(List.of("Sarah Ali=550.0", "Lutron=375.0", "John Dine=100.0", "PPL=20.0"), stored());
+    }
+
+    @Test
+    void failedFoldLeavesEverythingAsItWas() throws Exception {
+        // the activity fold runs after the CUSTOMER merge, make it fail
+        TestDb.update(pool, "DROP TABLE PURCHASE_ACTIVITY CASCADE CONSTRAINTS");
+
+        assertThrows(SQLException.class, () -> ExpenseLedger.consolidate(pool));
+        assertEquals(List.of("1001=0.0", "1002=0.0", "1003=0.0"), ledger());     // not claimed
+        assertEquals(List.of("John Dine=0.0", "Sarah Ali=0.0", "Lutron=0.0", "PPL=0.0"), stored());
+        assertEquals(SPENDING, sql(SPENDING_SQL));
+    }
+}
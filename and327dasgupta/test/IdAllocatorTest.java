@@ -0,0 +1,59 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.Connection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class IdAllocatorTest {
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void open() throws Exception {
+        pool = TestDb.open(true);
+    }
+
+    @AfterEach
+    void close() {
+        pool.close();
+    }
+
+    @Test
+    void freshSchemaNeedsNoMove() throws Exception {
+        assertEquals(0, IdAllocator.align(pool));
+        try (Connection conn = pool.getConnection()) {
+            assertTrue(IdAllocator.next(conn, "catalog_seq") >= 200);
+        }
+    }
+
+    @Test
+    void sequenceBehindOldRowsIsMovedPastThem() throws Exception {
+        // rows the old MAX(pk)+1 code wrote above START WITH
+        TestDb.update(pool, "INSERT INTO CATALOG (catalog_id, vendor, description, price, manager_id) " +
+                            "VALUES (5123, 'Old', 'Written by MAX+1', 1, 1)");
+        TestDb.update(pool, "INSERT INTO CUSTOMER VALUES (777, 'Old Customer', 0)");
+
+        assertEquals(2, IdAllocator.align(pool));
+
+        Set<Integer> ids = new HashSet<>();
+        try (Connection conn = pool.getConnection()) {
+            // a few blocks, so the increment must be back to the block size afterwards
+            for (int i = 0; i < 175; i++) {
+                int id = IdAllocator.next(conn, "catalog_seq");
+                assertTrue(id > 5123, "id " + id);
+                assertTrue(ids.add(id), "duplicate " + id);
+            }
+            assertTrue(IdAllocator.next(conn, "customer_seq") > 777);
+        }
+        int min = ids.stream().min(Integer::compare).get();
+        int max = ids.stream().max(Integer::compare).get();
+        assertEquals(174, max - min);
+
+        // second start: nothing to do any more
+        assertEquals(0, IdAllocator.align(pool));
+    }
+}
@@ -0,0 +1,99 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.CharBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ManagerTest {
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void open() throws Exception {
+        pool = TestDb.open(true);
+    }
+
+    @AfterEach
+    void close() {
+        pool.close();
+    }
+
+    private int inUse() {
+        Matcher m = Pattern.compile("inUse=(\\d+)").matcher(pool.stats());
+        assertTrue(m.find());
+        return Integer.parseInt(m.group(1));
+    }
+
+    // hands the Scanner one line per read and notes how many connections were out while waiting for it
+    private class Typing implements Readable {
+        final List<String> lines;
+        final List<Integer> busy = new ArrayList<>();
+        int next = 0;
+
+        Typing(String... lines) {
+            this.lines = List.of(lines);
+        }
+
+        @Override
+        public int read(CharBuffer cb) {
+            if (next == lines.size()) return -1;
+            busy.add(inUse());
+            String l = lines.get(next++) + "\n";
+            cb.put(l);
+            return l.length();
+        }
+    }
+
+    private double price(int id) throws Exception {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement ps = conn.prepareStatement("SELECT price FROM CATALOG WHERE catalog_id = ?")) {
+            ps.setInt(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getDouble(1);
+            }
+        }
+    }
+
+    @Test
+    void updateCatalogHoldsNoConnectionWhileTyping() throws Exception {
+        // manager menu -> manage catalog -> update item, id 104, new price, back, back
+        Typing typing = new Typing("5", "3", "104", "80", "0", "0");
+        new Manager(pool, new Scanner(typing), null).run();
+
+        assertEquals(80.0, price(104), 0.001);
+        assertTrue(typing.busy.size() >= 4);    // the Scanner may read ahead at the end
+        for (int busy : typing.busy) assertEquals(0, busy);
+    }
+
+    @Test
+    void updateCatalogKeepsAConcurrentChange() throws Exception {
+        Typing typing = new Typing("5", "3", "104", "80", "0", "0") {
+            @Override
+            public int read(CharBuffer cb) {
+                // someone else reprices 104 while the manager is typing the new price
+                if (next == 3) {
+                    try (Connection conn = pool.getConnection()) {
+                        assertTrue(CatalogRepricer.setPrice(conn, 104, 60, 0));
+                    } catch (Exception e) {
+                        fail(e);
+                    }
+                }
+                return super.read(cb);
+            }
+        };
+        new Manager(pool, new Scanner(typing), null).run();
+
+        assertEquals(60.0, price(104), 0.001);
+    }
+}
@@ -0,0 +1,54 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PurchaseActivityTest {
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void open() throws Exception {
+        pool = TestDb.open(true);
+    }
+
+    @AfterEach
+    void close() {
+        pool.close();
+    }
+
+    private Map<Integer, Double> totals() throws Exception {
+        Map<Integer, Double> out = new LinkedHashMap<>();
+        try (Connection conn = pool.getConnection();
+             Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT pur_id, total FROM PURCHASE ORDER BY pur_id")) {
+            while (rs.next()) out.put(rs.getInt(1), rs.getDouble(2));
+        }
+        return out;
+    }
+
+    @Test
+    void seedTotalsMatchTheirLines() throws Exception {
+        assertEquals(0, PurchaseActivity.badTotals(pool));
+        assertEquals(Map.of(1001, 99.99, 1002, 550.0, 1003, 375.0), totals());
+    }
+
+    @Test
+    void backfillSetsZeroTotalsFromTheLines() throws Exception {
+        // what older versions (and the old seed data) stored
+        TestDb.update(pool, "UPDATE PURCHASE SET total = 0");
+        assertEquals(3, PurchaseActivity.badTotals(pool));
+
+        assertEquals(3, PurchaseActivity.backfillTotals(pool));
+        assertEquals(Map.of(1001, 99.99, 1002, 550.0, 1003, 375.0), totals());
+        assertEquals(0, PurchaseActivity.badTotals(pool));
+        assertEquals(0, PurchaseActivity.backfillTotals(pool));
+    }
+}
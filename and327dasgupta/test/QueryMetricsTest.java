@@ -0,0 +1,56 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class QueryMetricsTest {
+
+    private static final String SQL = "SELECT 1 FROM DUAL WHERE 1 = ?";
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void open() throws SQLException {
+        pool = new ConnectionPool("jdbc:h2:mem:metrics", "sa", "", 1, 1, 60_000, 1000, 0, 2);
+    }
+
+    @AfterEach
+    void close() {
+        pool.close();
+    }
+
+    private void query(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(SQL)) {
+            ps.setInt(1, 1);
+            ps.executeQuery().close();
+        }
+    }
+
+    private static long calls() {
+        for (QueryMetrics.Info i : QueryMetrics.top(Integer.MAX_VALUE)) {
+            if (i.getQuery().equals(SQL)) return i.getCalls();
+        }
+        return 0;
+    }
+
+    @Test
+    void resetZeroesQueriesStillInTheStatementCache() throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            query(conn);
+            query(conn);
+            assertEquals(2, calls());
+
+            QueryMetrics.reset();
+            assertEquals(0, calls());
+
+            // same cached statement as before the reset, still counted
+            query(conn);
+            assertEquals(1, calls());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ReportSchedulerTest {
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void open() throws Exception {
+        pool = TestDb.open(true);
+    }
+
+    @AfterEach
+    void close() {
+        System.clearProperty("lushop.reports.schedule");
+        System.clearProperty("lushop.reports.revenue.schedule");
+        pool.close();
+    }
+
+    // the schedule each built-in report ends up with, and what register() printed
+    private String schedules(ReportScheduler.Cron[] out) {
+        PrintStream old = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed));
+        try (ReportScheduler r = new ReportScheduler(pool)) {
+            out[0] = r.spending.schedule;
+            out[1] = r.revenue.schedule;
+            out[2] = r.activity.schedule;
+        } finally {
+            System.setOut(old);
+        }
+        return printed.toString();
+    }
+
+    @Test
+    void defaultIsOnDemand() {
+        ReportScheduler.Cron[] c = new ReportScheduler.Cron[3];
+        String printed = schedules(c);
+        assertNull(c[0]);
+        assertNull(c[1]);
+        assertNull(c[2]);
+        assertEquals("", printed);
+    }
+
+    @Test
+    void scheduleIsOptIn() {
+        System.setProperty("lushop.reports.schedule", "*/5 * * * *");
+        ReportScheduler.Cron[] c = new ReportScheduler.Cron[3];
+        schedules(c);
+        assertTrue(c[0].matches(LocalDateTime.of(2025, 9, 10, 12, 35)));
+        assertFalse(c[0].matches(LocalDateTime.of(2025, 9, 10, 12, 36)));
+        assertNotNull(c[1]);
+        assertNotNull(c[2]);
+    }
+
+    @Test
+    void oneReportCanBeScheduledAlone() {
+        System.setProperty("lushop.reports.revenue.schedule", "0 6 * * *");
+        ReportScheduler.Cron[] c = new ReportScheduler.Cron[3];
+        schedules(c);
+        assertNull(c[0]);
+        assertTrue(c[1].matches(LocalDateTime.of(2025, 9, 10, 6, 0)));
+        assertNull(c[2]);
+    }
+
+    @Test
+    void blankOffAndNoneMeanOnDemandWithoutAnError() {
+        for (String off : new String[] { "", "  ", "off", "NONE" }) {
+            System.setProperty("lushop.reports.schedule", off);
+            ReportScheduler.Cron[] c = new ReportScheduler.Cron[3];
+            String printed = schedules(c);
+            assertNull(c[0], "'" + off + "'");
+            assertNull(c[1]);
+            assertNull(c[2]);
+            assertEquals("", printed);
+        }
+    }
+
+    @Test
+    void oneReportCanBeTurnedOffAlone() {
+        System.setProperty("lushop.reports.schedule", "*/5 * * * *");
+        System.setProperty("lushop.reports.revenue.schedule", "");
+        ReportScheduler.Cron[] c = new ReportScheduler.Cron[3];
+        schedules(c);
+        assertNotNull(c[0]);
+        assertNull(c[1]);
+        assertNotNull(c[2]);
+    }
+
+    @Test
+    void badScheduleIsReportedAndOnDemand() {
+        System.setProperty("lushop.reports.schedule", "every five minutes");
+        ReportScheduler.Cron[] c = new ReportScheduler.Cron[3];
+        String printed = schedules(c);
+        assertNull(c[0]);
+        assertTrue(printed.contains("Bad schedule for report spending"), printed);
+    }
+
+    @Test
+    void cronFields() {
+        ReportScheduler.Cron c = ReportScheduler.Cron.parse("0,30 8-18 * * 1-5");
+        assertTrue(c.matches(LocalDateTime.of(2025, 9, 10, 8, 30)));        // Wednesday
+        assertFalse(c.matches(LocalDateTime.of(2025, 9, 10, 19, 0)));
+        assertFalse(c.matches(LocalDateTime.of(2025, 9, 13, 9, 0)));        // Saturday
+
+        // both day fields restricted: either one is enough
+        ReportScheduler.Cron d = ReportScheduler.Cron.parse("0 0 1 * 7");
+        assertTrue(d.matches(LocalDateTime.of(2025, 10, 1, 0, 0)));         // the 1st, a Wednesday
+        assertTrue(d.matches(LocalDateTime.of(2025, 9, 14, 0, 0)));         // a Sunday
+        assertFalse(d.matches(LocalDateTime.of(2025, 9, 15, 0, 0)));
+
+        assertTrue(ReportScheduler.Cron.parse("5/20 * * * *").matches(LocalDateTime.of(2025, 1, 1, 0, 45)));
+        assertThrows(IllegalArgumentException.class, () -> ReportScheduler.Cron.parse("* * * *"));
+        assertThrows(IllegalArgumentException.class, () -> ReportScheduler.Cron.parse("60 * * * *"));
+    }
+}
@@ -0,0 +1,77 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class StatementCacheTest {
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void open() throws SQLException {
+        pool = new ConnectionPool("jdbc:h2:mem:stmts", "sa", "", 1, 1, 60_000, 1000, 0, 2);
+    }
+
+    @AfterEach
+    void close() {
+        pool.close();
+    }
+
+    @Test
+    void cachedStatementIsReused() throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            String before = StatementCache.stats();
+            try (PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM DUAL WHERE 1 = ?")) {
+                ps.setInt(1, 1);
+                ps.executeQuery();
+            }
+            try (PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM DUAL WHERE 1 = ?")) {
+                assertFalse(ps.isClosed());
+            }
+            assertNotEquals(before, StatementCache.stats());
+        }
+    }
+
+    @Test
+    void tuningDoesNotLeakToTheNextBorrower() throws SQLException {
+        String sql = "SELECT 1 FROM DUAL";
+        int fetchSize, maxRows, timeout;
+        try (Connection conn = pool.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            fetchSize = ps.getFetchSize();
+            maxRows = ps.getMaxRows();
+            timeout = ps.getQueryTimeout();
+            ps.setFetchSize(fetchSize + 1000);
+            ps.setMaxRows(7);
+            ps.setQueryTimeout(99);
+        }
+        // one physical connection, so this is the same cached statement
+        try (Connection conn = pool.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            assertEquals(fetchSize, ps.getFetchSize());
+            assertEquals(maxRows, ps.getMaxRows());
+            assertEquals(timeout, ps.getQueryTimeout());
+        }
+    }
+
+    @Test
+    void connectionReturnedWithOpenStatementIsResetToo() throws SQLException {
+        String sql = "SELECT 2 FROM DUAL";
+        Connection conn = pool.getConnection();
+        PreparedStatement ps = conn.prepareStatement(sql);
+        int maxRows = ps.getMaxRows();
+        ps.setMaxRows(3);
+        conn.close();   // statement never closed, reset() takes it back
+        assertTrue(ps.isClosed());
+
+        try (Connection again = pool.getConnection();
+             PreparedStatement ps2 = again.prepareStatement(sql)) {
+            assertEquals(maxRows, ps2.getMaxRows());
+        }
+    }
+}
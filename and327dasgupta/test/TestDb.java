@@ -0,0 +1,36 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * a fresh in-memory H2 database (oracle mode) with dataGeneration/RelationalSchema.sql
+ * and DataPopulation.sql loaded, for tests that need the real tables.
+ * loading goes through SqlScript like Bench, which leaves out what H2 can't run.
+ */
+final class TestDb {
+
+    private static final AtomicInteger dbs = new AtomicInteger();
+
+    private TestDb() {}
+
+    static ConnectionPool open(boolean populate) throws SQLException, IOException {
+        String url = "jdbc:h2:mem:lushop" + dbs.incrementAndGet() + ";MODE=Oracle;DB_CLOSE_DELAY=-1";
+        ConnectionPool pool = new ConnectionPool(url, "sa", "", 1, 4, 60_000, 5000, 0, 2);
+        try (Connection conn = pool.getConnection()) {
+            SqlScript.run(conn, Paths.get("dataGeneration/RelationalSchema.sql"));
+            if (populate) SqlScript.run(conn, Paths.get("dataGeneration/DataPopulation.sql"));
+        } catch (SQLException | IOException e) {
+            pool.close();
+            throw e;
+        }
+        return pool;
+    }
+
+    static void update(ConnectionPool pool, String sql, Object... params) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            Jdbc.update(conn, sql, params);
+        }
+    }
+}